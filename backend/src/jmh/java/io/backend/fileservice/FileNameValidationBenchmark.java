@@ -0,0 +1,31 @@
+package io.backend.fileservice;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking a file name, legacy check against {@link SafeFileNames},
+ * over a mix of ordinary names and ones each rule rejects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileNameValidationBenchmark {
+
+	@Param({"reports/2024/q3/summary-final.csv", "photo.jpg", "exports/a%2e%2e/x.csv", "LPT1.txt", "notes:v2.md"})
+	public String name;
+
+	@Benchmark
+	public boolean legacy() {
+		return LegacyFileNames.isValid(name);
+	}
+
+	@Benchmark
+	public boolean singlePass() {
+		return SafeFileNames.isValid(name);
+	}
+}
@@ -0,0 +1,63 @@
+package io.backend.fileservice;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query cost on a namespace of a million files spread over nested folders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FileSearchIndexBenchmark {
+
+	private static final String[] WORDS = {"sales", "orders", "customers", "events", "report", "summary", "raw",
+		"clean", "daily", "monthly", "invoice", "ledger", "clicks", "sessions", "users", "inventory"};
+	private static final String[] EXTENSIONS = {".csv", ".json", ".parquet", ".txt", ".csv.gz"};
+
+	private FileSearchIndex index;
+
+	@Setup
+	public void build() {
+		Random random = new Random(1);
+		index = new FileSearchIndex(10_000_000);
+		for (int i = 0; i < 1_000_000; i++) {
+			String path = WORDS[random.nextInt(WORDS.length)] + "/" + (2015 + random.nextInt(10)) + "/"
+				+ String.format("%02d", 1 + random.nextInt(12)) + "/"
+				+ WORDS[random.nextInt(WORDS.length)] + "_" + WORDS[random.nextInt(WORDS.length)] + "_" + i
+				+ EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+			index.add(FileSearchIndex.LOCAL, path);
+		}
+	}
+
+	@Benchmark
+	public Map<String, Object> rareSubstring() {
+		return index.search(FileSearchIndex.LOCAL, "", "ledger_clicks_12345", null, null, 0, 100);
+	}
+
+	@Benchmark
+	public Map<String, Object> commonSubstring() {
+		return index.search(FileSearchIndex.LOCAL, "", "invoice", null, null, 0, 100);
+	}
+
+	@Benchmark
+	public Map<String, Object> globInFolder() {
+		return index.search(FileSearchIndex.LOCAL, "sales/2020/", null, "*_users_*.json", null, 0, 100);
+	}
+
+	@Benchmark
+	public Map<String, Object> extension() {
+		return index.search(FileSearchIndex.LOCAL, "", null, null, "parquet", 0, 100);
+	}
+
+	@Benchmark
+	public Map<String, Object> prefixPage() {
+		return index.search(FileSearchIndex.LOCAL, "events/2019/0", null, null, null, 500, 100);
+	}
+}
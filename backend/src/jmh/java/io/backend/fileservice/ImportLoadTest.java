@@ -0,0 +1,351 @@
+package io.backend.fileservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end import throughput, offline. Starts the application in this JVM against
+ * {@link S3StandIn} and {@link JdbcStandIn} (or a real PostgreSQL server), generates a
+ * dataset of the requested shape and drives the REST import endpoints the way the UI
+ * does, polling job progress. Reports files/s, MB/s, p50/p99 upstream latency and
+ * peak heap for every run.
+ *
+ * <pre>
+ * mvn -Pbenchmarks verify -DskipTests -Dbench.main=io.backend.fileservice.ImportLoadTest \
+ *     -Dbench.args="--scenario s3 --files 2000 --file-size 64k-4m --jobs 4"
+ * </pre>
+ *
+ * Options, with defaults: --scenario all (s3, postgres or all), --runs 3, --warmup 1,
+ * --seed 1; S3: --files 500, --file-size 256k (a size or a min-max range, k/m/g
+ * suffixes), --folders 20, --jobs 1 (concurrent jobs sharing the files), --s3-latency-ms 0;
+ * PostgreSQL: --tables 8, --rows 200000, --columns 8, --text-width 24,
+ * --rows-per-page 60, or --pg-host, --pg-port, --pg-database, --pg-user, --pg-password
+ * and --pg-tables to export from a real server. Application properties are
+ * overridden with --set name=value[,name=value...]. Latency is per object GET or per
+ * table scan, from the upstream's side; heap includes the stand-ins.
+ */
+public final class ImportLoadTest {
+
+	private static final String BUCKET = "bench";
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	private final Map<String, String> options;
+	private final Random random;
+	private final HttpClient http = HttpClient.newHttpClient();
+	private final Path uploads;
+	private String base;
+
+	private ImportLoadTest(Map<String, String> options, Path work) {
+		this.options = options;
+		this.random = new Random(Long.parseLong(option("seed", "1")));
+		this.uploads = work.resolve("uploads");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		Path work = Files.createTempDirectory("import-load-test");
+		try {
+			new ImportLoadTest(options, work).run(work);
+		} finally {
+			deleteContents(work);
+			Files.deleteIfExists(work);
+		}
+		System.exit(0);
+	}
+
+	private void run(Path work) throws Exception {
+		String scenario = option("scenario", "all");
+		boolean s3Scenario = scenario.equals("s3") || scenario.equals("all");
+		boolean postgresScenario = scenario.equals("postgres") || scenario.equals("all");
+		boolean realPostgres = options.containsKey("pg-host");
+
+		try (S3StandIn s3 = new S3StandIn(Long.parseLong(option("s3-latency-ms", "0")))) {
+			JdbcStandIn jdbc = JdbcStandIn.register();
+			List<String> keys = s3Scenario ? generateObjects(s3) : List.of();
+			List<String> tables = postgresScenario ? (realPostgres
+				? List.of(option("pg-tables", "").split(",")) : generateTables(jdbc)) : List.of();
+
+			List<String> arguments = new ArrayList<>(List.of(
+				"--server.port=0",
+				"--file.upload-dir=" + uploads,
+				"--file.metadata-dir=" + work.resolve("file-metadata"),
+				"--s3.cache.dir=" + work.resolve("s3-cache"),
+				"--s3.cache.max-bytes=0", // Every run transfers, rather than the first filling the cache
+				"--jobs.journal-dir=" + work.resolve("job-journal"),
+				"--s3.endpoint=" + s3.endpoint(),
+				"--s3.path-style-access=true",
+				"--logging.level.root=WARN",
+				"--spring.main.banner-mode=off"));
+			if (!realPostgres) {
+				arguments.add("--postgres.url-template=" + JdbcStandIn.URL_TEMPLATE);
+			}
+			for (String property : option("set", "").split(",")) {
+				if (!property.isBlank()) {
+					arguments.add("--" + property.trim());
+				}
+			}
+
+			try (ConfigurableApplicationContext app = new SpringApplicationBuilder(FileserviceApplication.class)
+					.run(arguments.toArray(String[]::new))) {
+				base = "http://localhost:" + app.getEnvironment().getProperty("local.server.port") + "/rest";
+				System.out.printf("%-9s %4s %7s %9s %8s %9s %8s %9s %9s %9s%n", "scenario", "run", "files", "MB",
+					"seconds", "files/s", "MB/s", "p50 ms", "p99 ms", "heap MB");
+				int warmup = Integer.parseInt(option("warmup", "1"));
+				int runs = Integer.parseInt(option("runs", "3"));
+				for (int run = 1 - warmup; run <= runs; run++) {
+					if (s3Scenario) {
+						report("s3", run, importFromS3(keys, s3), s3.getLatencies);
+					}
+					if (postgresScenario) {
+						report("postgres", run, importFromPostgres(tables), jdbc.queryLatencies);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keys spread over folders, with sizes drawn uniformly from the requested range
+	 */
+	private List<String> generateObjects(S3StandIn s3) {
+		String[] sizes = option("file-size", "256k").split("-");
+		long min = bytes(sizes[0]);
+		long max = sizes.length > 1 ? bytes(sizes[1]) : min;
+		int folders = Integer.parseInt(option("folders", "20"));
+		int files = Integer.parseInt(option("files", "500"));
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < files; i++) {
+			String key = String.format("data/folder-%03d/file-%06d.csv", random.nextInt(folders), i);
+			s3.put(BUCKET, key, min + (long) (random.nextDouble() * (max - min + 1)));
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private List<String> generateTables(JdbcStandIn jdbc) {
+		List<String> tables = new ArrayList<>();
+		JdbcStandIn.Table shape = new JdbcStandIn.Table(Long.parseLong(option("rows", "200000")),
+			Integer.parseInt(option("columns", "8")), Integer.parseInt(option("text-width", "24")),
+			Integer.parseInt(option("rows-per-page", "60")));
+		for (int i = 0; i < Integer.parseInt(option("tables", "8")); i++) {
+			String table = String.format("table_%03d", i);
+			jdbc.put("public", table, shape);
+			tables.add("public." + table);
+		}
+		return tables;
+	}
+
+	private Result importFromS3(List<String> keys, S3StandIn s3) throws Exception {
+		Map<String, Object> request = new HashMap<>();
+		request.put("accessKey", "load-test");
+		request.put("secretKey", "load-test");
+		request.put("region", "us-east-1");
+		request.put("bucket", BUCKET);
+		request.put("path", "");
+		return measure(s3.bytesServed::get, () -> {
+			// The listing the UI shows before an import is part of the work
+			List<?> listed = (List<?>) post("/list-s3-all-files", request).get("files");
+			if (listed == null || listed.size() != keys.size()) {
+				throw new IllegalStateException("Listed " + (listed == null ? 0 : listed.size()) + " of " + keys.size() + " objects");
+			}
+			int jobs = Math.max(1, Integer.parseInt(option("jobs", "1")));
+			List<String> jobIds = new ArrayList<>();
+			for (int job = 0; job < jobs; job++) {
+				List<String> files = new ArrayList<>();
+				for (int i = job; i < keys.size(); i += jobs) {
+					files.add(keys.get(i));
+				}
+				Map<String, Object> jobRequest = new HashMap<>(request);
+				jobRequest.put("files", files);
+				jobIds.add((String) post("/load-s3-progress", jobRequest).get("jobId"));
+			}
+			await(jobIds);
+			return keys.size();
+		});
+	}
+
+	private Result importFromPostgres(List<String> tables) throws Exception {
+		Map<String, Object> request = new HashMap<>();
+		request.put("host", option("pg-host", "localhost"));
+		request.put("port", Integer.parseInt(option("pg-port", "5432")));
+		request.put("database", option("pg-database", "bench"));
+		request.put("username", option("pg-user", "bench"));
+		request.put("password", option("pg-password", "bench"));
+		request.put("tables", tables);
+		return measure(() -> sizeOf(uploads), () -> {
+			await(List.of((String) post("/load-postgres-progress", request).get("jobId")));
+			return tables.size();
+		});
+	}
+
+	private interface Work {
+		int run() throws Exception;
+	}
+
+	private interface Counter {
+		long get() throws IOException;
+	}
+
+	private record Result(int files, long bytes, long nanos, long peakHeap) {
+	}
+
+	/**
+	 * Run the work from a clean upload directory, sampling heap use every 10 ms.
+	 * Bytes are the counter's growth over the run.
+	 */
+	private Result measure(Counter bytes, Work work) throws Exception {
+		deleteContents(uploads);
+		System.gc();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long[] peak = {memory.getHeapMemoryUsage().getUsed()};
+		Thread sampler = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				peak[0] = Math.max(peak[0], memory.getHeapMemoryUsage().getUsed());
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "heap-sampler");
+		sampler.setDaemon(true);
+
+		long bytesBefore = bytes.get();
+		sampler.start();
+		long began = System.nanoTime();
+		int files = work.run();
+		long nanos = System.nanoTime() - began;
+		sampler.interrupt();
+		sampler.join();
+		return new Result(files, bytes.get() - bytesBefore, nanos, Math.max(peak[0], memory.getHeapMemoryUsage().getUsed()));
+	}
+
+	private void report(String scenario, int run, Result result, Latencies latencies) {
+		double seconds = result.nanos / 1e9;
+		double megabytes = result.bytes / (1024.0 * 1024.0);
+		System.out.printf("%-9s %4s %7d %9.1f %8.2f %9.1f %8.1f %9.2f %9.2f %9.0f%n", scenario,
+			run <= 0 ? "warm" : String.valueOf(run), result.files, megabytes, seconds, result.files / seconds,
+			megabytes / seconds, latencies.percentile(50) / 1e6, latencies.percentile(99) / 1e6,
+			result.peakHeap / (1024.0 * 1024.0));
+		latencies.reset();
+	}
+
+	/**
+	 * Poll until every job is done; a job that ends any other way fails the run
+	 */
+	private void await(List<String> jobIds) throws Exception {
+		Set<String> running = new HashSet<>(jobIds);
+		while (!running.isEmpty()) {
+			for (Iterator<String> jobs = running.iterator(); jobs.hasNext(); ) {
+				Map<String, Object> progress = get("/import-progress/" + jobs.next());
+				String status = (String) progress.get("status");
+				if ("done".equals(status)) {
+					jobs.remove();
+				} else if ("error".equals(status) || "cancelled".equals(status)) {
+					throw new IllegalStateException("Import " + status + ": " + progress.get("message"));
+				}
+			}
+			Thread.sleep(20);
+		}
+	}
+
+	private Map<String, Object> post(String path, Map<String, Object> body) throws Exception {
+		return send(HttpRequest.newBuilder(URI.create(base + path)).header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofByteArray(JSON.writeValueAsBytes(body))).build());
+	}
+
+	private Map<String, Object> get(String path) throws Exception {
+		return send(HttpRequest.newBuilder(URI.create(base + path)).GET().build());
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> send(HttpRequest request) throws Exception {
+		HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+		if (response.statusCode() != 200) {
+			throw new IllegalStateException(request.uri().getPath() + " returned " + response.statusCode() + ": "
+				+ new String(response.body()));
+		}
+		return JSON.readValue(response.body(), Map.class);
+	}
+
+	private String option(String name, String defaultValue) {
+		return options.getOrDefault(name, defaultValue);
+	}
+
+	private static long bytes(String size) {
+		String value = size.trim().toLowerCase(Locale.ROOT);
+		char unit = value.charAt(value.length() - 1);
+		long multiplier = unit == 'k' ? 1L << 10 : unit == 'm' ? 1L << 20 : unit == 'g' ? 1L << 30 : 1;
+		return Long.parseLong(multiplier == 1 ? value : value.substring(0, value.length() - 1)) * multiplier;
+	}
+
+	private static long sizeOf(Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return 0;
+		}
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+		}
+	}
+
+	private static void deleteContents(Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+				if (!path.equals(directory)) {
+					Files.deleteIfExists(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Latencies recorded from many threads, kept in full for exact percentiles
+	 */
+	static final class Latencies {
+
+		private long[] nanos = new long[1024];
+		private int count;
+
+		synchronized void record(long elapsedNanos) {
+			if (count == nanos.length) {
+				nanos = Arrays.copyOf(nanos, count * 2);
+			}
+			nanos[count++] = elapsedNanos;
+		}
+
+		synchronized long percentile(int percent) {
+			if (count == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(nanos, count);
+			Arrays.sort(sorted);
+			return sorted[Math.min(count - 1, (int) Math.ceil(count * percent / 100.0) - 1)];
+		}
+
+		synchronized void reset() {
+			count = 0;
+		}
+	}
+}
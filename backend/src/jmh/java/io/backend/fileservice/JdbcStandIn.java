@@ -0,0 +1,326 @@
+package io.backend.fileservice;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A JDBC driver for {@code jdbc:standin:} URLs that answers the statements of a
+ * PostgreSQL export with generated rows, for load tests without a database server.
+ * It knows the pg_class size estimate, pg_export_snapshot, SET TRANSACTION SNAPSHOT
+ * and plain column scans with optional ctid block ranges and LIMIT; anything else
+ * fails. Rows are laid out a fixed number to a heap page so block ranges select
+ * the rows a real table would return.
+ */
+final class JdbcStandIn implements Driver {
+
+	static final String URL_TEMPLATE = "jdbc:standin://%s:%d/%s";
+
+	private static final int PAGE_BYTES = 8192;
+	private static final Pattern FROM = Pattern.compile("FROM \"([^\"]+)\"\\.\"([^\"]+)\"");
+	private static final Pattern CTID = Pattern.compile("\\((\\d+),0\\)");
+	private static final JdbcStandIn INSTANCE = new JdbcStandIn();
+
+	private final Map<String, Table> tables = new ConcurrentHashMap<>();
+	final ImportLoadTest.Latencies queryLatencies = new ImportLoadTest.Latencies();
+
+	/**
+	 * The shape of one generated table: a bigint id followed by int, varchar and numeric columns in turn
+	 */
+	record Table(long rows, int columns, int textWidth, int rowsPerPage) {
+
+		long pages() {
+			return (rows + rowsPerPage - 1) / rowsPerPage;
+		}
+	}
+
+	private JdbcStandIn() {
+	}
+
+	static JdbcStandIn register() throws SQLException {
+		DriverManager.registerDriver(INSTANCE);
+		return INSTANCE;
+	}
+
+	void put(String schema, String table, Table shape) {
+		tables.put(schema + "." + table, shape);
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) {
+		if (!acceptsURL(url)) {
+			return null;
+		}
+		return proxy(Connection.class, new Handler() {
+			@Override
+			Object invoke(Method method, Object[] args) {
+				return switch (method.getName()) {
+					case "createStatement" -> statement(null);
+					case "prepareStatement" -> statement((String) args[0]);
+					case "getMetaData" -> databaseMetaData();
+					default -> null;
+				};
+			}
+		});
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith("jdbc:standin:");
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/**
+	 * A current server, so exports split large tables into block ranges
+	 */
+	private static DatabaseMetaData databaseMetaData() {
+		return proxy(DatabaseMetaData.class, new Handler() {
+			@Override
+			Object invoke(Method method, Object[] args) {
+				return switch (method.getName()) {
+					case "getDatabaseMajorVersion" -> 16;
+					case "getDatabaseProductName" -> "PostgreSQL";
+					default -> null;
+				};
+			}
+		});
+	}
+
+	private PreparedStatement statement(String preparedSql) {
+		Map<Integer, Object> parameters = new HashMap<>();
+		return proxy(PreparedStatement.class, new Handler() {
+			@Override
+			Object invoke(Method method, Object[] args) throws SQLException {
+				switch (method.getName()) {
+					case "setString", "setObject", "setInt", "setLong", "setNull" -> {
+						parameters.put((Integer) args[0], method.getName().equals("setNull") ? null : args[1]);
+						return null;
+					}
+					case "execute" -> {
+						String sql = args != null ? (String) args[0] : preparedSql;
+						if (!sql.startsWith("SET ")) {
+							throw new SQLException("Not supported by the stand-in: " + sql);
+						}
+						return false;
+					}
+					case "executeQuery" -> {
+						return query(args != null ? (String) args[0] : preparedSql, parameters);
+					}
+					default -> {
+						return null;
+					}
+				}
+			}
+		});
+	}
+
+	private ResultSet query(String sql, Map<Integer, Object> parameters) throws SQLException {
+		if (sql.contains("pg_export_snapshot()")) {
+			return rows(List.<Object[]>of(new Object[]{"00000003-0000001B-1"}), new String[]{"pg_export_snapshot"});
+		}
+		if (sql.contains("FROM pg_class")) {
+			Table table = tables.get(parameters.get(1) + "." + parameters.get(2));
+			return rows(table == null ? List.of() : List.<Object[]>of(new Object[]{table.pages() * PAGE_BYTES, table.pages(), "r"}),
+				new String[]{"pg_relation_size", "relpages", "relkind"});
+		}
+		Matcher from = FROM.matcher(sql);
+		if (!sql.startsWith("SELECT ") || !from.find() || sql.contains(" WHERE ") && !sql.contains(" WHERE ctid >= ?")) {
+			throw new SQLException("Not supported by the stand-in: " + sql);
+		}
+		Table table = tables.get(from.group(1) + "." + from.group(2));
+		if (table == null) {
+			throw new SQLException("relation \"" + from.group(1) + "." + from.group(2) + "\" does not exist");
+		}
+		long first = 0;
+		long end = table.rows;
+		int parameter = 1;
+		if (sql.contains("ctid >= ?")) {
+			first = block(parameters.get(parameter++)) * table.rowsPerPage;
+			if (sql.contains("ctid < ?")) {
+				end = Math.min(end, block(parameters.get(parameter++)) * table.rowsPerPage);
+			}
+		}
+		if (sql.contains(" LIMIT ?")) {
+			end = Math.min(end, first + ((Number) parameters.get(parameter)).longValue());
+		}
+		return scan(table, first, end);
+	}
+
+	private static long block(Object ctid) throws SQLException {
+		Matcher matcher = CTID.matcher(String.valueOf(ctid));
+		if (!matcher.matches()) {
+			throw new SQLException("Bad ctid: " + ctid);
+		}
+		return Long.parseLong(matcher.group(1));
+	}
+
+	/**
+	 * A result set over fixed rows, for the catalog queries
+	 */
+	private ResultSet rows(List<Object[]> rows, String[] names) {
+		int[] row = {-1};
+		return proxy(ResultSet.class, new Handler() {
+			@Override
+			Object invoke(Method method, Object[] args) {
+				return switch (method.getName()) {
+					case "next" -> ++row[0] < rows.size();
+					case "getString" -> String.valueOf(rows.get(row[0])[(Integer) args[0] - 1]);
+					case "getLong" -> ((Number) rows.get(row[0])[(Integer) args[0] - 1]).longValue();
+					case "getObject" -> rows.get(row[0])[(Integer) args[0] - 1];
+					case "getMetaData" -> metaData(names.length, i -> names[i - 1], i -> Types.VARCHAR, i -> "text");
+					default -> null;
+				};
+			}
+		});
+	}
+
+	/**
+	 * Rows [first, end) of a generated table; the query's latency runs until the result set is closed
+	 */
+	private ResultSet scan(Table table, long first, long end) {
+		long began = System.nanoTime();
+		String[] texts = new String[64];
+		String[] numbers = new String[1000];
+		for (int i = 0; i < texts.length; i++) {
+			StringBuilder text = new StringBuilder();
+			while (text.length() < table.textWidth) {
+				text.append((char) ('a' + (i + text.length()) % 26));
+			}
+			texts[i] = text.toString();
+		}
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = (i * 37) + "." + (10 + i % 90);
+		}
+		long[] row = {first - 1};
+		boolean[] closed = {false};
+		return proxy(ResultSet.class, new Handler() {
+			@Override
+			Object invoke(Method method, Object[] args) {
+				switch (method.getName()) {
+					case "next":
+						return ++row[0] < end;
+					case "wasNull":
+						return false;
+					case "getLong":
+						return (Integer) args[0] == 1 ? row[0] + 1 : value(row[0], (Integer) args[0]);
+					case "getInt":
+						return (int) value(row[0], (Integer) args[0]);
+					case "getString":
+					case "getObject": {
+						int column = (Integer) args[0];
+						return switch (column == 1 ? 0 : (column - 2) % 3) {
+							case 0 -> column == 1 ? String.valueOf(row[0] + 1) : String.valueOf(value(row[0], column));
+							case 1 -> texts[(int) ((row[0] + column) % texts.length)];
+							default -> numbers[(int) ((row[0] * 7 + column) % numbers.length)];
+						};
+					}
+					case "getMetaData":
+						return metaData(table.columns,
+							i -> i == 1 ? "id" : "c" + (i - 1),
+							i -> i == 1 ? Types.BIGINT : new int[]{Types.INTEGER, Types.VARCHAR, Types.NUMERIC}[(i - 2) % 3],
+							i -> i == 1 ? "int8" : new String[]{"int4", "varchar", "numeric"}[(i - 2) % 3]);
+					case "close":
+						if (!closed[0]) {
+							closed[0] = true;
+							queryLatencies.record(System.nanoTime() - began);
+						}
+						return null;
+					default:
+						return null;
+				}
+			}
+		});
+	}
+
+	private static long value(long row, int column) {
+		return (row * 31 + column * 7919) % 1_000_000;
+	}
+
+	private static ResultSetMetaData metaData(int columns, java.util.function.IntFunction<String> name,
+											  java.util.function.IntUnaryOperator type,
+											  java.util.function.IntFunction<String> typeName) {
+		return proxy(ResultSetMetaData.class, new Handler() {
+			@Override
+			Object invoke(Method method, Object[] args) {
+				return switch (method.getName()) {
+					case "getColumnCount" -> columns;
+					case "getColumnName", "getColumnLabel" -> name.apply((Integer) args[0]);
+					case "getColumnType" -> type.applyAsInt((Integer) args[0]);
+					case "getColumnTypeName" -> typeName.apply((Integer) args[0]);
+					case "isNullable" -> ResultSetMetaData.columnNoNulls;
+					default -> null;
+				};
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(JdbcStandIn.class.getClassLoader(), new Class<?>[]{type}, handler);
+	}
+
+	/**
+	 * Dispatches by method name; methods it does not answer return the zero value of their type
+	 */
+	private abstract static class Handler implements InvocationHandler {
+
+		abstract Object invoke(Method method, Object[] args) throws SQLException;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "stand-in " + method.getDeclaringClass().getSimpleName();
+				case "isWrapperFor":
+					return false;
+				default:
+			}
+			Object result = invoke(method, args);
+			if (result != null || !method.getReturnType().isPrimitive()) {
+				return result;
+			}
+			Class<?> type = method.getReturnType();
+			if (type == boolean.class) {
+				return false;
+			}
+			if (type == void.class) {
+				return null;
+			}
+			return type == long.class ? 0L : type == double.class ? 0.0 : type == float.class ? 0.0f : 0;
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package io.backend.fileservice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process, S3-compatible endpoint for load tests, reached with path-style
+ * addressing. It answers ListObjectsV2, HEAD and GET (with Range and If-Match) and
+ * ignores signatures. Objects are generated rather than stored: an object of a given
+ * size is CSV text repeated from a shared block, with its MD5 as ETag, so millions
+ * of objects cost only their keys.
+ */
+final class S3StandIn implements Closeable {
+
+	private static final String LAST_MODIFIED = "2024-01-01T00:00:00.000Z";
+	private static final String HTTP_DATE = "Mon, 01 Jan 2024 00:00:00 GMT";
+	private static final int MAX_KEYS = 1000;
+
+	private final Map<String, NavigableMap<String, Long>> buckets = new ConcurrentHashMap<>();
+	private final Map<Long, String> eTags = new ConcurrentHashMap<>();
+	private final byte[] block;
+	private final long latencyMillis;
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "s3-stand-in");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	final ImportLoadTest.Latencies getLatencies = new ImportLoadTest.Latencies();
+	final AtomicLong bytesServed = new AtomicLong();
+
+	/**
+	 * Start listening on a free loopback port; latencyMillis delays the first byte of every response
+	 */
+	S3StandIn(long latencyMillis) throws IOException {
+		this.latencyMillis = latencyMillis;
+		this.block = csvBlock(256 * 1024);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 512);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	String endpoint() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	void put(String bucket, String key, long size) {
+		buckets.computeIfAbsent(bucket, name -> new ConcurrentSkipListMap<>()).put(key, size);
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (latencyMillis > 0) {
+				Thread.sleep(latencyMillis);
+			}
+			String path = exchange.getRequestURI().getPath();
+			int slash = path.indexOf('/', 1);
+			String bucket = slash < 0 ? path.substring(1) : path.substring(1, slash);
+			String key = slash < 0 ? "" : path.substring(slash + 1);
+			NavigableMap<String, Long> objects = buckets.get(bucket);
+			if (objects == null) {
+				error(exchange, 404, "NoSuchBucket");
+				return;
+			}
+			String method = exchange.getRequestMethod();
+			if (key.isEmpty() && method.equals("GET")) {
+				list(exchange, objects, query(exchange.getRequestURI().getRawQuery()));
+			} else if (method.equals("GET") || method.equals("HEAD")) {
+				Long size = objects.get(key);
+				if (size == null) {
+					error(exchange, 404, "NoSuchKey");
+				} else {
+					get(exchange, size, method.equals("HEAD"));
+				}
+			} else {
+				error(exchange, 501, "NotImplemented");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void list(HttpExchange exchange, NavigableMap<String, Long> objects, Map<String, String> query) throws IOException {
+		String prefix = query.getOrDefault("prefix", "");
+		String delimiter = query.getOrDefault("delimiter", "");
+		String after = query.getOrDefault("continuation-token", query.getOrDefault("start-after", ""));
+		int maxKeys = Math.min(MAX_KEYS, Integer.parseInt(query.getOrDefault("max-keys", String.valueOf(MAX_KEYS))));
+
+		StringBuilder contents = new StringBuilder();
+		Set<String> commonPrefixes = new LinkedHashSet<>();
+		int count = 0;
+		String last = null;
+		boolean truncated = false;
+		for (Map.Entry<String, Long> object : objects.tailMap(after.isEmpty() ? prefix : after, after.isEmpty()).entrySet()) {
+			String key = object.getKey();
+			if (!key.startsWith(prefix)) {
+				break;
+			}
+			if (count == maxKeys) {
+				truncated = true;
+				break;
+			}
+			int folderEnd = delimiter.isEmpty() ? -1 : key.indexOf(delimiter, prefix.length());
+			if (folderEnd >= 0) {
+				String commonPrefix = key.substring(0, folderEnd + delimiter.length());
+				if (commonPrefixes.add(commonPrefix)) {
+					count++;
+				}
+			} else {
+				contents.append("<Contents><Key>").append(escape(key)).append("</Key><LastModified>").append(LAST_MODIFIED)
+					.append("</LastModified><ETag>&quot;").append(eTag(object.getValue())).append("&quot;</ETag><Size>")
+					.append(object.getValue()).append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+				count++;
+			}
+			last = key;
+		}
+
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+			.append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Name>bench</Name><Prefix>")
+			.append(escape(prefix)).append("</Prefix><KeyCount>").append(count).append("</KeyCount><MaxKeys>")
+			.append(maxKeys).append("</MaxKeys><IsTruncated>").append(truncated).append("</IsTruncated>");
+		if (!delimiter.isEmpty()) {
+			xml.append("<Delimiter>").append(escape(delimiter)).append("</Delimiter>");
+		}
+		if (truncated) {
+			// Skip the rest of the last folder, which was already reported as a common prefix
+			String token = last;
+			for (String commonPrefix : commonPrefixes) {
+				if (last.startsWith(commonPrefix)) {
+					token = commonPrefix + Character.MAX_VALUE;
+				}
+			}
+			xml.append("<NextContinuationToken>").append(escape(token)).append("</NextContinuationToken>");
+		}
+		xml.append(contents);
+		for (String commonPrefix : commonPrefixes) {
+			xml.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix)).append("</Prefix></CommonPrefixes>");
+		}
+		xml.append("</ListBucketResult>");
+		respond(exchange, 200, "application/xml", xml.toString());
+	}
+
+	private void get(HttpExchange exchange, long size, boolean head) throws IOException {
+		String eTag = "\"" + eTag(size) + "\"";
+		String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+		if (ifMatch != null && !ifMatch.equals(eTag) && !ifMatch.equals("*")) {
+			error(exchange, 412, "PreconditionFailed");
+			return;
+		}
+		long start = 0;
+		long end = size;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		if (range != null && range.startsWith("bytes=")) {
+			String[] bounds = range.substring("bytes=".length()).split("-", 2);
+			start = Long.parseLong(bounds[0]);
+			end = bounds[1].isEmpty() ? size : Math.min(size, Long.parseLong(bounds[1]) + 1);
+			if (start >= size) {
+				error(exchange, 416, "InvalidRange");
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + size);
+		}
+		exchange.getResponseHeaders().set("ETag", eTag);
+		exchange.getResponseHeaders().set("Last-Modified", HTTP_DATE);
+		exchange.getResponseHeaders().set("Content-Type", "text/csv");
+		exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+		int status = range != null ? 206 : 200;
+		if (head) {
+			// The server leaves out the length of HEAD responses unless it is set by hand
+			exchange.getResponseHeaders().set("Content-Length", String.valueOf(size));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+
+		long began = System.nanoTime();
+		exchange.sendResponseHeaders(status, end - start);
+		OutputStream body = exchange.getResponseBody();
+		long offset = start;
+		while (offset < end) {
+			int from = (int) (offset % block.length);
+			int length = (int) Math.min(block.length - from, end - offset);
+			body.write(block, from, length);
+			offset += length;
+		}
+		body.flush();
+		bytesServed.addAndGet(end - start);
+		getLatencies.record(System.nanoTime() - began);
+	}
+
+	/**
+	 * The content MD5 of an object of the given size, computed once per size
+	 */
+	private String eTag(long size) {
+		return eTags.computeIfAbsent(size, length -> {
+			try {
+				MessageDigest md5 = MessageDigest.getInstance("MD5");
+				for (long offset = 0; offset < length; offset += block.length) {
+					md5.update(block, 0, (int) Math.min(block.length, length - offset));
+				}
+				return HexFormat.of().formatHex(md5.digest());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	private static void error(HttpExchange exchange, int status, String code) throws IOException {
+		respond(exchange, status, "application/xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code
+			+ "</Code><Message>" + code + "</Message></Error>");
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+	}
+
+	private static Map<String, String> query(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery == null) {
+			return query;
+		}
+		for (String parameter : rawQuery.split("&")) {
+			int equals = parameter.indexOf('=');
+			String name = equals < 0 ? parameter : parameter.substring(0, equals);
+			String value = equals < 0 ? "" : parameter.substring(equals + 1);
+			query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return query;
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	/**
+	 * Lines of order-like CSV, cut to exactly the given length
+	 */
+	private static byte[] csvBlock(int length) {
+		StringBuilder text = new StringBuilder("id,customer,amount,created_at,status\n");
+		Random random = new Random(3);
+		String[] statuses = {"paid", "open", "refunded", "cancelled"};
+		for (int row = 1; text.length() < length; row++) {
+			text.append(row).append(",customer-").append(random.nextInt(100_000)).append(',')
+				.append(random.nextInt(100_000)).append('.').append(random.nextInt(90) + 10).append(",2024-0")
+				.append(1 + random.nextInt(9)).append('-').append(10 + random.nextInt(18)).append(',')
+				.append(statuses[random.nextInt(statuses.length)]).append('\n');
+		}
+		return Arrays.copyOf(text.toString().getBytes(StandardCharsets.US_ASCII), length);
+	}
+}
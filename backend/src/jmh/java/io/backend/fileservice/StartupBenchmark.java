@@ -0,0 +1,140 @@
+package io.backend.fileservice;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cold start, measured as the time from launching a JVM until the application
+ * answers its first request. Each launch gets fresh storage directories and port.
+ * The packaged jar is compared with the extracted layout and, when the cds profile
+ * has trained one, the extracted layout with its class data sharing archive.
+ *
+ * <pre>
+ * mvn -Pbenchmarks,cds verify -DskipTests -Dbench.main=io.backend.fileservice.StartupBenchmark \
+ *     -Dbench.args="--runs 5"
+ * </pre>
+ *
+ * Options, with defaults: --runs 5, --target target (the build directory),
+ * --path /rest/list (the first request), --jvm-args "" (added to every launch),
+ * --app-args "" (application arguments, e.g. --spring.main.lazy-initialization=true).
+ */
+public final class StartupBenchmark {
+
+	private static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+	private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+		}
+		int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+		Path target = Paths.get(options.getOrDefault("target", "target")).toAbsolutePath();
+		String path = options.getOrDefault("path", "/rest/list");
+		List<String> jvmArgs = split(options.getOrDefault("jvm-args", ""));
+		List<String> appArgs = split(options.getOrDefault("app-args", ""));
+
+		Path jar;
+		try (Stream<Path> files = Files.list(target)) {
+			jar = files.filter(file -> file.getFileName().toString().matches("fileservice-.*\\.jar")).findFirst()
+				.orElseThrow(() -> new IllegalStateException("No packaged jar in " + target + ", run mvn package first"));
+		}
+		Path extracted = target.resolve("extracted").resolve(jar.getFileName());
+		Path archive = target.resolve("extracted").resolve("application.jsa");
+
+		// The archive records the class path as it was trained: relative, from the extracted directory
+		Map<String, List<String>> variants = new LinkedHashMap<>();
+		variants.put("jar", List.of("-jar", jar.toString()));
+		if (Files.exists(extracted)) {
+			variants.put("extracted", List.of("-jar", extracted.getFileName().toString()));
+			if (Files.exists(archive)) {
+				variants.put("extracted+cds", List.of("-XX:SharedArchiveFile=" + archive.getFileName(), "-Xshare:on",
+					"-jar", extracted.getFileName().toString()));
+			}
+		}
+
+		StartupBenchmark benchmark = new StartupBenchmark();
+		System.out.printf("%-14s %5s %9s %9s %9s%n", "variant", "runs", "min ms", "median ms", "max ms");
+		for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+			long[] millis = new long[runs];
+			for (int run = 0; run < runs; run++) {
+				List<String> command = new ArrayList<>();
+				command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+				command.addAll(jvmArgs);
+				command.addAll(variant.getValue());
+				command.addAll(appArgs);
+				millis[run] = benchmark.launch(command, extracted.getParent(), path);
+			}
+			Arrays.sort(millis);
+			System.out.printf("%-14s %5d %9d %9d %9d%n", variant.getKey(), runs, millis[0], millis[runs / 2], millis[runs - 1]);
+		}
+	}
+
+	/**
+	 * Milliseconds from starting the process in directory until path answers 200
+	 */
+	private long launch(List<String> command, Path directory, String path) throws Exception {
+		Path work = Files.createTempDirectory("startup-benchmark");
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		List<String> arguments = new ArrayList<>(command);
+		arguments.add("--server.port=" + port);
+		arguments.add("--file.upload-dir=" + work.resolve("uploads"));
+		arguments.add("--file.metadata-dir=" + work.resolve("file-metadata"));
+		arguments.add("--s3.cache.dir=" + work.resolve("s3-cache"));
+		arguments.add("--jobs.journal-dir=" + work.resolve("job-journal"));
+		arguments.add("--logging.level.root=WARN");
+		arguments.add("--spring.main.banner-mode=off");
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+			.timeout(Duration.ofSeconds(5)).build();
+
+		Process process = new ProcessBuilder(arguments).directory(Files.isDirectory(directory) ? directory.toFile() : work.toFile())
+			.redirectErrorStream(true).redirectOutput(work.resolve("output.log").toFile()).start();
+		long began = System.nanoTime();
+		try {
+			while (System.nanoTime() - began < TIMEOUT.toNanos()) {
+				if (!process.isAlive()) {
+					throw new IllegalStateException("Application exited with " + process.exitValue() + ":\n"
+						+ Files.readString(work.resolve("output.log")));
+				}
+				try {
+					if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+						return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began);
+					}
+				} catch (IOException e) {
+					// Not listening yet
+				}
+				Thread.sleep(20);
+			}
+			throw new IllegalStateException("No answer from " + request.uri() + " within " + TIMEOUT);
+		} finally {
+			process.destroy();
+			if (!process.waitFor(30, TimeUnit.SECONDS)) {
+				process.destroyForcibly().waitFor();
+			}
+			try (Stream<Path> files = Files.walk(work)) {
+				for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	private static List<String> split(String arguments) {
+		return arguments.isBlank() ? List.of() : List.of(arguments.trim().split("\\s+"));
+	}
+}
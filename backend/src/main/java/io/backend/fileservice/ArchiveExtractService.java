@@ -0,0 +1,464 @@
+package io.backend.fileservice;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts .zip, .tar, .tar.gz and .tgz archives from a stream straight into
+ * the storage directory, so an archive is never written to disk and read back.
+ * The stream is read once, in order; small entries are buffered and written by
+ * a pool of writers while reading continues, large entries are written by the
+ * reading thread. Every entry name goes through the same validation as other
+ * stored files, and links, devices and directories in the archive are skipped.
+ */
+@Service
+public class ArchiveExtractService {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final FileService fileService;
+    private final FileMetadataStore metadataStore;
+    private final ExecutorService writers;
+    private final int smallEntryBytes;
+    private final int maxPendingEntries;
+
+    /**
+     * One file inside an archive, readable until the next entry is requested
+     */
+    private record Entry(String name, InputStream data) {
+    }
+
+    private interface EntryReader {
+        /**
+         * Next regular file in the archive, or null at the end
+         */
+        Entry next() throws IOException;
+    }
+
+    public ArchiveExtractService(FileService fileService, FileMetadataStore metadataStore,
+                                 @Value("${archive.extract.threads:4}") int threads,
+                                 @Value("${archive.extract.small-entry-bytes:1048576}") int smallEntryBytes,
+                                 @Value("${archive.extract.max-pending-entries:64}") int maxPendingEntries) {
+        this.fileService = fileService;
+        this.metadataStore = metadataStore;
+        this.smallEntryBytes = smallEntryBytes;
+        this.maxPendingEntries = Math.max(1, maxPendingEntries);
+        this.writers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "archive-extract");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writers.shutdownNow();
+    }
+
+    public static boolean isArchive(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".zip") || lower.endsWith(".tar") || lower.endsWith(".tar.gz") || lower.endsWith(".tgz");
+    }
+
+    /**
+     * Directory an archive extracts into: its name without the archive extension
+     */
+    public static String targetDirectory(String archiveName) {
+        String lower = archiveName.toLowerCase(Locale.ROOT);
+        for (String extension : new String[]{".tar.gz", ".tgz", ".tar", ".zip"}) {
+            if (lower.endsWith(extension)) {
+                return archiveName.substring(0, archiveName.length() - extension.length());
+            }
+        }
+        return archiveName;
+    }
+
+    /**
+     * Extract the archive read from the stream into targetDir, counting each entry
+     * in the progress as it is discovered and again when it has been written.
+     * Returns a map with "extractedFiles", "failedFiles" and the extracted "bytes".
+     */
+    public Map<String, Object> extract(InputStream in, String archiveName, String targetDir, String source,
+                                       FileController.ImportProgress progress) throws IOException {
+        List<String> extractedFiles = Collections.synchronizedList(new ArrayList<>());
+        List<String> failedFiles = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> writes = new ArrayList<>();
+        AtomicLong extractedBytes = new AtomicLong();
+        Semaphore pending = new Semaphore(maxPendingEntries);
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+        InputStream stream = new BufferedInputStream(in, COPY_BUFFER_SIZE);
+        EntryReader reader = openReader(stream, archiveName);
+        try {
+            Entry entry;
+            while ((entry = reader.next()) != null) {
+                String entryName = stripLeadingSlashes(entry.name());
+                String name = targetDir + "/" + entryName;
+                String entrySource = source + "!/" + entryName;
+                synchronized (progress) {
+                    progress.total++;
+                }
+                progress.message = "Extracting " + name + "...";
+
+                Path target;
+                try {
+                    target = fileService.resolveForWrite(name);
+                } catch (IOException e) {
+                    failedFiles.add(name + " (Error: " + e.getMessage() + ")");
+                    finishEntry(progress, 0);
+                    continue; // Unread entry data is skipped by the reader
+                }
+
+                byte[] head = entry.data().readNBytes(smallEntryBytes);
+                if (head.length < smallEntryBytes) {
+                    // Whole entry is in memory; let a writer store it while the next one is read
+                    acquire(pending);
+                    try {
+                        writes.add(writers.submit(() -> {
+                            try {
+                                writeEntry(target, name, entrySource, head, null, null);
+                                extractedFiles.add(name);
+                                extractedBytes.addAndGet(head.length);
+                            } catch (IOException | RuntimeException e) {
+                                failedFiles.add(name + " (Error: " + e.getMessage() + ")");
+                            } finally {
+                                pending.release();
+                                finishEntry(progress, head.length);
+                            }
+                            return null;
+                        }));
+                    } catch (RejectedExecutionException e) {
+                        pending.release();
+                        throw e;
+                    }
+                } else {
+                    long size = writeEntry(target, name, entrySource, head, entry.data(), buffer);
+                    extractedFiles.add(name);
+                    extractedBytes.addAndGet(size);
+                    finishEntry(progress, size);
+                }
+            }
+        } finally {
+            waitFor(writes);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("extractedFiles", new ArrayList<>(extractedFiles));
+        result.put("failedFiles", new ArrayList<>(failedFiles));
+        result.put("bytes", extractedBytes.get());
+        return result;
+    }
+
+    private EntryReader openReader(InputStream in, String archiveName) throws IOException {
+        String lower = archiveName.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".zip")) {
+            ZipInputStream zip = new ZipInputStream(in);
+            return () -> {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) {
+                        return new Entry(entry.getName(), zip);
+                    }
+                }
+                return null;
+            };
+        }
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+            in = new GZIPInputStream(in, COPY_BUFFER_SIZE);
+        }
+        return new TarReader(in);
+    }
+
+    /**
+     * Write entry data (a buffered head plus, for large entries, the rest of the stream)
+     * through a temporary file, recording its detected format. Returns the entry size.
+     */
+    private long writeEntry(Path target, String name, String source, byte[] head, InputStream rest, byte[] buffer) throws IOException {
+        // Unique, since an archive may hold the same name twice and small entries are written concurrently
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".importing");
+        FormatDetector detector = metadataStore.newDetector();
+        long size = head.length;
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            out.write(head);
+            detector.update(head, 0, head.length);
+            if (rest != null) {
+                int read;
+                while ((read = rest.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                    detector.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        fileService.stored(target);
+
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("source", source);
+        metadata.put("size", size);
+        metadata.put("importedAt", Instant.now().toString());
+        metadata.put("schema", detector.detect());
+        metadataStore.save(name, metadata);
+        return size;
+    }
+
+    private void finishEntry(FileController.ImportProgress progress, long bytes) {
+        synchronized (progress) {
+            progress.processed++;
+            progress.bytesProcessed += bytes;
+        }
+    }
+
+    private void acquire(Semaphore pending) throws IOException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        }
+    }
+
+    private void waitFor(List<Future<?>> writes) throws IOException {
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writes.forEach(future -> future.cancel(true));
+                throw new InterruptedIOException("Extraction interrupted");
+            } catch (ExecutionException e) {
+                System.err.println("Unexpected extraction failure: " + e.getCause());
+            }
+        }
+    }
+
+    private static String stripLeadingSlashes(String name) {
+        int start = 0;
+        while (start < name.length() && (name.charAt(start) == '/' || name.charAt(start) == '\\')) {
+            start++;
+        }
+        return name.startsWith("./", start) ? name.substring(start + 2) : name.substring(start);
+    }
+
+    /**
+     * Minimal reader for ustar, GNU and PAX tar streams. Only regular files are
+     * returned; long names from GNU 'L' records and PAX "path" records are applied,
+     * as are PAX "size" records and GNU base-256 sizes, which tar uses for entries
+     * of 8 GiB and more.
+     */
+    static class TarReader implements EntryReader {
+        private static final int BLOCK = 512;
+        // Long names and PAX records are read into memory, so their size is bounded
+        private static final int MAX_HEADER_RECORD = 1024 * 1024;
+
+        private final InputStream in;
+        private final byte[] header = new byte[BLOCK];
+        private long remaining = 0; // Unread data plus padding of the current entry
+
+        TarReader(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            String longName = null;
+            long paxSize = -1;
+            while (true) {
+                skipFully(remaining);
+                remaining = 0;
+                if (in.readNBytes(header, 0, BLOCK) < BLOCK || isZeroBlock()) {
+                    return null; // End-of-archive marker or truncated stream
+                }
+
+                char type = (char) header[156];
+                long size = parseNumber(header, 124, 12);
+                if (paxSize >= 0 && type != 'L' && type != 'x') {
+                    size = paxSize;
+                }
+                long padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+
+                if (type == 'L' || type == 'x') {
+                    if (size > MAX_HEADER_RECORD) {
+                        throw new IOException("Tar header record of " + size + " bytes is too large");
+                    }
+                    byte[] data = in.readNBytes((int) size);
+                    skipFully(padded - size);
+                    if (type == 'L') {
+                        longName = cString(data, 0, data.length);
+                    } else {
+                        Map<String, String> records = paxRecords(data);
+                        if (records.containsKey("path")) {
+                            longName = records.get("path");
+                        }
+                        if (records.containsKey("size")) {
+                            try {
+                                paxSize = Long.parseLong(records.get("size"));
+                            } catch (NumberFormatException e) {
+                                throw new IOException("Invalid tar header");
+                            }
+                            if (paxSize < 0) {
+                                throw new IOException("Invalid tar header");
+                            }
+                        }
+                    }
+                    continue;
+                }
+
+                remaining = padded;
+                if (type != '0' && type != '\0' && type != '7') {
+                    // Directory, link, device or global header; extended headers only apply to the next entry
+                    longName = null;
+                    paxSize = -1;
+                    continue;
+                }
+
+                String name = longName != null ? longName : headerName();
+                long[] left = {size};
+                InputStream data = new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        byte[] one = new byte[1];
+                        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                    }
+
+                    @Override
+                    public int read(byte[] bytes, int offset, int length) throws IOException {
+                        if (left[0] <= 0) {
+                            return -1;
+                        }
+                        int read = in.read(bytes, offset, (int) Math.min(length, left[0]));
+                        if (read < 0) {
+                            throw new EOFException("Truncated tar entry " + name);
+                        }
+                        left[0] -= read;
+                        remaining -= read;
+                        return read;
+                    }
+                };
+                return new Entry(name, data);
+            }
+        }
+
+        private String headerName() {
+            String name = cString(header, 0, 100);
+            if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r') {
+                String prefix = cString(header, 345, 155);
+                if (!prefix.isEmpty()) {
+                    return prefix + "/" + name;
+                }
+            }
+            return name;
+        }
+
+        private boolean isZeroBlock() {
+            for (byte b : header) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Numeric header field: octal digits, or GNU base-256 when the high bit of the first byte is set
+         */
+        static long parseNumber(byte[] header, int offset, int length) throws IOException {
+            if ((header[offset] & 0x80) != 0) {
+                if ((header[offset] & 0x40) != 0) {
+                    throw new IOException("Invalid tar header"); // Negative
+                }
+                long value = header[offset] & 0x3f;
+                for (int i = offset + 1; i < offset + length; i++) {
+                    if (value >>> 55 != 0) {
+                        throw new IOException("Invalid tar header"); // Does not fit in a long
+                    }
+                    value = (value << 8) | (header[i] & 0xff);
+                }
+                return value;
+            }
+            long value = 0;
+            for (int i = offset; i < offset + length; i++) {
+                byte b = header[i];
+                if (b == 0 || b == ' ') {
+                    if (value > 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (b < '0' || b > '7') {
+                    throw new IOException("Invalid tar header");
+                }
+                value = value * 8 + (b - '0');
+            }
+            return value;
+        }
+
+        /**
+         * PAX records are "length key=value\n"; parsing stops at the first malformed record
+         */
+        private static Map<String, String> paxRecords(byte[] data) {
+            Map<String, String> records = new HashMap<>();
+            int position = 0;
+            while (position < data.length) {
+                int space = position;
+                while (space < data.length && data[space] != ' ') {
+                    space++;
+                }
+                int length;
+                try {
+                    length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.UTF_8));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+                if (length <= 0 || position + length > data.length || space + 1 > position + length - 1) {
+                    break;
+                }
+                String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+                int equals = record.indexOf('=');
+                if (equals > 0) {
+                    records.put(record.substring(0, equals), record.substring(equals + 1));
+                }
+                position += length;
+            }
+            return records;
+        }
+
+        private static String cString(byte[] bytes, int offset, int length) {
+            int end = offset;
+            while (end < offset + length && bytes[end] != 0) {
+                end++;
+            }
+            return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+        }
+
+        private void skipFully(long count) throws IOException {
+            while (count > 0) {
+                long skipped = in.skip(count);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        return;
+                    }
+                    skipped = 1;
+                }
+                count -= skipped;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.backend.fileservice;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs long jobs such as imports and exports on a bounded pool instead of
+ * ad-hoc threads. These threads only coordinate; the transfers themselves run
+ * on the fairly shared worker pools of the import services, so the limit is
+ * generous. Jobs beyond it wait their turn, and running jobs are
+ * interrupted when the application stops, leaving journaled jobs to resume.
+ * A job can also be stopped by id: its thread is interrupted (or, if it is
+ * still queued, starts interrupted) and the job sees why through
+ * {@link #getStopReason}; jobs stopped before they completed end with that
+ * reason as status. Ids are unique among queued and running jobs: a job is
+ * refused while another with its id has not ended.
+ */
+@Component
+public class BackgroundJobs {
+
+    public static final String CANCELLED = "cancelled";
+    public static final String PAUSED = "paused";
+
+    private final ExecutorService executor;
+    private final Map<String, RunningJob> jobs = new ConcurrentHashMap<>();
+
+    private static class RunningJob {
+        Thread thread;
+        String stopReason;
+    }
+
+    public BackgroundJobs(@Value("${jobs.max-running:32}") int maxRunning) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxRunning), runnable -> {
+            Thread thread = new Thread(runnable, "background-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Run the job on the pool; its thread carries the job id while it runs.
+     * Returns null, without running the job, when a job with this id is queued or running.
+     */
+    public Future<?> submit(String jobId, FileController.ImportProgress progress, Runnable job) {
+        RunningJob running = new RunningJob();
+        if (jobs.putIfAbsent(jobId, running) != null) {
+            return null;
+        }
+        return executor.submit(() -> {
+            Thread thread = Thread.currentThread();
+            String name = thread.getName();
+            thread.setName("job-" + jobId);
+            synchronized (running) {
+                running.thread = thread;
+                if (running.stopReason != null) {
+                    thread.interrupt(); // Stopped while queued
+                }
+            }
+            try {
+                job.run();
+            } finally {
+                String stopReason;
+                synchronized (running) {
+                    running.thread = null;
+                    stopReason = running.stopReason;
+                }
+                Thread.interrupted();
+                if (stopReason != null && !"done".equals(progress.status)) {
+                    progress.status = stopReason;
+                    progress.message = "Job " + stopReason;
+                }
+                // Only now can the job be resumed or submitted again
+                jobs.remove(jobId, running);
+                thread.setName(name);
+            }
+        });
+    }
+
+    /**
+     * Ask a queued or running job to stop; false when no such job is running
+     */
+    public boolean stop(String jobId, String reason) {
+        RunningJob running = jobs.get(jobId);
+        if (running == null) {
+            return false;
+        }
+        synchronized (running) {
+            running.stopReason = reason;
+            if (running.thread != null) {
+                running.thread.interrupt();
+            }
+        }
+        return true;
+    }
+
+    public boolean isRunning(String jobId) {
+        return jobs.containsKey(jobId);
+    }
+
+    /**
+     * Why the job was asked to stop, or null while it is meant to keep running
+     */
+    public String getStopReason(String jobId) {
+        RunningJob running = jobs.get(jobId);
+        if (running == null) {
+            return null;
+        }
+        synchronized (running) {
+            return running.stopReason;
+        }
+    }
+}
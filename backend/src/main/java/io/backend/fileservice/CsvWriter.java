@@ -0,0 +1,338 @@
+package io.backend.fileservice;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Streams CSV (RFC 4180, '\n' line endings) into a channel through a reusable byte buffer.
+ * Values are encoded to UTF-8 straight into the buffer: integers are formatted
+ * without creating strings, dates and numerics are copied from the driver's
+ * text form without an escape check, bytea is hex-encoded, and text fields are
+ * checked for quoting once before being copied.
+ */
+public class CsvWriter implements Closeable, Flushable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes();
+
+    // How each column is written; resolved once per result set
+    private static final int KIND_TEXT = 0;
+    private static final int KIND_INT = 1;
+    private static final int KIND_LONG = 2;
+    private static final int KIND_PLAIN = 3;
+    private static final int KIND_BOOLEAN = 4;
+    private static final int KIND_BYTES = 5;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+    private boolean firstField = true;
+    private long bytesWritten = 0;
+
+    public CsvWriter(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(Math.max(64, bufferSize));
+    }
+
+    /**
+     * Write every remaining row of the result set, optionally preceded by a header row.
+     * Returns the number of data rows written.
+     */
+    public long writeResultSet(ResultSet rs, boolean header) throws SQLException, IOException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int columnCount = meta.getColumnCount();
+        int[] kinds = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            kinds[i] = kindOf(meta.getColumnType(i + 1), meta.getColumnTypeName(i + 1));
+        }
+
+        if (header) {
+            for (int i = 1; i <= columnCount; i++) {
+                writeField(meta.getColumnName(i));
+            }
+            endRow();
+        }
+
+        long rows = 0;
+        while (rs.next()) {
+            for (int i = 0; i < columnCount; i++) {
+                writeColumn(rs, i + 1, kinds[i]);
+            }
+            endRow();
+            rows++;
+        }
+        return rows;
+    }
+
+    private void writeColumn(ResultSet rs, int column, int kind) throws SQLException, IOException {
+        switch (kind) {
+            case KIND_INT: {
+                int value = rs.getInt(column);
+                if (rs.wasNull()) {
+                    writeNull();
+                } else {
+                    writeLong(value);
+                }
+                break;
+            }
+            case KIND_LONG: {
+                long value = rs.getLong(column);
+                if (rs.wasNull()) {
+                    writeNull();
+                } else {
+                    writeLong(value);
+                }
+                break;
+            }
+            case KIND_BOOLEAN: {
+                boolean value = rs.getBoolean(column);
+                if (rs.wasNull()) {
+                    writeNull();
+                } else {
+                    separator();
+                    put(value ? TRUE : FALSE);
+                }
+                break;
+            }
+            case KIND_BYTES: {
+                byte[] value = rs.getBytes(column);
+                if (value == null) {
+                    writeNull();
+                } else {
+                    writeHex(value);
+                }
+                break;
+            }
+            case KIND_PLAIN: {
+                String value = rs.getString(column);
+                if (value == null) {
+                    writeNull();
+                } else {
+                    separator();
+                    putChars(value, 0, value.length());
+                }
+                break;
+            }
+            default: {
+                String value = rs.getString(column);
+                if (value == null) {
+                    writeNull();
+                } else {
+                    writeField(value);
+                }
+            }
+        }
+    }
+
+    private static int kindOf(int sqlType, String typeName) {
+        // bit(n) also reports BIT and money's text form contains separators
+        if ((sqlType == Types.BIT && !"bool".equals(typeName)) || "money".equals(typeName)) {
+            return KIND_TEXT;
+        }
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return KIND_INT;
+            case Types.BIGINT:
+                return KIND_LONG;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return KIND_BOOLEAN;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return KIND_BYTES;
+            // The driver's text form of these never contains a separator, quote or newline
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.DATE:
+            case Types.TIME:
+            case Types.TIME_WITH_TIMEZONE:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return KIND_PLAIN;
+            default:
+                return KIND_TEXT;
+        }
+    }
+
+    /**
+     * Write a text field, quoting it only if it contains a separator, quote or line break
+     */
+    public void writeField(CharSequence value) throws IOException {
+        separator();
+        int length = value.length();
+        int firstSpecial = -1;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                firstSpecial = i;
+                break;
+            }
+        }
+        if (firstSpecial < 0) {
+            putChars(value, 0, length);
+            return;
+        }
+
+        putByte((byte) '"');
+        putChars(value, 0, firstSpecial);
+        int runStart = firstSpecial;
+        for (int i = firstSpecial; i < length; i++) {
+            if (value.charAt(i) == '"') {
+                putChars(value, runStart, i + 1);
+                putByte((byte) '"');
+                runStart = i + 1;
+            }
+        }
+        putChars(value, runStart, length);
+        putByte((byte) '"');
+    }
+
+    public void writeNull() throws IOException {
+        separator();
+    }
+
+    public void writeLong(long value) throws IOException {
+        separator();
+        if (value == Long.MIN_VALUE) {
+            put(LONG_MIN);
+            return;
+        }
+        if (value < 0) {
+            putByte((byte) '-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        ensureCapacity(digits.length - position);
+        buffer.put(digits, position, digits.length - position);
+        bytesWritten += digits.length - position;
+    }
+
+    /**
+     * Write binary data in Postgres' hex bytea format (\x0a1b...)
+     */
+    public void writeHex(byte[] value) throws IOException {
+        separator();
+        putByte((byte) '\\');
+        putByte((byte) 'x');
+        for (byte b : value) {
+            ensureCapacity(2);
+            buffer.put(HEX[(b >> 4) & 0xf]);
+            buffer.put(HEX[b & 0xf]);
+            bytesWritten += 2;
+        }
+    }
+
+    public void endRow() throws IOException {
+        putByte((byte) '\n');
+        firstField = true;
+    }
+
+    /**
+     * Total bytes encoded so far, including any still buffered
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flush buffered output; the channel itself is left open for the caller to close
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void separator() throws IOException {
+        if (firstField) {
+            firstField = false;
+        } else {
+            putByte((byte) ',');
+        }
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        ensureCapacity(bytes.length);
+        buffer.put(bytes);
+        bytesWritten += bytes.length;
+    }
+
+    private void putByte(byte b) throws IOException {
+        ensureCapacity(1);
+        buffer.put(b);
+        bytesWritten++;
+    }
+
+    /**
+     * UTF-8 encode chars [from, to) into the buffer
+     */
+    private void putChars(CharSequence value, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            if (c < 0x80) {
+                buffer.put((byte) c);
+                bytesWritten++;
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+                bytesWritten += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+                bytesWritten += 4;
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?'); // Unpaired surrogate, same replacement as String.getBytes
+                bytesWritten++;
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+                bytesWritten += 3;
+            }
+        }
+    }
+
+    private void ensureCapacity(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
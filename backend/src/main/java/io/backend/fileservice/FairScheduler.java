@@ -0,0 +1,240 @@
+package io.backend.fileservice;
+
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Worker pool shared by many jobs that divides its threads between jobs
+ * instead of serving tasks first come, first served. Each job queues its own
+ * tasks; a free worker takes the next task of the job with the least service
+ * so far relative to its weight (stride scheduling), so a job with thousands
+ * of queued tasks cannot hold back one with a few. Running tasks can be
+ * capped per user and per source, and the last few free workers are kept for
+ * jobs that have nothing running yet, so a new job starts at once even while
+ * long transfers of a backfill occupy the rest of the pool. A job can also
+ * cap its own running tasks, e.g. at what its upstream currently accepts, so
+ * that it never holds workers that could only wait.
+ */
+public class FairScheduler {
+
+    private final String name;
+    private final int threads;
+    private final int reservedSlots;
+    private final int maxPerUser;
+    private final int maxPerSource;
+    private final List<Thread> workers = new ArrayList<>();
+    private final List<Share> shares = new ArrayList<>();
+    private final Map<String, Integer> runningByUser = new HashMap<>();
+    private final Map<String, Integer> runningBySource = new HashMap<>();
+    private final Map<String, Integer> heldBySource = new HashMap<>();
+    private int running = 0;
+    private double virtualTime = 0;
+    private boolean shutdown = false;
+
+    /**
+     * One job's queue of tasks and its share of the workers
+     */
+    public class Share {
+        private final String user;
+        private final String source;
+        private final double stride;
+        private final Deque<FutureTask<?>> tasks = new ArrayDeque<>();
+        private int running = 0;
+        private int maxRunning = Integer.MAX_VALUE;
+        private double pass;
+        private boolean closed = false;
+
+        private Share(int weight, String user, String source) {
+            this.user = user;
+            this.source = source;
+            this.stride = 1.0 / Math.max(1, weight);
+            this.pass = virtualTime;
+        }
+
+        public Future<?> submit(Runnable task) {
+            FutureTask<?> future = new FutureTask<>(task, null);
+            synchronized (FairScheduler.this) {
+                if (shutdown || closed) {
+                    throw new RejectedExecutionException("Scheduler is shut down");
+                }
+                if (tasks.isEmpty() && running == 0) {
+                    pass = Math.max(pass, virtualTime); // No credit for time spent idle
+                }
+                tasks.add(future);
+                FairScheduler.this.notifyAll();
+            }
+            return future;
+        }
+
+        /**
+         * Cap this job's running tasks; tasks above a lowered cap finish, a raised cap applies at once
+         */
+        public void setMaxRunning(int maxRunning) {
+            synchronized (FairScheduler.this) {
+                this.maxRunning = Math.max(1, maxRunning);
+                FairScheduler.this.notifyAll();
+            }
+        }
+
+        /**
+         * The job is over: drop its queued tasks, letting running ones finish
+         */
+        public void close() {
+            synchronized (FairScheduler.this) {
+                closed = true;
+                tasks.forEach(task -> task.cancel(false));
+                tasks.clear();
+                shares.remove(this);
+            }
+        }
+    }
+
+    /**
+     * @param reservedSlots workers only handed to jobs with nothing running
+     * @param maxPerUser    running tasks per user across jobs, 0 for no limit
+     * @param maxPerSource  running tasks per source across jobs, 0 for no limit
+     */
+    public FairScheduler(String name, int threads, int reservedSlots, int maxPerUser, int maxPerSource) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+        this.reservedSlots = Math.max(0, Math.min(reservedSlots, this.threads - 1));
+        this.maxPerUser = maxPerUser;
+        this.maxPerSource = maxPerSource;
+    }
+
+    /**
+     * Relative share of workers for a job priority: "low", "normal" (the default) or "high"
+     */
+    public static int weightOf(String priority) {
+        if ("low".equalsIgnoreCase(priority)) {
+            return 1;
+        } else if ("high".equalsIgnoreCase(priority)) {
+            return 16;
+        }
+        return 4;
+    }
+
+    /**
+     * Start a job's share; close it when the job ends
+     */
+    public synchronized Share register(int weight, String user, String source) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler is shut down");
+        }
+        // Workers are started by the first job rather than at application startup
+        if (workers.isEmpty()) {
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(this::work, name);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+        Share share = new Share(weight, user, source);
+        shares.add(share);
+        return share;
+    }
+
+    /**
+     * Count work done outside the workers, such as a job's own connection, against
+     * a source's quota; waits while the source is at its limit. Holders never take
+     * the last slot, so the tasks they wait for can always run. Pair with {@link #releaseSource}.
+     */
+    public synchronized void acquireSource(String source) throws InterruptedException {
+        while (!shutdown && maxPerSource > 0 && (runningBySource.getOrDefault(source, 0) >= maxPerSource
+                || heldBySource.getOrDefault(source, 0) >= maxPerSource - 1)) {
+            wait();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler is shut down");
+        }
+        heldBySource.merge(source, 1, Integer::sum);
+        runningBySource.merge(source, 1, Integer::sum);
+    }
+
+    public synchronized void releaseSource(String source) {
+        heldBySource.compute(source, (key, count) -> count == null || count == 1 ? null : count - 1);
+        runningBySource.compute(source, (key, count) -> count == null || count == 1 ? null : count - 1);
+        notifyAll();
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public synchronized void shutdownNow() {
+        shutdown = true;
+        for (Share share : shares) {
+            share.tasks.forEach(task -> task.cancel(false));
+            share.tasks.clear();
+        }
+        notifyAll();
+        workers.forEach(Thread::interrupt);
+    }
+
+    private void work() {
+        while (true) {
+            Share share;
+            FutureTask<?> task;
+            synchronized (this) {
+                while ((share = pick()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        if (shutdown) {
+                            return;
+                        }
+                    }
+                }
+                task = share.tasks.poll();
+                virtualTime = share.pass;
+                share.pass += share.stride;
+                share.running++;
+                running++;
+                runningByUser.merge(share.user, 1, Integer::sum);
+                runningBySource.merge(share.source, 1, Integer::sum);
+            }
+            try {
+                task.run();
+            } finally {
+                Thread.interrupted(); // A stop aimed at this task must not hit the next one
+                synchronized (this) {
+                    share.running--;
+                    running--;
+                    runningByUser.compute(share.user, (key, count) -> count == 1 ? null : count - 1);
+                    runningBySource.compute(share.source, (key, count) -> count == 1 ? null : count - 1);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The eligible share with the lowest pass, or null when no task may start now
+     */
+    private Share pick() {
+        if (shutdown) {
+            return null;
+        }
+        boolean onlyNewcomers = threads - running <= reservedSlots;
+        Share best = null;
+        for (Share share : shares) {
+            if (share.tasks.isEmpty()
+                    || share.running >= share.maxRunning
+                    || (onlyNewcomers && share.running > 0)
+                    || (maxPerUser > 0 && runningByUser.getOrDefault(share.user, 0) >= maxPerUser)
+                    || (maxPerSource > 0 && runningBySource.getOrDefault(share.source, 0) >= maxPerSource)) {
+                continue;
+            }
+            if (best == null || share.pass < best.pass) {
+                best = share;
+            }
+        }
+        return best;
+    }
+}
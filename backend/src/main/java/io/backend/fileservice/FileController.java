@@ -7,10 +7,13 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.core.io.Resource;
 import org.springframework.web.bind.annotation.RequestBody;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.UUID;
 
 import java.io.IOException;
@@ -21,7 +24,6 @@ import java.util.HashMap;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.ArrayList;
 
 @CrossOrigin(origins = "http://localhost:3000")
 @RestController
@@ -31,22 +33,56 @@ public class FileController {
     private final FileService fileService;
     private final S3Service s3Service;
     private final PostgresService postgresService;
+    private final TablePreviewService tablePreviewService;
+    private final PostgresExportService postgresExportService;
+    private final S3UploadService s3UploadService;
+    private final LocalImportService localImportService;
+    private final FilePreviewService filePreviewService;
+    private final FileMetadataStore fileMetadataStore;
+    private final ZipDownloadService zipDownloadService;
+    private final UpstreamExecutors upstreamExecutors;
+    private final S3BrowseCache s3BrowseCache;
+    private final S3ImportService s3ImportService;
+    private final BackgroundJobs backgroundJobs;
+    private final FileSearchIndex fileSearchIndex;
 
     // Progress tracking for imports
     public static class ImportProgress {
         public int processed = 0;
         public int total = 0;
-        public String status = "in_progress"; // "in_progress", "done", "error"
+        public String status = "in_progress"; // "in_progress", "done", "error", "paused", "cancelled"
         public String message = "";
+        public long bytesProcessed = 0;
+        public long bytesTotal = 0;
+        public int concurrency = 0; // Current S3 request limit of the job
+        public int retries = 0;
     }
     
     public static final Map<String, ImportProgress> progressMap = new ConcurrentHashMap<>();
 
     @Autowired
-    public FileController(FileService fileService, S3Service s3Service, PostgresService postgresService) {
+    public FileController(FileService fileService, S3Service s3Service, PostgresService postgresService,
+                          TablePreviewService tablePreviewService, PostgresExportService postgresExportService,
+                          S3UploadService s3UploadService, LocalImportService localImportService,
+                          FilePreviewService filePreviewService, FileMetadataStore fileMetadataStore,
+                          ZipDownloadService zipDownloadService, UpstreamExecutors upstreamExecutors,
+                          S3BrowseCache s3BrowseCache, S3ImportService s3ImportService,
+                          BackgroundJobs backgroundJobs, FileSearchIndex fileSearchIndex) {
         this.fileService = fileService;
         this.s3Service = s3Service;
         this.postgresService = postgresService;
+        this.tablePreviewService = tablePreviewService;
+        this.postgresExportService = postgresExportService;
+        this.s3UploadService = s3UploadService;
+        this.localImportService = localImportService;
+        this.filePreviewService = filePreviewService;
+        this.fileMetadataStore = fileMetadataStore;
+        this.zipDownloadService = zipDownloadService;
+        this.upstreamExecutors = upstreamExecutors;
+        this.s3BrowseCache = s3BrowseCache;
+        this.s3ImportService = s3ImportService;
+        this.backgroundJobs = backgroundJobs;
+        this.fileSearchIndex = fileSearchIndex;
     }
 
     // Progress endpoint
@@ -59,6 +95,63 @@ public class FileController {
         return ResponseEntity.ok(progress);
     }
 
+    // Job ids are chosen by clients, so a new job can be refused for an id that is still running
+    static void alreadyRunning(String jobId, ImportProgress progress) {
+        progress.status = "error";
+        progress.message = "Job " + jobId + " is already running";
+    }
+
+    // Cancel a running or paused job; partial files of a cancelled S3 import are removed
+    @PostMapping("/import-cancel/{jobId}")
+    public ResponseEntity<Map<String, Object>> cancelJob(@PathVariable String jobId) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", jobId);
+        if (backgroundJobs.stop(jobId, BackgroundJobs.CANCELLED)) {
+            result.put("status", "cancelling");
+        } else if (s3ImportService.discard(jobId)) {
+            ImportProgress progress = progressMap.get(jobId);
+            if (progress != null) {
+                progress.status = BackgroundJobs.CANCELLED;
+                progress.message = "Job cancelled";
+            }
+            result.put("status", BackgroundJobs.CANCELLED);
+        } else {
+            result.put("error", "No running or paused job " + jobId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(result);
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    // Pause a running S3 import; finished objects and checkpoints are kept for resuming
+    @PostMapping("/import-pause/{jobId}")
+    public ResponseEntity<Map<String, Object>> pauseJob(@PathVariable String jobId) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", jobId);
+        if (!s3ImportService.pause(jobId)) {
+            result.put("error", "Job " + jobId + " is not a running S3 import that can be paused");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+        }
+        result.put("status", "pausing");
+        return ResponseEntity.ok(result);
+    }
+
+    // Resume a paused or interrupted S3 import
+    @PostMapping("/import-resume/{jobId}")
+    public ResponseEntity<Map<String, Object>> resumeJob(@PathVariable String jobId) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", jobId);
+        ImportProgress existing = progressMap.get(jobId);
+        ImportProgress progress = existing != null ? existing : new ImportProgress();
+        if (!s3ImportService.resume(jobId, progress)) {
+            result.put("error", "Job " + jobId + " is still running or has nothing to resume");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+        }
+        // Only a resumed job gets an entry; unknown ids must not leave empty progress behind
+        progressMap.putIfAbsent(jobId, progress);
+        result.put("status", progress.status);
+        return ResponseEntity.ok(result);
+    }
+
     @PostMapping("/upload")
     public ResponseEntity<String> uploadFile(@RequestParam("file") MultipartFile file) {
         try {
@@ -82,6 +175,57 @@ public class FileController {
         }
     }
 
+    @GetMapping("/download-zip")
+    public ResponseEntity<StreamingResponseBody> downloadZip(@RequestParam("files") List<String> files,
+                                                             @RequestParam(value = "name", defaultValue = "files.zip") String name) {
+        List<java.nio.file.Path> paths;
+        try {
+            paths = zipDownloadService.resolve(files);
+        } catch (java.nio.file.NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException ex) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        String archiveName = name.replaceAll("[^a-zA-Z0-9._-]", "_");
+        StreamingResponseBody body = out -> zipDownloadService.writeZip(paths, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archiveName + "\"")
+                .body(body);
+    }
+
+    @GetMapping("/preview")
+    public ResponseEntity<Map<String, Object>> previewFile(@RequestParam("file") String filename,
+                                                           @RequestParam(value = "bytes", defaultValue = "65536") int bytes,
+                                                           @RequestParam(value = "lines", defaultValue = "20") int lines,
+                                                           @RequestParam(value = "parse", defaultValue = "auto") String parse) {
+        try {
+            Map<String, Object> preview = filePreviewService.previewLocalFile(filename, bytes, lines, parse);
+            return ResponseEntity.ok(preview);
+        } catch (java.nio.file.NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException ex) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "Could not preview file: " + ex.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
+    @GetMapping("/metadata")
+    public ResponseEntity<Map<String, Object>> getFileMetadata(@RequestParam("file") String filename) {
+        try {
+            fileService.resolveStoredFile(filename);
+            return ResponseEntity.ok(fileMetadataStore.load(filename));
+        } catch (java.nio.file.NoSuchFileException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException ex) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "Could not read metadata: " + ex.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
     @GetMapping("/list")
     public ResponseEntity<List<String>> listFiles() {
         try {
@@ -92,45 +236,73 @@ public class FileController {
         }
     }
 
+    @GetMapping("/search")
+    public ResponseEntity<Map<String, Object>> searchFiles(@RequestParam(value = "q", required = false) String query,
+                                                           @RequestParam(value = "glob", required = false) String glob,
+                                                           @RequestParam(value = "ext", required = false) String extension,
+                                                           @RequestParam(value = "prefix", required = false) String prefix,
+                                                           @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                                           @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return ResponseEntity.ok(fileSearchIndex.search(FileSearchIndex.LOCAL, prefix, query, glob, extension, offset, limit));
+    }
+
+    // Searches the folders of the bucket listed so far with the same credentials; the request path is the prefix
+    @PostMapping("/search-s3")
+    public ResponseEntity<Map<String, Object>> searchS3(@RequestBody S3Request s3Request,
+                                                        @RequestParam(value = "q", required = false) String query,
+                                                        @RequestParam(value = "glob", required = false) String glob,
+                                                        @RequestParam(value = "ext", required = false) String extension,
+                                                        @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                                        @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return ResponseEntity.ok(fileSearchIndex.search(FileSearchIndex.s3Namespace(s3Request), s3Request.getPath(),
+            query, glob, extension, offset, limit));
+    }
+
     @PostMapping("/list-s3")
-    public ResponseEntity<Map<String, Object>> listS3(@RequestBody S3Request s3Request) {
-        try {
-            Map<String, Object> result = s3Service.listS3Contents(s3Request);
-            return ResponseEntity.ok(result);
-        } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", "Error: " + e.getMessage());
-            return ResponseEntity.status(500).body(error);
-        }
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> listS3(@RequestBody S3Request s3Request) {
+        return upstreamExecutors.s3("list-s3", () -> {
+            try {
+                Map<String, Object> result = s3BrowseCache.listS3Contents(s3Request);
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
     }
 
     @PostMapping("/list-s3-files-in-folder")
-    public ResponseEntity<Map<String, Object>> listS3FilesInFolder(@RequestBody S3Request s3Request) {
-        try {
-            List<String> allFiles = s3Service.getAllFilesInFolder(s3Request);
-            Map<String, Object> result = new HashMap<>();
-            result.put("files", allFiles);
-            return ResponseEntity.ok(result);
-        } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", "Error: " + e.getMessage());
-            return ResponseEntity.status(500).body(error);
-        }
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> listS3FilesInFolder(@RequestBody S3Request s3Request) {
+        return upstreamExecutors.s3("list-s3-files-in-folder", () -> {
+            try {
+                List<String> allFiles = s3BrowseCache.getAllFilesInFolder(s3Request);
+                Map<String, Object> result = new HashMap<>();
+                result.put("files", allFiles);
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
     }
 
     @PostMapping("/load-s3")
-    public ResponseEntity<Map<String, Object>> loadS3Files(@RequestBody S3Request s3Request) {
-        Logger logger = LoggerFactory.getLogger(FileController.class);
-        logger.info("Received S3 files to load: {}", s3Request.getFiles());
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> loadS3Files(@RequestBody S3Request s3Request) {
+        return upstreamExecutors.s3("load-s3", () -> {
+            Logger logger = LoggerFactory.getLogger(FileController.class);
+            logger.info("Received S3 files to load: {}", s3Request.getFiles());
         
-        try {
-            Map<String, Object> result = s3Service.loadS3Files(s3Request);
-            return ResponseEntity.ok(result);
-        } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", "Error loading S3 files: " + e.getMessage());
-            return ResponseEntity.status(500).body(error);
-        }
+            try {
+                Map<String, Object> result = s3Service.loadS3Files(s3Request);
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error loading S3 files: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
     }
 
     // S3 import with progress tracking
@@ -152,56 +324,50 @@ public class FileController {
         Map<String, Object> result = new HashMap<>();
         result.put("jobId", jobId);
         
-        // Start processing in background thread
-        new Thread(() -> {
+        // Journaled and run in the background; objects are downloaded in parallel by the import service
+        s3ImportService.start(jobId, s3Request, progress);
+        
+        return ResponseEntity.ok(result);
+    }
+
+    // Export of stored files to S3 with progress tracking
+    @PostMapping("/export-s3-progress")
+    public ResponseEntity<Map<String, Object>> exportFilesToS3WithProgress(@RequestBody S3Request s3Request) {
+        String jobId = s3Request.getJobId();
+        List<String> files = s3Request.getFiles();
+        
+        if (jobId == null || jobId.isEmpty()) {
+            jobId = UUID.randomUUID().toString();
+        }
+        
+        ImportProgress progress = new ImportProgress();
+        progress.total = files != null ? files.size() : 0;
+        progress.status = "in_progress";
+        progress.message = "Starting S3 export...";
+        progressMap.put(jobId, progress);
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", jobId);
+        
+        if (files == null || files.isEmpty()) {
+            progress.status = "error";
+            progress.message = "No files selected for export";
+            return ResponseEntity.ok(result);
+        }
+        
+        // Start processing in the background
+        Future<?> submitted = backgroundJobs.submit(jobId, progress, () -> {
             try {
-                List<String> processedFiles = new java.util.ArrayList<>();
-                List<String> failedFiles = new java.util.ArrayList<>();
-                
-                for (int i = 0; i < files.size(); i++) {
-                    String fileKey = files.get(i);
-                    try {
-                        progress.message = "Processing " + fileKey + "...";
-                        
-                        // Actually download and store the file from S3
-                        String fileName = fileKey.substring(fileKey.lastIndexOf('/') + 1);
-                        if (fileName.isEmpty()) {
-                            fileName = fileKey.substring(fileKey.lastIndexOf('\\') + 1);
-                        }
-                        if (fileName.isEmpty()) {
-                            fileName = "s3_file_" + i + ".txt";
-                        }
-                        
-                        // Download file content from S3
-                        String fileContent = s3Service.downloadFileContent(s3Request, fileKey);
-                        
-                        // Store the file locally
-                        java.nio.file.Path filePath = java.nio.file.Paths.get("uploads", fileName);
-                        java.nio.file.Files.createDirectories(filePath.getParent());
-                        java.nio.file.Files.write(filePath, fileContent.getBytes());
-                        
-                        processedFiles.add(fileKey);
-                        progress.processed++;
-                        
-                        // Small delay to show progress
-                        Thread.sleep(200);
-                        
-                    } catch (Exception e) {
-                        String errorMsg = "Error downloading " + fileKey + ": " + e.getMessage();
-                        System.err.println(errorMsg); // Log the error
-                        failedFiles.add(fileKey + " (Error: " + e.getMessage() + ")");
-                        progress.processed++;
-                    }
-                }
-                
-                progress.status = "done";
-                progress.message = "Import completed. Processed: " + processedFiles.size() + ", Failed: " + failedFiles.size();
-                
+                s3UploadService.uploadFiles(s3Request, progress);
+                s3BrowseCache.clear(); // Listings of the target bucket are stale now
             } catch (Exception e) {
                 progress.status = "error";
-                progress.message = "Import failed: " + e.getMessage();
+                progress.message = "Export failed: " + e.getMessage();
             }
-        }).start();
+        });
+        if (submitted == null) {
+            alreadyRunning(jobId, progress);
+        }
         
         return ResponseEntity.ok(result);
     }
@@ -225,77 +391,104 @@ public class FileController {
         Map<String, Object> result = new HashMap<>();
         result.put("jobId", jobId);
         
-        // Start processing in background thread
-        new Thread(() -> {
+        // Start processing in the background; files are walked and copied in parallel
+        Future<?> submitted = backgroundJobs.submit(jobId, progress, () -> {
             try {
-                List<String> processedFiles = new java.util.ArrayList<>();
-                List<String> failedFiles = new java.util.ArrayList<>();
-                
-                for (int i = 0; i < files.size(); i++) {
-                    String file = files.get(i);
-                    try {
-                        progress.message = "Processing " + file + "...";
-                        
-                        // Actually store the file on the server
-                        // Extract filename from the path
-                        String fileName = file.substring(file.lastIndexOf('/') + 1);
-                        
-                        // Create a placeholder file with metadata
-                        String fileContent = "Imported file: " + fileName + "\nOriginal path: " + file + "\nImport timestamp: " + new java.util.Date() + "\n\nThis is a placeholder file created during import. The actual file content would be stored here in a full implementation.";
-                        
-                        // Store the file using the FileService
-                        java.nio.file.Path filePath = java.nio.file.Paths.get("uploads", fileName);
-                        java.nio.file.Files.createDirectories(filePath.getParent());
-                        java.nio.file.Files.write(filePath, fileContent.getBytes());
-                        
-                        processedFiles.add(file);
-                        progress.processed++;
-                        
-                        // Small delay to show progress
-                        Thread.sleep(200);
-                        
-                    } catch (Exception e) {
-                        failedFiles.add(file + " (Error: " + e.getMessage() + ")");
-                        progress.processed++;
-                    }
-                }
-                
-                progress.status = "done";
-                progress.message = "Import completed. Processed: " + processedFiles.size() + ", Failed: " + failedFiles.size();
-                
+                localImportService.importPaths(files, progress);
             } catch (Exception e) {
                 progress.status = "error";
                 progress.message = "Import failed: " + e.getMessage();
             }
-        }).start();
+        });
+        if (submitted == null) {
+            alreadyRunning(jobId, progress);
+        }
         
         return ResponseEntity.ok(result);
     }
 
     @PostMapping("/s3-metadata")
-    public ResponseEntity<Map<String, Object>> getS3FileMetadata(@RequestBody S3Request s3Request) {
-        try {
-            Map<String, Object> metadata = s3Service.getS3FileMetadata(s3Request);
-            return ResponseEntity.ok(metadata);
-        } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", "Error getting file metadata: " + e.getMessage());
-            return ResponseEntity.status(500).body(error);
-        }
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getS3FileMetadata(@RequestBody S3Request s3Request) {
+        return upstreamExecutors.s3("s3-metadata", () -> {
+            try {
+                Map<String, Object> metadata = s3BrowseCache.getS3FileMetadata(s3Request);
+                return ResponseEntity.ok(metadata);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error getting file metadata: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
+    }
+
+    @PostMapping("/s3-preview")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> previewS3Files(@RequestBody S3Request s3Request,
+                                                                                 @RequestParam(value = "bytes", defaultValue = "65536") int bytes,
+                                                                                 @RequestParam(value = "lines", defaultValue = "20") int lines,
+                                                                                 @RequestParam(value = "parse", defaultValue = "auto") String parse) {
+        return upstreamExecutors.s3("s3-preview", () -> {
+            try {
+                Map<String, Object> result = filePreviewService.previewS3Files(s3Request, bytes, lines, parse);
+                if (result.containsKey("error")) {
+                    return ResponseEntity.badRequest().body(result);
+                }
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error previewing files: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
+    }
+
+    @PostMapping("/s3-presign-download")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> presignS3Downloads(@RequestBody S3Request s3Request) {
+        return upstreamExecutors.s3("s3-presign-download", () -> {
+            try {
+                Map<String, Object> result = s3Service.presignDownloads(s3Request);
+                if (result.containsKey("error")) {
+                    return ResponseEntity.badRequest().body(result);
+                }
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error creating download links: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
+    }
+
+    @PostMapping("/s3-presign-upload")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> presignS3Uploads(@RequestBody S3Request s3Request) {
+        return upstreamExecutors.s3("s3-presign-upload", () -> {
+            try {
+                Map<String, Object> result = s3Service.presignUploads(s3Request);
+                if (result.containsKey("error")) {
+                    return ResponseEntity.badRequest().body(result);
+                }
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error creating upload links: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
     }
 
     @PostMapping("/list-s3-all-files")
-    public ResponseEntity<Map<String, Object>> listS3AllFiles(@RequestBody S3Request s3Request) {
-        try {
-            List<String> allFiles = s3Service.getAllFilesInFolder(s3Request);
-            Map<String, Object> result = new HashMap<>();
-            result.put("files", allFiles);
-            return ResponseEntity.ok(result);
-        } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", "Error: " + e.getMessage());
-            return ResponseEntity.status(500).body(error);
-        }
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> listS3AllFiles(@RequestBody S3Request s3Request) {
+        return upstreamExecutors.s3("list-s3-all-files", () -> {
+            try {
+                List<String> allFiles = s3BrowseCache.getAllFilesInFolder(s3Request);
+                Map<String, Object> result = new HashMap<>();
+                result.put("files", allFiles);
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Error: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
     }
 
     @DeleteMapping("/delete/{filename}")
@@ -303,6 +496,7 @@ public class FileController {
         try {
             boolean deleted = fileService.deleteFile(filename);
             if (deleted) {
+                fileMetadataStore.delete(filename);
                 return ResponseEntity.ok("File deleted: " + filename);
             } else {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found: " + filename);
@@ -314,191 +508,118 @@ public class FileController {
 
     // PostgreSQL endpoints
     @PostMapping("/list-postgres")
-    public ResponseEntity<Map<String, Object>> listPostgres(@RequestBody PostgresRequest postgresRequest) {
-        try {
-            Map<String, Object> result = postgresService.listPostgresContents(postgresRequest);
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> listPostgres(@RequestBody PostgresRequest postgresRequest) {
+        return upstreamExecutors.jdbc("list-postgres", () -> {
+            try {
+                Map<String, Object> result = postgresService.listPostgresContents(postgresRequest);
             
-            // Check if there was an error in the result
-            if (result.containsKey("error")) {
-                return ResponseEntity.status(500).body(result);
-            }
+                // Check if there was an error in the result
+                if (result.containsKey("error")) {
+                    return ResponseEntity.status(500).body(result);
+                }
             
-            return ResponseEntity.ok(result);
-        } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            String errorMessage = e.getMessage();
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                String errorMessage = e.getMessage();
             
-            // Handle specific PostgreSQL error codes
-            if (errorMessage.contains("FATAL: password authentication failed")) {
-                error.put("error", "Authentication failed: Wrong username or password");
-                return ResponseEntity.status(401).body(error);
-            } else if (errorMessage.contains("FATAL: role") && errorMessage.contains("does not exist")) {
-                error.put("error", "User not found: The specified username does not exist");
-                return ResponseEntity.status(401).body(error);
-            } else if (errorMessage.contains("FATAL: database") && errorMessage.contains("does not exist")) {
-                error.put("error", "Database not found: The specified database does not exist");
-                return ResponseEntity.status(404).body(error);
-            } else if (errorMessage.contains("Connection refused") || errorMessage.contains("Connection timed out")) {
-                error.put("error", "Connection failed: Cannot connect to the database server. Please check if PostgreSQL is running and the host/port is correct");
-                return ResponseEntity.status(503).body(error);
-            } else if (errorMessage.contains("permission denied")) {
-                error.put("error", "Access denied: Insufficient permissions to access the database");
-                return ResponseEntity.status(403).body(error);
-            } else {
-                error.put("error", "Database error: " + errorMessage);
-                return ResponseEntity.status(500).body(error);
+                // Handle specific PostgreSQL error codes
+                if (errorMessage.contains("FATAL: password authentication failed")) {
+                    error.put("error", "Authentication failed: Wrong username or password");
+                    return ResponseEntity.status(401).body(error);
+                } else if (errorMessage.contains("FATAL: role") && errorMessage.contains("does not exist")) {
+                    error.put("error", "User not found: The specified username does not exist");
+                    return ResponseEntity.status(401).body(error);
+                } else if (errorMessage.contains("FATAL: database") && errorMessage.contains("does not exist")) {
+                    error.put("error", "Database not found: The specified database does not exist");
+                    return ResponseEntity.status(404).body(error);
+                } else if (errorMessage.contains("Connection refused") || errorMessage.contains("Connection timed out")) {
+                    error.put("error", "Connection failed: Cannot connect to the database server. Please check if PostgreSQL is running and the host/port is correct");
+                    return ResponseEntity.status(503).body(error);
+                } else if (errorMessage.contains("permission denied")) {
+                    error.put("error", "Access denied: Insufficient permissions to access the database");
+                    return ResponseEntity.status(403).body(error);
+                } else {
+                    error.put("error", "Database error: " + errorMessage);
+                    return ResponseEntity.status(500).body(error);
+                }
             }
-        }
+        });
     }
 
 
 
     @PostMapping("/postgres-table-preview")
-    public ResponseEntity<Map<String, Object>> getPostgresTablePreview(@RequestBody PostgresRequest postgresRequest) {
-        try {
-            String tableName = postgresRequest.getTable();
-            if (tableName == null || tableName.isEmpty()) {
-                Map<String, Object> error = new HashMap<>();
-                error.put("error", "Table name is required");
-                return ResponseEntity.badRequest().body(error);
-            }
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getPostgresTablePreview(@RequestBody PostgresRequest postgresRequest) {
+        return upstreamExecutors.jdbc("postgres-table-preview", () -> {
+            try {
+                String tableName = postgresRequest.getTable();
+                if (tableName == null || tableName.isEmpty()) {
+                    Map<String, Object> error = new HashMap<>();
+                    error.put("error", "Table name is required");
+                    return ResponseEntity.badRequest().body(error);
+                }
 
-            // Extract table name from schema.table format if present
-            String actualTableName = tableName;
-            if (tableName.contains(".")) {
-                String[] parts = tableName.split("\\.");
-                if (parts.length == 2) {
-                    postgresRequest.setSchema(parts[0]);
-                    actualTableName = parts[1];
+                // Extract table name from schema.table format if present
+                String actualTableName = tableName;
+                if (tableName.contains(".")) {
+                    String[] parts = tableName.split("\\.");
+                    if (parts.length == 2) {
+                        postgresRequest.setSchema(parts[0]);
+                        actualTableName = parts[1];
+                    }
                 }
-            }
 
-            Map<String, Object> schema = postgresService.getTableSchema(postgresRequest, actualTableName);
-            Map<String, Object> sample = postgresService.getTableSample(postgresRequest, actualTableName, 5);
+                // Schema and sample are cached separately
+                Map<String, Object> result = tablePreviewService.getPreview(postgresRequest, actualTableName);
             
-            Map<String, Object> result = new HashMap<>();
-            result.put("schema", schema);
-            result.put("sample", sample);
-            
-            return ResponseEntity.ok(result);
-        } catch (Exception e) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("error", "Failed to get table preview: " + e.getMessage());
-            return ResponseEntity.status(500).body(error);
-        }
+                return ResponseEntity.ok(result);
+            } catch (Exception e) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "Failed to get table preview: " + e.getMessage());
+                return ResponseEntity.status(500).body(error);
+            }
+        });
     }
 
     @PostMapping("/load-postgres-progress")
     public ResponseEntity<Map<String, Object>> loadPostgresFilesWithProgress(@RequestBody PostgresRequest postgresRequest) {
+        String jobId = postgresRequest.getJobId();
+        if (jobId == null || jobId.isEmpty()) {
+            jobId = UUID.randomUUID().toString();
+            postgresRequest.setJobId(jobId);
+        }
+        
         Map<String, Object> result = new HashMap<>();
-        result.put("jobId", postgresRequest.getJobId());
+        result.put("jobId", jobId);
         
-        // Start processing in background thread
-        new Thread(() -> {
+        List<String> tables = postgresRequest.getTables();
+        ImportProgress progress = new ImportProgress();
+        progress.total = tables != null ? tables.size() : 0;
+        progress.status = "processing";
+        progress.message = "Starting PostgreSQL import...";
+        progressMap.put(jobId, progress);
+        
+        if (tables == null || tables.isEmpty()) {
+            progress.message = "No tables selected for import";
+            progress.status = "error";
+            return ResponseEntity.ok(result);
+        }
+        
+        // Start processing in the background; tables are exported in parallel by the export service
+        Future<?> submitted = backgroundJobs.submit(jobId, progress, () -> {
             try {
-                List<String> tables = postgresRequest.getTables();
-                if (tables == null || tables.isEmpty()) {
-                    ImportProgress errorProgress = new ImportProgress();
-                    errorProgress.message = "No tables selected for import";
-                    errorProgress.status = "error";
-                    progressMap.put(postgresRequest.getJobId(), errorProgress);
-                    return;
-                }
-                
-                ImportProgress progress = new ImportProgress();
-                progress.total = tables.size();
-                progress.processed = 0;
-                progress.status = "processing";
-                
-                List<String> processedFiles = new ArrayList<>();
-                List<String> failedFiles = new ArrayList<>();
-                
-                for (int i = 0; i < tables.size(); i++) {
-                    String tableName = tables.get(i);
-                    try {
-                        progress.message = "Processing " + tableName + "...";
-                        
-                        // Extract schema and table name
-                        String schema = "public";
-                        String actualTableName = tableName;
-                        if (tableName.contains(".")) {
-                            String[] parts = tableName.split("\\.");
-                            if (parts.length == 2) {
-                                schema = parts[0];
-                                actualTableName = parts[1];
-                            }
-                        }
-                        
-                        // Get table data
-                        Map<String, Object> tableData = postgresService.getTableSample(postgresRequest, actualTableName, 1000);
-                        
-                        // Create a CSV-like representation of the table
-                        String csvContent = "";
-                        
-                        // Add headers
-                        @SuppressWarnings("unchecked")
-                        List<String> columns = (List<String>) tableData.get("columns");
-                        if (columns != null && !columns.isEmpty()) {
-                            csvContent += String.join(",", columns) + "\n";
-                        }
-                        
-                        // Add data rows
-                        @SuppressWarnings("unchecked")
-                        List<Map<String, Object>> rows = (List<Map<String, Object>>) tableData.get("rows");
-                        if (rows != null) {
-                            for (Map<String, Object> row : rows) {
-                                List<String> rowValues = new ArrayList<>();
-                                for (String column : columns) {
-                                    Object value = row.get(column);
-                                    String stringValue = value != null ? value.toString() : "";
-                                    // Escape commas and quotes
-                                    if (stringValue.contains(",") || stringValue.contains("\"") || stringValue.contains("\n")) {
-                                        stringValue = "\"" + stringValue.replace("\"", "\"\"") + "\"";
-                                    }
-                                    rowValues.add(stringValue);
-                                }
-                                csvContent += String.join(",", rowValues) + "\n";
-                            }
-                        }
-                        
-                        // Save to file
-                        String fileName = tableName.replace(".", "_") + ".csv";
-                        java.nio.file.Path filePath = java.nio.file.Paths.get("uploads", fileName);
-                        java.nio.file.Files.createDirectories(filePath.getParent());
-                        java.nio.file.Files.write(filePath, csvContent.getBytes());
-                        
-                        processedFiles.add(tableName);
-                        progress.processed++;
-                        Thread.sleep(200); // Small delay to show progress
-                        
-                    } catch (Exception e) {
-                        String errorMsg = "Error processing " + tableName + ": " + e.getMessage();
-                        System.err.println(errorMsg);
-                        failedFiles.add(tableName + " (Error: " + e.getMessage() + ")");
-                        progress.processed++;
-                    }
-                }
-                
-                // Final status
-                String finalMessage = String.format("Import completed. Processed: %d, Failed: %d", 
-                    processedFiles.size(), failedFiles.size());
-                if (!failedFiles.isEmpty()) {
-                    finalMessage += ". Failed: " + String.join(", ", failedFiles);
-                }
-                
-                progress.message = finalMessage;
-                progress.status = failedFiles.isEmpty() ? "done" : "error";
-                progressMap.put(postgresRequest.getJobId(), progress);
-                
+                postgresExportService.exportTables(postgresRequest, progress);
             } catch (Exception e) {
                 String errorMsg = "PostgreSQL import failed: " + e.getMessage();
                 System.err.println(errorMsg);
-                ImportProgress errorProgress = new ImportProgress();
-                errorProgress.message = errorMsg;
-                errorProgress.status = "error";
-                progressMap.put(postgresRequest.getJobId(), errorProgress);
+                progress.message = errorMsg;
+                progress.status = "error";
             }
-        }).start();
+        });
+        if (submitted == null) {
+            alreadyRunning(jobId, progress);
+        }
         
         return ResponseEntity.ok(result);
     }
@@ -0,0 +1,70 @@
+package io.backend.fileservice;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a JSON document of metadata for each stored file, such as the detected
+ * format and schema. Documents live in their own directory, mirroring the
+ * storage layout, so they never show up as stored files themselves.
+ */
+@Component
+public class FileMetadataStore {
+
+    private final Path metadataDir;
+    private final int sampleBytes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public FileMetadataStore(@Value("${file.metadata-dir:file-metadata}") String metadataDir,
+                             @Value("${file.metadata.sample-bytes:1048576}") int sampleBytes) throws IOException {
+        this.metadataDir = Paths.get(metadataDir).toAbsolutePath().normalize();
+        this.sampleBytes = sampleBytes;
+        Files.createDirectories(this.metadataDir);
+    }
+
+    /**
+     * A detector sized for the sample used for schema inference
+     */
+    public FormatDetector newDetector() {
+        return new FormatDetector(sampleBytes);
+    }
+
+    /**
+     * Merge the given fields into the metadata of a stored file
+     */
+    public synchronized void save(String filename, Map<String, Object> metadata) throws IOException {
+        Path path = resolve(filename);
+        Map<String, Object> merged = load(filename);
+        merged.putAll(metadata);
+        Files.createDirectories(path.getParent());
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        objectMapper.writeValue(temp.toFile(), merged);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Metadata of a stored file, empty when none was recorded
+     */
+    public Map<String, Object> load(String filename) throws IOException {
+        Path path = resolve(filename);
+        if (!Files.exists(path)) {
+            return new LinkedHashMap<>();
+        }
+        return objectMapper.readValue(path.toFile(), new TypeReference<LinkedHashMap<String, Object>>() {});
+    }
+
+    public synchronized void delete(String filename) throws IOException {
+        Files.deleteIfExists(resolve(filename));
+    }
+
+    private Path resolve(String filename) throws IOException {
+        return SafeFileNames.resolve(metadataDir, filename + ".json");
+    }
+}
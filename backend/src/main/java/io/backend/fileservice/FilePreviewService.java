@@ -0,0 +1,187 @@
+package io.backend.fileservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Previews the beginning of stored files and S3 objects without transferring them.
+ * Local files are read with a positional read of the first bytes and S3 objects
+ * with a ranged GET, so the cost depends on the preview size only. The text can
+ * optionally be parsed into a CSV header and rows or into NDJSON records.
+ */
+@Service
+public class FilePreviewService {
+
+    private final FileService fileService;
+    private final S3Service s3Service;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int maxBytes;
+
+    public FilePreviewService(FileService fileService, S3Service s3Service,
+                              @Value("${preview.file.max-bytes:1048576}") int maxBytes) {
+        this.fileService = fileService;
+        this.s3Service = s3Service;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Preview a file from the storage directory
+     */
+    public Map<String, Object> previewLocalFile(String filename, int bytes, int lines, String format) throws IOException {
+        Path path = fileService.resolveStoredFile(filename);
+        int length = Math.max(1, Math.min(bytes, maxBytes));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, size));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buildPreview(filename, size, buffer.array(), buffer.position(), lines, format);
+        }
+    }
+
+    /**
+     * Preview each requested S3 object using a ranged GET of its first bytes.
+     * Returns a map of key to preview, or to an error message for keys that failed.
+     */
+    public Map<String, Object> previewS3Files(S3Request s3Request, int bytes, int lines, String format) {
+        Map<String, Object> result = new HashMap<>();
+        if (s3Request.getFiles() == null || s3Request.getFiles().isEmpty()) {
+            result.put("error", "No files specified");
+            return result;
+        }
+
+        int length = Math.max(1, Math.min(bytes, maxBytes));
+        try (S3Client s3 = s3Service.createS3Client(s3Request)) {
+            for (String fileKey : s3Request.getFiles()) {
+                try {
+                    ResponseBytes<GetObjectResponse> response = s3.getObjectAsBytes(builder -> builder
+                        .bucket(s3Request.getBucket())
+                        .key(fileKey)
+                        .range("bytes=0-" + (length - 1)));
+                    byte[] data = response.asByteArrayUnsafe();
+                    result.put(fileKey, buildPreview(fileKey, totalSize(response.response(), data.length),
+                        data, data.length, lines, format));
+                } catch (Exception e) {
+                    result.put(fileKey, "Error: " + e.getMessage());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Object size from Content-Range ("bytes 0-99/12345"), falling back to the bytes received
+     */
+    private long totalSize(GetObjectResponse response, long received) {
+        String contentRange = response.contentRange();
+        if (contentRange != null) {
+            int slash = contentRange.lastIndexOf('/');
+            if (slash >= 0 && !contentRange.endsWith("*")) {
+                try {
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+                } catch (NumberFormatException ignored) {
+                    // Fall through to the received length
+                }
+            }
+        }
+        return received;
+    }
+
+    private Map<String, Object> buildPreview(String name, long size, byte[] data, int length, int lines, String format) {
+        boolean truncated = length < size;
+
+        // A truncated read may end in the middle of a line (or a multi-byte character), so only complete lines are kept
+        int end = length;
+        if (truncated) {
+            int lastNewline = -1;
+            for (int i = length - 1; i >= 0; i--) {
+                if (data[i] == '\n') {
+                    lastNewline = i;
+                    break;
+                }
+            }
+            if (lastNewline >= 0) {
+                end = lastNewline + 1;
+            }
+        }
+        String text = new String(data, 0, end, StandardCharsets.UTF_8);
+
+        List<String> textLines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length() && textLines.size() < lines) {
+            int newline = text.indexOf('\n', start);
+            int lineEnd = newline >= 0 ? newline : text.length();
+            String line = text.substring(start, lineEnd);
+            textLines.add(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line);
+            start = lineEnd + 1;
+        }
+
+        Map<String, Object> preview = new HashMap<>();
+        preview.put("name", name);
+        preview.put("size", size);
+        preview.put("bytesRead", length);
+        preview.put("truncated", truncated);
+        preview.put("lines", textLines);
+
+        String parse = format != null ? format.toLowerCase() : "none";
+        if (parse.equals("auto")) {
+            parse = name.toLowerCase().endsWith(".csv") ? "csv"
+                : name.toLowerCase().matches(".*\\.(json|ndjson|jsonl)$") ? "json" : detectFormat(data, length, size);
+        }
+        if (parse.equals("csv")) {
+            List<List<String>> records = FormatDetector.parseCsv(text, FormatDetector.detectDelimiter(text), lines + 1);
+            if (!records.isEmpty()) {
+                preview.put("header", records.get(0));
+                preview.put("rows", records.subList(1, records.size()));
+            }
+            preview.put("format", "csv");
+        } else if (parse.equals("json")) {
+            List<Object> records = new ArrayList<>();
+            for (String line : textLines) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    records.add(objectMapper.readValue(line, Object.class));
+                } catch (IOException e) {
+                    break; // Not NDJSON, or a record that continues past the preview
+                }
+            }
+            preview.put("rows", records);
+            preview.put("format", "json");
+        }
+        return preview;
+    }
+
+    /**
+     * Fall back to content detection for names without a telling extension
+     */
+    private String detectFormat(byte[] data, int length, long size) {
+        FormatDetector detector = new FormatDetector(length);
+        detector.update(data, 0, length);
+        Object detected = detector.detect(size).get("format");
+        if ("csv".equals(detected)) {
+            return "csv";
+        }
+        return "ndjson".equals(detected) || "json".equals(detected) ? "json" : "none";
+    }
+}
@@ -0,0 +1,648 @@
+package io.backend.fileservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of file names, so finding a file needs neither a walk of
+ * the upload directory nor an S3 listing per query. Each namespace (local
+ * storage, or one bucket as seen with one set of credentials) keeps its paths
+ * in a trie of folder names, which serves prefix queries in order without
+ * looking at other folders, and indexes every file name by its trigrams and
+ * its extension: a substring or glob query only checks the names that hold
+ * all trigrams of its literal text. Names are numbered in the order they are
+ * added and matches come back in that order, so pages stay stable while new
+ * files arrive. The index is kept current by the code that writes, deletes
+ * and lists files; S3 namespaces beyond the size limit are dropped, least
+ * recently used first.
+ */
+@Component
+public class FileSearchIndex {
+
+    public static final String LOCAL = "local";
+    private static final int MAX_LIMIT = 1000;
+    private static final int MAX_COUNT = 10000; // Matches counted past the page before the total is an estimate
+
+    private final long maxNames;
+    private final Map<String, Namespace> namespaces = new LinkedHashMap<>(16, 0.75f, true);
+
+    public FileSearchIndex(@Value("${search.max-names:5000000}") long maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    /**
+     * The namespace of a bucket's listings; only requests with the same credentials can search it
+     */
+    public static String s3Namespace(S3Request s3Request) {
+        return "s3|" + S3BrowseCache.scope(s3Request);
+    }
+
+    public void add(String namespace, String path) {
+        Namespace index = namespace(namespace, true);
+        synchronized (index) {
+            index.touch(path);
+            index.add(path);
+        }
+        evict(namespace);
+    }
+
+    public void remove(String namespace, String path) {
+        Namespace index = namespace(namespace, false);
+        if (index == null) {
+            return;
+        }
+        synchronized (index) {
+            index.touch(path);
+            index.remove(path);
+        }
+    }
+
+    /**
+     * Add the paths found by a scan; paths added or removed while it runs keep their latest state
+     */
+    public void load(String namespace, Iterator<String> paths) {
+        Namespace index = namespace(namespace, true);
+        synchronized (index) {
+            index.touched = new HashSet<>();
+        }
+        try {
+            while (paths.hasNext()) {
+                String path = paths.next();
+                synchronized (index) {
+                    if (!index.touched.contains(path)) {
+                        index.add(path);
+                    }
+                }
+            }
+        } finally {
+            synchronized (index) {
+                index.touched = null;
+            }
+        }
+        evict(namespace);
+    }
+
+    /**
+     * Make the index agree with a fresh listing of folder (a prefix ending in "/", or "" for the
+     * root). With subfolders, the listing was delimited: files are the keys directly in folder and
+     * subfolders its child prefixes. Without, files are all keys below folder. For any other
+     * prefix the listing is partial and its files are only added.
+     */
+    public void replace(String namespace, String folder, Collection<String> files, Collection<String> subfolders) {
+        Namespace index = namespace(namespace, true);
+        synchronized (index) {
+            Folder node = folder.isEmpty() || folder.endsWith("/") ? index.folder(folder) : null;
+            if (node != null) {
+                Set<String> listed = new HashSet<>(files);
+                List<String> stale = new ArrayList<>();
+                if (subfolders == null) {
+                    collect(node, folder, stale);
+                } else {
+                    node.files.keySet().forEach(name -> stale.add(folder + name));
+                    Set<String> listedFolders = new HashSet<>(subfolders);
+                    node.folders.forEach((name, child) -> {
+                        if (!listedFolders.contains(folder + name + "/")) {
+                            collect(child, folder + name + "/", stale);
+                        }
+                    });
+                }
+                for (String path : stale) {
+                    if (!listed.contains(path)) {
+                        index.remove(path);
+                    }
+                }
+            }
+            for (String file : files) {
+                if (!file.isEmpty() && !file.endsWith("/")) { // Skip folder markers
+                    index.add(file);
+                }
+            }
+        }
+        evict(namespace);
+    }
+
+    public void clear(String namespace) {
+        synchronized (this) {
+            namespaces.remove(namespace);
+        }
+    }
+
+    public int size(String namespace) {
+        Namespace index = namespace(namespace, false);
+        return index != null ? index.size : 0;
+    }
+
+    /**
+     * A page of the paths under prefix matching every given filter, in index order, or in path
+     * order (files of a folder before its subfolders) when only a prefix is given. Past
+     * {@value #MAX_COUNT} matches a filtered search stops counting, and its total is a lower bound.
+     *
+     * @param query     substring of the file name, or of the whole path if it holds a "/"; ignores case
+     * @param glob      "*" and "?" within a folder name, "**" across folders; matched against the whole
+     *                  path if it holds a "/", else against the file name; ignores case
+     * @param extension file extension without the dot; ignores case
+     */
+    public Map<String, Object> search(String namespace, String prefix, String query, String glob, String extension,
+                                      int offset, int limit) {
+        Page page = new Page(Math.max(0, offset), Math.max(0, Math.min(limit, MAX_LIMIT)));
+        String pathPrefix = prefix != null ? prefix : "";
+        int indexed = 0;
+        boolean exact = true;
+        Namespace index = namespace(namespace, false);
+        if (index != null) {
+            synchronized (index) {
+                indexed = index.size;
+                if (isBlank(query) && isBlank(glob) && isBlank(extension)) {
+                    index.list(pathPrefix, page); // Counts whole folders at once, so always exact
+                } else {
+                    index.find(new Query(pathPrefix, query, glob, extension), page);
+                    exact = !page.full();
+                }
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("results", page.results);
+        result.put("total", page.position);
+        result.put("totalExact", exact);
+        result.put("offset", page.offset);
+        result.put("limit", page.limit);
+        result.put("indexedFiles", indexed);
+        return result;
+    }
+
+    private Namespace namespace(String namespace, boolean create) {
+        synchronized (this) {
+            Namespace index = namespaces.get(namespace);
+            if (index == null && create) {
+                index = new Namespace();
+                namespaces.put(namespace, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Drop the least recently used S3 namespaces other than the one just grown while over the limit
+     */
+    private synchronized void evict(String current) {
+        long total = 0;
+        for (Namespace index : namespaces.values()) {
+            total += index.size;
+        }
+        Iterator<Map.Entry<String, Namespace>> iterator = namespaces.entrySet().iterator();
+        while (total > maxNames && iterator.hasNext()) {
+            Map.Entry<String, Namespace> entry = iterator.next();
+            if (!entry.getKey().equals(LOCAL) && !entry.getKey().equals(current)) {
+                total -= entry.getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void collect(Folder folder, String base, List<String> paths) {
+        folder.files.keySet().forEach(name -> paths.add(base + name));
+        folder.folders.forEach((name, child) -> collect(child, base + name + "/", paths));
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static class Folder {
+        final TreeMap<String, Folder> folders = new TreeMap<>();
+        final TreeMap<String, Integer> files = new TreeMap<>();
+        int count; // Files in this folder and below
+    }
+
+    /**
+     * Ids in increasing order, as names get increasing ids
+     */
+    private static class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return; // Trigram seen twice in one name
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * The first position from start holding an id of at least id, by galloping ahead
+         */
+        int seek(int start, int id) {
+            int step = 1;
+            int low = start;
+            int high = start;
+            while (high < size && ids[high] < id) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(ids, low, Math.min(high + 1, size), id);
+            return found >= 0 ? found : -found - 1;
+        }
+    }
+
+    /**
+     * Collects the page out of the stream of matches and counts them
+     */
+    private static class Page {
+        final int offset;
+        final int limit;
+        final List<String> results = new ArrayList<>();
+        int position = 0;
+
+        Page(int offset, int limit) {
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        boolean wants() {
+            return position >= offset && position < offset + limit;
+        }
+
+        /**
+         * The page is filled and enough further matches were counted
+         */
+        boolean full() {
+            return position >= offset + limit && position >= MAX_COUNT;
+        }
+
+        /**
+         * Count a run of matches as a whole if none of them is on the page
+         */
+        boolean skip(int matches) {
+            if (position + matches <= offset || position >= offset + limit) {
+                position += matches;
+                return true;
+            }
+            return false;
+        }
+
+        void add(String path) {
+            if (wants()) {
+                results.add(path);
+            }
+            position++;
+        }
+
+        void add(String base, String name) {
+            if (wants()) {
+                results.add(base + name);
+            }
+            position++;
+        }
+    }
+
+    private static class Namespace {
+        Folder root = new Folder();
+        List<String> paths = new ArrayList<>(); // By id, null once removed
+        Map<String, Integer> ids = new HashMap<>();
+        Map<Long, Postings> trigrams = new HashMap<>();
+        Map<String, Postings> extensions = new HashMap<>();
+        int removed = 0;
+        volatile int size = 0;
+        Set<String> touched; // Paths changed while a scan is being loaded
+
+        void touch(String path) {
+            if (touched != null) {
+                touched.add(path);
+            }
+        }
+
+        void add(String path) {
+            if (ids.containsKey(path)) {
+                return;
+            }
+            int id = paths.size();
+            paths.add(path);
+            ids.put(path, id);
+            size = ids.size();
+
+            Folder folder = root;
+            folder.count++;
+            int start = 0;
+            int slash;
+            while ((slash = path.indexOf('/', start)) >= 0) {
+                folder = folder.folders.computeIfAbsent(path.substring(start, slash), key -> new Folder());
+                folder.count++;
+                start = slash + 1;
+            }
+            folder.files.put(path.substring(start), id);
+
+            for (int i = start; i + 3 <= path.length(); i++) {
+                trigrams.computeIfAbsent(trigram(path, i), key -> new Postings()).add(id);
+            }
+            String extension = extension(path, start);
+            if (extension != null) {
+                extensions.computeIfAbsent(extension, key -> new Postings()).add(id);
+            }
+        }
+
+        void remove(String path) {
+            Integer id = ids.remove(path);
+            if (id == null) {
+                return;
+            }
+            paths.set(id, null);
+            size = ids.size();
+            removeFrom(root, path, 0);
+            // Postings keep removed ids until they make up half of the index
+            if (++removed > 1024 && removed > ids.size()) {
+                compact();
+            }
+        }
+
+        private void removeFrom(Folder folder, String path, int start) {
+            folder.count--;
+            int slash = path.indexOf('/', start);
+            if (slash < 0) {
+                folder.files.remove(path.substring(start));
+                return;
+            }
+            String name = path.substring(start, slash);
+            Folder child = folder.folders.get(name);
+            removeFrom(child, path, slash + 1);
+            if (child.count == 0) {
+                folder.folders.remove(name);
+            }
+        }
+
+        private void compact() {
+            List<String> live = new ArrayList<>(ids.size());
+            for (String path : paths) {
+                if (path != null) {
+                    live.add(path);
+                }
+            }
+            root = new Folder();
+            paths = new ArrayList<>(live.size());
+            ids = new HashMap<>();
+            trigrams = new HashMap<>();
+            extensions = new HashMap<>();
+            removed = 0;
+            live.forEach(this::add);
+        }
+
+        /**
+         * The node of a folder prefix ending in "/" (or "" for the root), or null if nothing is in it
+         */
+        Folder folder(String prefix) {
+            Folder folder = root;
+            int start = 0;
+            int slash;
+            while (folder != null && (slash = prefix.indexOf('/', start)) >= 0) {
+                folder = folder.folders.get(prefix.substring(start, slash));
+                start = slash + 1;
+            }
+            return folder;
+        }
+
+        void list(String prefix, Page page) {
+            int start = prefix.lastIndexOf('/') + 1;
+            Folder folder = folder(prefix.substring(0, start));
+            if (folder == null) {
+                return;
+            }
+            String base = prefix.substring(0, start);
+            String partial = prefix.substring(start);
+            for (String name : startingWith(folder.files, partial).keySet()) {
+                page.add(base, name);
+            }
+            for (Map.Entry<String, Folder> child : startingWith(folder.folders, partial).entrySet()) {
+                if (!page.skip(child.getValue().count)) {
+                    walk(child.getValue(), base + child.getKey() + "/", page);
+                }
+            }
+        }
+
+        private void walk(Folder folder, String base, Page page) {
+            if (!page.skip(folder.files.size())) {
+                for (String name : folder.files.keySet()) {
+                    page.add(base, name);
+                }
+            }
+            for (Map.Entry<String, Folder> child : folder.folders.entrySet()) {
+                if (!page.skip(child.getValue().count)) {
+                    walk(child.getValue(), base + child.getKey() + "/", page);
+                }
+            }
+        }
+
+        void find(Query query, Page page) {
+            List<Postings> lists = new ArrayList<>();
+            for (long trigram : query.trigrams) {
+                Postings postings = trigrams.get(trigram);
+                if (postings == null) {
+                    return;
+                }
+                lists.add(postings);
+            }
+            if (query.extension != null) {
+                Postings postings = extensions.get(query.extension);
+                if (postings == null) {
+                    return;
+                }
+                lists.add(postings);
+            }
+
+            lists.sort(Comparator.comparingInt(postings -> postings.size));
+
+            // Candidates come from the prefix's folder or the shortest list, whichever holds fewer
+            int[] candidates;
+            int count;
+            int slash = query.prefix.lastIndexOf('/');
+            Folder scope = slash >= 0 ? folder(query.prefix.substring(0, slash + 1)) : null;
+            if (slash >= 0 && scope == null) {
+                return;
+            } else if (scope != null && (lists.isEmpty() || scope.count < lists.get(0).size)) {
+                candidates = new int[scope.count];
+                count = collectIds(scope, candidates, 0);
+                Arrays.sort(candidates);
+            } else if (!lists.isEmpty()) {
+                Postings shortest = lists.remove(0);
+                candidates = shortest.ids;
+                count = shortest.size;
+            } else {
+                for (String path : paths) {
+                    if (page.full()) {
+                        return;
+                    }
+                    if (path != null && query.matches(path)) {
+                        page.add(path);
+                    }
+                }
+                return;
+            }
+
+            // Move a cursor through each list along the candidates
+            int[] cursors = new int[lists.size()];
+            boolean exact = query.onlyIndexed();
+            candidates:
+            for (int i = 0; i < count && !page.full(); i++) {
+                int id = candidates[i];
+                for (int j = 0; j < lists.size(); j++) {
+                    Postings postings = lists.get(j);
+                    cursors[j] = postings.seek(cursors[j], id);
+                    if (cursors[j] == postings.size) {
+                        break candidates;
+                    }
+                    if (postings.ids[cursors[j]] != id) {
+                        continue candidates;
+                    }
+                }
+                String path = paths.get(id);
+                if (path != null && (exact || query.matches(path))) {
+                    page.add(path);
+                }
+            }
+        }
+
+        private static int collectIds(Folder folder, int[] ids, int count) {
+            for (int id : folder.files.values()) {
+                ids[count++] = id;
+            }
+            for (Folder child : folder.folders.values()) {
+                count = collectIds(child, ids, count);
+            }
+            return count;
+        }
+
+        private static <V> SortedMap<String, V> startingWith(TreeMap<String, V> map, String prefix) {
+            return prefix.isEmpty() ? map : map.subMap(prefix, prefix + Character.MAX_VALUE);
+        }
+    }
+
+    /**
+     * A search's filters, folded to lower case, and the trigrams any matching file name must hold
+     */
+    private static class Query {
+        final String prefix;
+        final String text;
+        final boolean textInPath;
+        final Pattern glob;
+        final boolean globInPath;
+        final String extension;
+        final List<Long> trigrams = new ArrayList<>();
+
+        Query(String prefix, String query, String glob, String extension) {
+            this.prefix = prefix;
+            this.text = isBlank(query) ? null : fold(query);
+            this.textInPath = text != null && text.indexOf('/') >= 0;
+            if (text != null && !textInPath) {
+                addTrigrams(text);
+            }
+
+            String foldedGlob = isBlank(glob) ? null : fold(glob);
+            this.globInPath = foldedGlob != null && foldedGlob.indexOf('/') >= 0;
+            this.glob = foldedGlob != null ? toPattern(foldedGlob) : null;
+            if (foldedGlob != null) {
+                // Only the part after the last "/" and "**" is sure to fall within the file name
+                int doubleStar = foldedGlob.lastIndexOf("**");
+                int tail = Math.max(foldedGlob.lastIndexOf('/') + 1, doubleStar < 0 ? 0 : doubleStar + 2);
+                for (String literal : foldedGlob.substring(tail).split("[*?]")) {
+                    addTrigrams(literal);
+                }
+            }
+
+            String trimmed = isBlank(extension) ? null : extension.trim();
+            this.extension = trimmed != null ? fold(trimmed.startsWith(".") ? trimmed.substring(1) : trimmed) : null;
+        }
+
+        private void addTrigrams(String literal) {
+            for (int i = 0; i + 3 <= literal.length(); i++) {
+                trigrams.add(trigram(literal, i));
+            }
+        }
+
+        /**
+         * Whether the postings alone decide a match, as for an extension with no other filter
+         */
+        boolean onlyIndexed() {
+            return prefix.isEmpty() && text == null && glob == null;
+        }
+
+        boolean matches(String path) {
+            if (!path.startsWith(prefix)) {
+                return false;
+            }
+            int name = path.lastIndexOf('/') + 1;
+            if (text != null && !containsFolded(path, textInPath ? 0 : name, text)) {
+                return false;
+            }
+            return glob == null || glob.matcher(fold(globInPath ? path : path.substring(name))).matches();
+        }
+
+        private static Pattern toPattern(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (glob.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?"); // Any folders, or none
+                    i += 2;
+                } else if (glob.startsWith("**", i)) {
+                    regex.append(".*");
+                    i++;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    if ("\\.[]{}()<>+-=!^$|".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+                }
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    /**
+     * Lower case one char at a time, so folded text keeps its length and positions
+     */
+    private static String fold(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static long trigram(String value, int at) {
+        return ((long) Character.toLowerCase(value.charAt(at)) << 32)
+            | ((long) Character.toLowerCase(value.charAt(at + 1)) << 16)
+            | Character.toLowerCase(value.charAt(at + 2));
+    }
+
+    private static String extension(String path, int nameStart) {
+        int dot = path.lastIndexOf('.');
+        if (dot <= nameStart || dot == path.length() - 1) {
+            return null; // No extension, or a name like ".env"
+        }
+        return fold(path.substring(dot + 1));
+    }
+
+    private static boolean containsFolded(String value, int from, String folded) {
+        int last = value.length() - folded.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < folded.length(); j++) {
+                if (Character.toLowerCase(value.charAt(i + j)) != folded.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
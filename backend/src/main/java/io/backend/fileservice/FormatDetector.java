@@ -0,0 +1,407 @@
+package io.backend.fileservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Detects the format of a file from its first bytes and infers a column schema.
+ * Bytes are fed in with {@link #update} while the file is being written, and
+ * only the first sampleLimit bytes are kept, so detection needs no second read.
+ * Recognises gzip (and the format inside it), Parquet, JSON, NDJSON and
+ * delimited text, including the delimiter, quoting and a header row.
+ */
+public class FormatDetector {
+
+    private static final char[] DELIMITERS = {',', ';', '\t', '|'};
+    private static final int MAX_SAMPLE_ROWS = 1000;
+    private static final Pattern INTEGER = Pattern.compile("[-+]?\\d+");
+    private static final Pattern DECIMAL = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+    private static final Pattern BOOLEAN = Pattern.compile("(?i)true|false|t|f|yes|no");
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}[T ]\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?(Z|[+-]\\d{2}(:?\\d{2})?)?");
+
+    private final byte[] sample;
+    private int sampleLength = 0;
+    private long totalBytes = 0;
+
+    public FormatDetector(int sampleLimit) {
+        this.sample = new byte[Math.max(16, sampleLimit)];
+    }
+
+    /**
+     * Feed the next bytes of the file; anything past the sample limit is only counted
+     */
+    public void update(byte[] bytes, int offset, int length) {
+        totalBytes += length;
+        int copy = Math.min(length, sample.length - sampleLength);
+        if (copy > 0) {
+            System.arraycopy(bytes, offset, sample, sampleLength, copy);
+            sampleLength += copy;
+        }
+    }
+
+    /**
+     * Describe the bytes seen so far.
+     * Returns a map with "format" and, depending on the format, "compression",
+     * "delimiter", "quoted", "hasHeader" and "columns" (name, type, nullable).
+     */
+    public Map<String, Object> detect() {
+        return detect(totalBytes);
+    }
+
+    /**
+     * Describe the bytes seen so far as the head of a file of the given size
+     */
+    public Map<String, Object> detect(long fileSize) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        byte[] data = sample;
+        int length = sampleLength;
+        boolean complete = fileSize <= sampleLength;
+
+        if (length >= 2 && (data[0] & 0xff) == 0x1f && (data[1] & 0xff) == 0x8b) {
+            result.put("compression", "gzip");
+            byte[] inflated = inflate(data, length);
+            data = inflated;
+            length = inflated.length;
+            complete = false; // Cannot tell how much of the stream the sample covers
+        }
+
+        if (length >= 4 && data[0] == 'P' && data[1] == 'A' && data[2] == 'R' && data[3] == '1') {
+            result.put("format", "parquet"); // Schema lives in the footer
+            return result;
+        }
+
+        String text = decode(data, length, complete);
+        String trimmed = text.stripLeading();
+        if (trimmed.isEmpty()) {
+            result.put("format", length == 0 ? "empty" : "binary");
+            return result;
+        }
+        if (looksBinary(data, length)) {
+            result.put("format", "binary");
+            return result;
+        }
+
+        if (trimmed.charAt(0) == '[') {
+            result.put("format", "json");
+        } else if (trimmed.charAt(0) == '{') {
+            List<Map<String, Object>> records = parseNdjson(text);
+            if (records.size() > 1) {
+                result.put("format", "ndjson");
+                result.put("columns", inferJsonColumns(records));
+            } else {
+                result.put("format", "json");
+            }
+        } else {
+            detectDelimited(text, result);
+        }
+        return result;
+    }
+
+    private void detectDelimited(String text, Map<String, Object> result) {
+        char delimiter = detectDelimiter(text);
+        List<List<String>> records = new ArrayList<>(parseCsv(text, delimiter, MAX_SAMPLE_ROWS + 1));
+        records.removeIf(record -> record.size() == 1 && record.get(0).isBlank());
+        if (records.isEmpty()) {
+            result.put("format", "text");
+            return;
+        }
+
+        int width = records.get(0).size();
+        result.put("format", width > 1 ? "csv" : "text");
+        if (width <= 1) {
+            return;
+        }
+        result.put("delimiter", String.valueOf(delimiter));
+        result.put("quoted", text.indexOf('"') >= 0);
+
+        List<String> first = records.get(0);
+        List<List<String>> rows = records.subList(1, records.size());
+        boolean hasHeader = looksLikeHeader(first);
+        result.put("hasHeader", hasHeader);
+        if (!hasHeader) {
+            rows = records;
+        }
+
+        List<Map<String, Object>> columns = new ArrayList<>();
+        for (int i = 0; i < width; i++) {
+            ColumnType type = new ColumnType();
+            for (List<String> row : rows) {
+                type.accept(i < row.size() ? row.get(i) : "");
+            }
+            Map<String, Object> column = new LinkedHashMap<>();
+            column.put("name", hasHeader ? first.get(i) : "column" + (i + 1));
+            column.put("type", type.name());
+            column.put("nullable", type.nullable);
+            columns.add(column);
+        }
+        result.put("columns", columns);
+        result.put("sampleRows", rows.size());
+    }
+
+    /**
+     * Pick the candidate that splits the first lines into the same number of fields (more than one), most fields wins
+     */
+    static char detectDelimiter(String text) {
+        char best = ',';
+        int bestWidth = 1;
+        for (char candidate : DELIMITERS) {
+            List<List<String>> records = parseCsv(text, candidate, 20);
+            if (records.isEmpty()) {
+                continue;
+            }
+            int width = records.get(0).size();
+            boolean consistent = records.stream()
+                .allMatch(record -> record.size() == width || record.size() == 1 && record.get(0).isEmpty());
+            if (consistent && width > bestWidth) {
+                best = candidate;
+                bestWidth = width;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Parse up to maxRecords records, honouring quoted fields that contain delimiters or line breaks.
+     * A trailing record cut off inside quotes is dropped.
+     */
+    static List<List<String>> parseCsv(String text, char delimiter, int maxRecords) {
+        List<List<String>> records = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (i < text.length() && records.size() < maxRecords) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                record.add(field.toString());
+                field.setLength(0);
+                records.add(record);
+                record = new ArrayList<>();
+            } else {
+                field.append(c);
+            }
+            i++;
+        }
+        if (!quoted && records.size() < maxRecords && (field.length() > 0 || !record.isEmpty())) {
+            record.add(field.toString());
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * A header has distinct, non-empty names none of which look like numbers, booleans or dates
+     */
+    private boolean looksLikeHeader(List<String> first) {
+        Set<String> names = new HashSet<>();
+        for (String name : first) {
+            if (name.isBlank() || !names.add(name)) {
+                return false;
+            }
+            ColumnType type = new ColumnType();
+            type.accept(name);
+            if (!type.name().equals("string")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Map<String, Object>> parseNdjson(String text) {
+        ObjectMapper mapper = new ObjectMapper();
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            if (records.size() >= MAX_SAMPLE_ROWS) {
+                break;
+            }
+            try {
+                Object value = mapper.readValue(line, Object.class);
+                if (!(value instanceof Map)) {
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> record = (Map<String, Object>) value;
+                records.add(record);
+            } catch (IOException e) {
+                break; // Pretty-printed JSON, or the record cut off at the end of the sample
+            }
+        }
+        return records;
+    }
+
+    private List<Map<String, Object>> inferJsonColumns(List<Map<String, Object>> records) {
+        Map<String, String> types = new LinkedHashMap<>();
+        Map<String, Boolean> nullable = new LinkedHashMap<>();
+        for (Map<String, Object> record : records) {
+            for (Map.Entry<String, Object> field : record.entrySet()) {
+                String type = jsonType(field.getValue());
+                String previous = types.get(field.getKey());
+                if (type.equals("null")) {
+                    nullable.put(field.getKey(), true);
+                    types.putIfAbsent(field.getKey(), "null");
+                } else if (previous == null || previous.equals("null")) {
+                    types.put(field.getKey(), type);
+                } else if (!previous.equals(type)) {
+                    types.put(field.getKey(), previous.equals("integer") && type.equals("decimal")
+                        || previous.equals("decimal") && type.equals("integer") ? "decimal" : "string");
+                }
+            }
+        }
+        List<Map<String, Object>> columns = new ArrayList<>();
+        for (Map.Entry<String, String> type : types.entrySet()) {
+            long present = records.stream().filter(record -> record.containsKey(type.getKey())).count();
+            Map<String, Object> column = new LinkedHashMap<>();
+            column.put("name", type.getKey());
+            column.put("type", type.getValue().equals("null") ? "string" : type.getValue());
+            column.put("nullable", nullable.getOrDefault(type.getKey(), false) || present < records.size());
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    private static String jsonType(Object value) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof Integer || value instanceof Long || value instanceof java.math.BigInteger) {
+            return "integer";
+        } else if (value instanceof Number) {
+            return "decimal";
+        } else if (value instanceof Boolean) {
+            return "boolean";
+        } else if (value instanceof Map) {
+            return "object";
+        } else if (value instanceof List) {
+            return "array";
+        }
+        return "string";
+    }
+
+    /**
+     * Narrowest type every non-empty value of a column fits
+     */
+    private static class ColumnType {
+        boolean integer = true;
+        boolean decimal = true;
+        boolean bool = true;
+        boolean date = true;
+        boolean timestamp = true;
+        boolean nullable = false;
+        boolean seen = false;
+
+        void accept(String value) {
+            String v = value.trim();
+            if (v.isEmpty()) {
+                nullable = true;
+                return;
+            }
+            seen = true;
+            if (integer && !INTEGER.matcher(v).matches()) {
+                integer = false;
+            }
+            if (decimal && !DECIMAL.matcher(v).matches()) {
+                decimal = false;
+            }
+            if (bool && !BOOLEAN.matcher(v).matches()) {
+                bool = false;
+            }
+            if (date && !DATE.matcher(v).matches()) {
+                date = false;
+            }
+            if (timestamp && !TIMESTAMP.matcher(v).matches()) {
+                timestamp = false;
+            }
+        }
+
+        String name() {
+            if (!seen) {
+                return "string";
+            } else if (bool) {
+                return "boolean";
+            } else if (integer) {
+                return "integer";
+            } else if (decimal) {
+                return "decimal";
+            } else if (date) {
+                return "date";
+            } else if (timestamp) {
+                return "timestamp";
+            }
+            return "string";
+        }
+    }
+
+    /**
+     * Decode the sample as UTF-8, dropping a BOM and, when the sample is partial, the cut-off last line
+     */
+    private static String decode(byte[] data, int length, boolean complete) {
+        int start = length >= 3 && (data[0] & 0xff) == 0xef && (data[1] & 0xff) == 0xbb && (data[2] & 0xff) == 0xbf ? 3 : 0;
+        int end = length;
+        if (!complete) {
+            for (int i = length - 1; i >= start; i--) {
+                if (data[i] == '\n') {
+                    end = i + 1;
+                    break;
+                }
+            }
+        }
+        return new String(data, start, Math.max(0, end - start), StandardCharsets.UTF_8);
+    }
+
+    private static boolean looksBinary(byte[] data, int length) {
+        int check = Math.min(length, 4096);
+        for (int i = 0; i < check; i++) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inflate as much of a gzip sample as it contains; the stream is usually cut off mid-way
+     */
+    private byte[] inflate(byte[] data, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data, 0, length))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while (out.size() < sample.length && (read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            // End of the sample reached inside the compressed stream
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,338 @@
+package io.backend.fileservice;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Durable record of running jobs, so work interrupted by a restart can resume.
+ * Each job is an append-only file of JSON lines: the job definition first, then
+ * a line per finished item and per checkpoint of a partly transferred item,
+ * and a line when the job is paused or resumed.
+ * Replaying the lines gives the job's state, and the file is removed when the
+ * job finishes. Lines go straight to the OS, which survives a process restart
+ * without paying for an fsync per item. Definitions can hold credentials, so
+ * journal files are only readable by their owner where the file system allows.
+ */
+@Component
+public class JobJournal {
+
+    private static final String SUFFIX = ".jsonl";
+
+    private final Path journalDir;
+    private final long checkpointBytes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Bytes of an item already written to a file, and the ETag of the object they came from
+     */
+    public record Partial(String file, long offset, String eTag) {
+    }
+
+    /**
+     * One journaled job; all methods record to the journal before returning
+     */
+    public class Job {
+        private final String id;
+        private final String type;
+        private final Object definition;
+        private final Path path;
+        private final Set<String> done = new HashSet<>();
+        private final Map<String, Partial> partials = new HashMap<>();
+        private boolean paused;
+        private OutputStream out;
+
+        private Job(String id, String type, Object definition, Path path) {
+            this.id = id;
+            this.type = type;
+            this.definition = definition;
+            this.path = path;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public <T> T getDefinition(Class<T> definitionType) {
+            return objectMapper.convertValue(definition, definitionType);
+        }
+
+        /**
+         * How many bytes of a direct transfer to write between checkpoints
+         */
+        public long getCheckpointBytes() {
+            return checkpointBytes;
+        }
+
+        public synchronized boolean isDone(String item) {
+            return done.contains(item);
+        }
+
+        public synchronized int getDoneCount() {
+            return done.size();
+        }
+
+        public synchronized Partial getPartial(String item) {
+            return partials.get(item);
+        }
+
+        /**
+         * Paused jobs wait for an explicit resume instead of resuming on startup
+         */
+        public synchronized boolean isPaused() {
+            return paused;
+        }
+
+        public synchronized void setPaused(boolean paused) throws IOException {
+            if (this.paused != paused) {
+                append(Map.of("paused", paused));
+                this.paused = paused;
+            }
+        }
+
+        /**
+         * Record that the first offset bytes of the item are in file
+         */
+        public synchronized void checkpoint(String item, String file, long offset, String eTag) throws IOException {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("checkpoint", item);
+            line.put("file", file);
+            line.put("offset", offset);
+            line.put("eTag", eTag);
+            append(line);
+            partials.put(item, new Partial(file, offset, eTag));
+        }
+
+        /**
+         * Record that the item is finished; its partial file, if any, has become the stored file
+         */
+        public synchronized void done(String item) throws IOException {
+            append(Map.of("done", item));
+            done.add(item);
+            partials.remove(item);
+        }
+
+        /**
+         * Forget the item's partial transfer and delete what was written of it
+         */
+        public synchronized void discardPartial(String item) throws IOException {
+            Partial partial = partials.remove(item);
+            if (partial != null) {
+                append(Map.of("discard", item));
+                Files.deleteIfExists(Paths.get(partial.file()));
+            }
+        }
+
+        /**
+         * The job completed: remove its journal and any partial files left by failed items
+         */
+        public synchronized void finish() {
+            for (Partial partial : partials.values()) {
+                try {
+                    Files.deleteIfExists(Paths.get(partial.file()));
+                } catch (IOException e) {
+                    System.err.println("Could not delete partial file " + partial.file() + ": " + e.getMessage());
+                }
+            }
+            partials.clear();
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Could not delete journal of job " + id + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Release the journal file, keeping it for a later resume
+         */
+        public synchronized void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    System.err.println("Could not close journal of job " + id + ": " + e.getMessage());
+                }
+                out = null;
+            }
+        }
+
+        private void append(Map<String, Object> line) throws IOException {
+            if (out == null) {
+                out = Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            out.write((objectMapper.writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Everything needed to rebuild this job's state, one line each
+         */
+        private List<Map<String, Object>> snapshot() {
+            List<Map<String, Object>> lines = new ArrayList<>();
+            Map<String, Object> header = new LinkedHashMap<>();
+            header.put("job", id);
+            header.put("type", type);
+            header.put("definition", definition);
+            lines.add(header);
+            if (paused) {
+                lines.add(Map.of("paused", true));
+            }
+            for (String item : done) {
+                lines.add(Map.of("done", item));
+            }
+            for (Map.Entry<String, Partial> partial : partials.entrySet()) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("checkpoint", partial.getKey());
+                line.put("file", partial.getValue().file());
+                line.put("offset", partial.getValue().offset());
+                line.put("eTag", partial.getValue().eTag());
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    public JobJournal(@Value("${jobs.journal-dir:job-journal}") String journalDir,
+                      @Value("${jobs.journal.checkpoint-bytes:67108864}") long checkpointBytes) throws IOException {
+        this.journalDir = Paths.get(journalDir).toAbsolutePath().normalize();
+        this.checkpointBytes = Math.max(1, checkpointBytes);
+        Files.createDirectories(this.journalDir);
+    }
+
+    /**
+     * Start the journal of a new job; an unfinished job with the same id is replaced
+     */
+    public Job create(String id, String type, Object definition) throws IOException {
+        Job job = new Job(id, type, objectMapper.convertValue(definition, Object.class), pathOf(id));
+        write(job);
+        return job;
+    }
+
+    /**
+     * Jobs of the given type whose journals were left by a previous run, compacted to their current state
+     */
+    public List<Job> loadUnfinished(String type) {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(journalDir)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        } catch (IOException e) {
+            System.err.println("Could not read job journal: " + e.getMessage());
+            return List.of();
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (Path file : files) {
+            Job job = load(file, type);
+            if (job != null) {
+                jobs.add(job);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * The unfinished job of the given type with this id, e.g. a paused one, or null if there is none.
+     * The job must not be running.
+     */
+    public Job load(String id, String type) {
+        Path path = pathOf(id);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        Job job = load(path, type);
+        return job != null && id.equals(job.id) ? job : null;
+    }
+
+    private Job load(Path file, String type) {
+        try {
+            Job job = replay(file);
+            if (job == null || !type.equals(job.type)) {
+                return null;
+            }
+            // Drops a line torn by a crash, so appends start on a fresh line
+            write(job);
+            return job;
+        } catch (IOException e) {
+            System.err.println("Could not replay job journal " + file.getFileName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Job replay(Path file) throws IOException {
+        Job job = null;
+        for (String text : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Map<String, Object> line;
+            try {
+                line = objectMapper.readValue(text, new TypeReference<LinkedHashMap<String, Object>>() {});
+            } catch (IOException e) {
+                continue; // Last line cut short by the crash
+            }
+            if (line.containsKey("job")) {
+                job = new Job((String) line.get("job"), (String) line.get("type"), line.get("definition"), file);
+            } else if (job == null) {
+                break;
+            } else if (line.containsKey("done")) {
+                job.done.add((String) line.get("done"));
+                job.partials.remove((String) line.get("done"));
+            } else if (line.containsKey("checkpoint")) {
+                job.partials.put((String) line.get("checkpoint"), new Partial((String) line.get("file"),
+                    ((Number) line.get("offset")).longValue(), (String) line.get("eTag")));
+            } else if (line.containsKey("discard")) {
+                job.partials.remove((String) line.get("discard"));
+            } else if (line.containsKey("paused")) {
+                job.paused = Boolean.TRUE.equals(line.get("paused"));
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Replace the job's journal with its current state, atomically
+     */
+    private void write(Job job) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (Map<String, Object> line : job.snapshot()) {
+            text.append(objectMapper.writeValueAsString(line)).append('\n');
+        }
+        Path temp = job.path.resolveSibling(job.path.getFileName() + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        ownerOnly(temp);
+        Files.move(temp, job.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void ownerOnly(Path path) {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX file system
+        }
+    }
+
+    /**
+     * Job ids come from clients, so files are named by their hash
+     */
+    private Path pathOf(String id) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(id.getBytes(StandardCharsets.UTF_8));
+            return journalDir.resolve(HexFormat.of().formatHex(hash) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package io.backend.fileservice;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Imports files and directories that already exist on the server into the storage directory.
+ * Inputs are walked in parallel and each file is copied with FileChannel.transferTo,
+ * which lets the kernel move the bytes without passing them through the heap.
+ * With local.import.link=hardlink files on the same volume are hard-linked
+ * instead, falling back to a copy when linking is not possible. Only paths
+ * under local.import.allowed-roots can be imported.
+ */
+@Service
+public class LocalImportService {
+
+    private static final long TRANSFER_SLICE = 8L * 1024 * 1024;
+
+    private final FileService fileService;
+    private final List<Path> allowedRoots = new ArrayList<>();
+    private final boolean hardLink;
+    private final ExecutorService workers;
+
+    /**
+     * What the tasks of one import share, so that cancelling it reaches the walks and copies already running
+     */
+    private static class ImportJob {
+        final Phaser running = new Phaser(1); // The coordinating thread, plus each task while it runs
+        volatile boolean cancelled;
+    }
+
+    public LocalImportService(FileService fileService,
+                              @Value("${local.import.allowed-roots:}") String allowedRoots,
+                              @Value("${local.import.link:copy}") String linkMode,
+                              @Value("${local.import.threads:4}") int threads) {
+        this.fileService = fileService;
+        for (String root : allowedRoots.split(",")) {
+            if (!root.isBlank()) {
+                this.allowedRoots.add(Paths.get(root.trim()).toAbsolutePath().normalize());
+            }
+        }
+        this.hardLink = "hardlink".equalsIgnoreCase(linkMode);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "local-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Import the given server paths, updating file and byte progress as copies finish.
+     * Relative paths are resolved against the first allowed root. Blocks until done.
+     */
+    public void importPaths(List<String> paths, FileController.ImportProgress progress) {
+        Queue<String> processedFiles = new ConcurrentLinkedQueue<>();
+        Queue<String> failedFiles = new ConcurrentLinkedQueue<>();
+        Queue<Future<?>> copies = new ConcurrentLinkedQueue<>();
+        List<Future<?>> walks = new ArrayList<>();
+        ImportJob job = new ImportJob();
+
+        synchronized (progress) {
+            progress.total = 0; // Counted as the walks discover files
+        }
+
+        for (String path : paths) {
+            walks.add(workers.submit(() -> run(job, () -> {
+                try {
+                    Path source = resolveSource(path);
+                    Path base = source.getParent() != null ? source.getParent() : source;
+                    if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+                        try (Stream<Path> stream = Files.walk(source)) {
+                            stream.filter(file -> Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS))
+                                .forEach(file -> {
+                                    if (job.cancelled) {
+                                        throw new CancellationException(); // Ends the walk
+                                    }
+                                    submitCopy(file, base, progress, processedFiles, failedFiles, copies, job);
+                                });
+                        }
+                    } else if (Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS)) {
+                        submitCopy(source, base, progress, processedFiles, failedFiles, copies, job);
+                    } else {
+                        throw new IOException("Not a regular file or directory");
+                    }
+                } catch (CancellationException e) {
+                    // The import was cancelled, nothing to report
+                } catch (Exception e) {
+                    failedFiles.add(path + " (Error: " + e.getMessage() + ")");
+                    synchronized (progress) {
+                        progress.total++;
+                        progress.processed++;
+                    }
+                }
+            })));
+        }
+
+        try {
+            // Walks finish before their copies, so every copy is queued once this loop ends
+            for (Future<?> walk : walks) {
+                walk.get();
+            }
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (InterruptedException e) {
+            cancel(job, walks, copies);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            System.err.println("Unexpected local import failure: " + e.getCause());
+        }
+
+        progress.message = "Import completed. Processed: " + processedFiles.size() + ", Failed: " + failedFiles.size();
+        progress.status = failedFiles.isEmpty() ? "done" : "error";
+    }
+
+    /**
+     * Cancel an import: drop its queued tasks, interrupt running ones and wait
+     * for them to end, so their temporary files are gone once this returns
+     */
+    private void cancel(ImportJob job, List<Future<?>> walks, Queue<Future<?>> copies) {
+        job.cancelled = true;
+        walks.forEach(future -> future.cancel(true));
+        copies.forEach(future -> future.cancel(true));
+        job.running.arriveAndAwaitAdvance();
+    }
+
+    /**
+     * Run a task of the job, unless the job was cancelled before it started
+     */
+    private void run(ImportJob job, Runnable task) {
+        job.running.register();
+        try {
+            // Checked after registering, so a cancel either waits for this task or is seen here
+            if (!job.cancelled) {
+                task.run();
+            }
+        } finally {
+            job.running.arriveAndDeregister();
+        }
+    }
+
+    private void submitCopy(Path file, Path base, FileController.ImportProgress progress,
+                            Queue<String> processedFiles, Queue<String> failedFiles, Queue<Future<?>> copies,
+                            ImportJob job) {
+        String relative = base.relativize(file).toString().replace("\\", "/");
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            size = 0;
+        }
+        synchronized (progress) {
+            progress.total++;
+            progress.bytesTotal += size;
+        }
+
+        copies.add(workers.submit(() -> run(job, () -> {
+            try {
+                progress.message = "Importing " + relative + "...";
+                Path target = fileService.resolveForWrite(relative);
+                if (!(hardLink && tryLink(file, target))) {
+                    copy(file, target, progress, job);
+                } else {
+                    addBytes(progress, Files.size(target));
+                }
+                fileService.stored(target);
+                processedFiles.add(relative);
+            } catch (Exception e) {
+                failedFiles.add(relative + " (Error: " + e.getMessage() + ")");
+            }
+            synchronized (progress) {
+                progress.processed++;
+            }
+        })));
+    }
+
+    /**
+     * Copy through a temporary sibling so a failed copy never leaves a truncated file behind
+     */
+    private void copy(Path source, Path target, FileController.ImportProgress progress, ImportJob job) throws IOException {
+        // Unique, since sources from different directories or concurrent jobs may store under one name
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".importing");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                if (job.cancelled) {
+                    throw new IOException("Import cancelled");
+                }
+                long transferred = in.transferTo(position, Math.min(TRANSFER_SLICE, size - position), out);
+                if (transferred <= 0) {
+                    break; // File shrank while copying
+                }
+                position += transferred;
+                addBytes(progress, transferred);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean tryLink(Path source, Path target) {
+        try {
+            Files.deleteIfExists(target);
+            Files.createLink(target, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false; // Different volume or unsupported file system
+        }
+    }
+
+    /**
+     * Resolve a requested path and make sure it lies inside an allowed root, after following links
+     */
+    private Path resolveSource(String path) throws IOException {
+        if (allowedRoots.isEmpty()) {
+            throw new IOException("Local import is disabled, configure local.import.allowed-roots");
+        }
+        Path requested = Paths.get(path);
+        if (!requested.isAbsolute()) {
+            requested = allowedRoots.get(0).resolve(requested);
+        }
+        Path real = requested.toRealPath();
+        for (Path root : allowedRoots) {
+            if (Files.exists(root) && real.startsWith(root.toRealPath())) {
+                return real;
+            }
+        }
+        throw new IOException("Path is outside the allowed import roots: " + path);
+    }
+
+    private void addBytes(FileController.ImportProgress progress, long bytes) {
+        synchronized (progress) {
+            progress.bytesProcessed += bytes;
+        }
+    }
+}
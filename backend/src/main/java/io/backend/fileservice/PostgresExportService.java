@@ -0,0 +1,493 @@
+package io.backend.fileservice;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports Postgres tables to CSV files in the storage directory.
+ * Tables are exported concurrently, largest first by catalog estimate, with
+ * the number of open connections per database capped. On PostgreSQL 14 and
+ * later, tables larger than the chunk size are split into ctid block ranges
+ * that are read with TID range scans, exported in parallel
+ * and stitched back into a single file. All connections of a job read from
+ * one exported snapshot so chunks and tables are mutually consistent.
+ * When the request carries an S3 target each table is streamed into a
+ * multipart upload under the target path instead of being written locally.
+ * Export jobs share the workers through a {@link FairScheduler} by priority,
+ * and a job's output can be capped in bytes per second.
+ */
+@Service
+public class PostgresExportService {
+
+    private final PostgresService postgresService;
+    private final FileService fileService;
+    private final S3Service s3Service;
+    private final FairScheduler workers;
+    private final long chunkPages;
+
+    /**
+     * One unit of work: a whole table or one block range of a table
+     */
+    private static class ExportTask {
+        final TableExport table;
+        final int chunk;
+        final long startBlock;
+        final long endBlock; // exclusive, -1 for open-ended
+        final long estimatedBytes;
+
+        ExportTask(TableExport table, int chunk, long startBlock, long endBlock, long estimatedBytes) {
+            this.table = table;
+            this.chunk = chunk;
+            this.startBlock = startBlock;
+            this.endBlock = endBlock;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        Path output() {
+            return table.chunks > 1 ? table.chunkPath(chunk) : table.target;
+        }
+    }
+
+    private static class TableExport {
+        final String name;
+        final String schema;
+        final String table;
+        final Path target;
+        long estimatedBytes;
+        long pages;
+        boolean sampleable;
+        int chunks = 1;
+        final AtomicInteger remaining = new AtomicInteger();
+        volatile String error;
+
+        TableExport(String name, String schema, String table, Path target) {
+            this.name = name;
+            this.schema = schema;
+            this.table = table;
+            this.target = target;
+        }
+
+        Path chunkPath(int chunk) {
+            return target.resolveSibling(target.getFileName() + ".part" + chunk);
+        }
+    }
+
+    /**
+     * What the tasks of one job share, so that stopping the job reaches those already running
+     */
+    private static class JobState {
+        final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+        final Phaser running = new Phaser(1); // The coordinating thread, plus each task while it runs
+        volatile boolean stopped;
+    }
+
+    public PostgresExportService(PostgresService postgresService, FileService fileService, S3Service s3Service,
+                                 @Value("${postgres.export.threads:0}") int threads,
+                                 @Value("${postgres.export.max-connections-per-database:4}") int maxConnectionsPerDatabase,
+                                 @Value("${postgres.export.chunk-pages:131072}") long chunkPages,
+                                 @Value("${jobs.scheduler.reserved-slots:2}") int reservedSlots,
+                                 @Value("${jobs.quota.per-user:0}") int maxPerUser,
+                                 @Value("${jobs.quota.per-source:0}") int maxPerSource) {
+        this.postgresService = postgresService;
+        this.fileService = fileService;
+        this.s3Service = s3Service;
+        this.chunkPages = chunkPages;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        // A job's source is its database, so the scheduler's source quota is the connection budget and
+        // no worker ever waits for a connection. Each job holds one slot for its snapshot, leaving at least one.
+        int perDatabase = maxPerSource > 0 ? Math.min(maxPerSource, maxConnectionsPerDatabase) : maxConnectionsPerDatabase;
+        this.workers = new FairScheduler("postgres-export", poolSize, reservedSlots, maxPerUser, Math.max(2, perDatabase));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Export the tables listed in the request, updating progress as each table completes.
+     * Blocks until every table has finished or failed.
+     */
+    public void exportTables(PostgresRequest request, FileController.ImportProgress progress) {
+        List<String> tableNames = request.getTables();
+        List<String> processedTables = Collections.synchronizedList(new ArrayList<>());
+        List<String> failedTables = Collections.synchronizedList(new ArrayList<>());
+
+        List<TableExport> tables = new ArrayList<>();
+        for (String tableName : tableNames) {
+            String schema = "public";
+            String actualTableName = tableName;
+            if (tableName.contains(".")) {
+                String[] parts = tableName.split("\\.");
+                if (parts.length == 2) {
+                    schema = parts[0];
+                    actualTableName = parts[1];
+                }
+            }
+            String fileName = tableName.replace(".", "_") + ".csv";
+            Path target;
+            try {
+                target = fileService.resolveForWrite(fileName);
+            } catch (IOException e) {
+                failedTables.add(tableName + " (Error: " + e.getMessage() + ")");
+                synchronized (progress) {
+                    progress.processed++;
+                }
+                continue;
+            }
+            tables.add(new TableExport(tableName, schema, actualTableName, target));
+        }
+
+        // Jobs share the workers by priority, within the quotas of their database user and database
+        FairScheduler.Share share = workers.register(FairScheduler.weightOf(request.getPriority()),
+            request.getUsername() + "@" + request.getHost() + ":" + request.getPort(), databaseKey(request));
+        TokenBucket bandwidth = TokenBucket.of(request.getMaxBytesPerSecond());
+        JobState job = new JobState();
+
+        // The snapshot holder is a connection too, so it takes a slot of the database's budget
+        try {
+            workers.acquireSource(databaseKey(request));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            share.close();
+            throw new RuntimeException("Export interrupted", e);
+        }
+        try (Connection snapshotConnection = postgresService.createConnection(request)) {
+            snapshotConnection.setAutoCommit(false);
+            snapshotConnection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+
+            estimateSizes(snapshotConnection, tables);
+            String snapshotId = exportSnapshot(snapshotConnection);
+            // Block ranges are only read with TID range scans from PostgreSQL 14; older servers scan the whole table per chunk
+            boolean tidRangeScans = snapshotConnection.getMetaData().getDatabaseMajorVersion() >= 14;
+
+            List<ExportTask> tasks = planTasks(request, tables, tidRangeScans);
+            List<Future<?>> futures = new ArrayList<>();
+            for (ExportTask task : tasks) {
+                futures.add(share.submit(() ->
+                    runTask(request, task, snapshotId, bandwidth, progress, processedTables, failedTables, job)));
+            }
+
+            progress.message = "Exporting " + tables.size() + " tables...";
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    System.err.println("Unexpected export failure: " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stop(request, job, futures, tables, processedTables);
+                    throw new RuntimeException("Export interrupted", e);
+                }
+            }
+
+            snapshotConnection.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        } finally {
+            share.close();
+            workers.releaseSource(databaseKey(request));
+        }
+
+        String finalMessage = String.format("Import completed. Processed: %d, Failed: %d",
+            processedTables.size(), failedTables.size());
+        if (!failedTables.isEmpty()) {
+            finalMessage += ". Failed: " + String.join(", ", failedTables);
+        }
+        progress.message = finalMessage;
+        progress.status = failedTables.isEmpty() ? "done" : "error";
+    }
+
+    /**
+     * Run one task; the scheduler's source quota keeps the database within its
+     * connection budget. The last task of a table to finish stitches its chunks
+     * and reports the table as done.
+     */
+    private void runTask(PostgresRequest request, ExportTask task, String snapshotId,
+                         TokenBucket bandwidth, FileController.ImportProgress progress,
+                         List<String> processedTables, List<String> failedTables, JobState job) {
+        job.running.register();
+        try {
+            if (!job.stopped) { // Tasks that start after a stop leave the clean-up to it
+                exportAndReport(request, task, snapshotId, bandwidth, progress, processedTables, failedTables, job);
+            }
+        } finally {
+            job.running.arriveAndDeregister();
+        }
+    }
+
+    private void exportAndReport(PostgresRequest request, ExportTask task, String snapshotId,
+                                 TokenBucket bandwidth, FileController.ImportProgress progress,
+                                 List<String> processedTables, List<String> failedTables, JobState job) {
+        TableExport table = task.table;
+        if (table.error == null) {
+            try {
+                exportTask(request, task, snapshotId, bandwidth, job);
+            } catch (Exception e) {
+                table.error = e.getMessage();
+            }
+        }
+
+        if (table.remaining.decrementAndGet() > 0) {
+            return;
+        }
+
+        if (table.error == null && table.chunks > 1) {
+            try {
+                stitchChunks(table);
+            } catch (IOException e) {
+                table.error = e.getMessage();
+            }
+        }
+        if (table.error == null) {
+            if (request.getS3Target() == null) {
+                fileService.stored(table.target);
+            }
+            processedTables.add(table.name);
+        } else {
+            System.err.println("Error processing " + table.name + ": " + table.error);
+            failedTables.add(table.name + " (Error: " + table.error + ")");
+            if (request.getS3Target() == null) {
+                deletePartialOutput(table);
+            }
+        }
+        synchronized (progress) {
+            progress.processed++;
+            progress.message = "Exported " + table.name;
+        }
+    }
+
+    /**
+     * Stop a job: drop its queued tasks, cancel the queries of running ones on the
+     * server, wait for them to end and remove the output of every unfinished table
+     */
+    private void stop(PostgresRequest request, JobState job, List<Future<?>> futures, List<TableExport> tables,
+                      List<String> processedTables) {
+        job.stopped = true;
+        futures.forEach(future -> future.cancel(true));
+        for (Statement stmt : job.statements) {
+            try {
+                stmt.cancel();
+            } catch (SQLException e) {
+                System.err.println("Could not cancel export query: " + e.getMessage());
+            }
+        }
+        job.running.arriveAndAwaitAdvance();
+        if (request.getS3Target() == null) {
+            for (TableExport table : tables) {
+                if (!processedTables.contains(table.name)) {
+                    deletePartialOutput(table);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill in size and page estimates from pg_class; unknown relations stay at zero
+     */
+    private void estimateSizes(Connection connection, List<TableExport> tables) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT pg_relation_size(c.oid), c.relpages, c.relkind FROM pg_class c " +
+                "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                "WHERE n.nspname = ? AND c.relname = ?")) {
+            for (TableExport table : tables) {
+                stmt.setString(1, table.schema);
+                stmt.setString(2, table.table);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        table.estimatedBytes = rs.getLong(1);
+                        table.pages = rs.getLong(2);
+                        table.sampleable = "r".equals(rs.getString(3)) || "m".equals(rs.getString(3));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Export a snapshot for the worker connections to share, null if the server refuses
+     */
+    private String exportSnapshot(Connection connection) {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_export_snapshot()")) {
+            return rs.next() ? rs.getString(1) : null;
+        } catch (SQLException e) {
+            System.err.println("Could not export snapshot, tables will not be mutually consistent: " + e.getMessage());
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // Connection is closed by the caller
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Split large tables into block ranges and order all work largest first
+     */
+    private List<ExportTask> planTasks(PostgresRequest request, List<TableExport> tables, boolean tidRangeScans) {
+        // Ordered or limited exports must be read in one pass to keep their semantics
+        boolean chunkable = chunkPages > 0
+            && tidRangeScans
+            && request.getS3Target() == null // S3 objects are written as one stream each
+            && request.getLimit() == null
+            && (request.getOrderBy() == null || request.getOrderBy().isEmpty());
+
+        List<ExportTask> tasks = new ArrayList<>();
+        for (TableExport table : tables) {
+            if (chunkable && table.sampleable && table.pages > chunkPages) {
+                table.chunks = (int) ((table.pages + chunkPages - 1) / chunkPages);
+                long bytesPerChunk = table.estimatedBytes / table.chunks;
+                for (int i = 0; i < table.chunks; i++) {
+                    long start = i * chunkPages;
+                    long end = i == table.chunks - 1 ? -1 : start + chunkPages;
+                    tasks.add(new ExportTask(table, i, start, end, bytesPerChunk));
+                }
+                table.remaining.set(table.chunks);
+            } else {
+                table.remaining.set(1);
+                tasks.add(new ExportTask(table, 0, 0, -1, table.estimatedBytes));
+            }
+        }
+        tasks.sort(Comparator.comparingLong((ExportTask task) -> task.estimatedBytes).reversed());
+        return tasks;
+    }
+
+    private void exportTask(PostgresRequest request, ExportTask task, String snapshotId,
+                            TokenBucket bandwidth, JobState job) throws SQLException, IOException {
+        try (Connection connection = postgresService.createConnection(request)) {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            if (snapshotId != null) {
+                connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("SET TRANSACTION SNAPSHOT " + quoteSnapshotId(snapshotId));
+                }
+            }
+
+            PostgresQuery query = PostgresQuery.select(task.table.schema, task.table.table, request.getColumns())
+                .where(request.getFilters());
+            if (task.table.chunks > 1) {
+                query.whereBlockRange(task.startBlock, task.endBlock);
+            }
+            query.orderBy(request.getOrderBy());
+            if (request.getLimit() != null) {
+                query.limit(request.getLimit());
+            }
+
+            try (PreparedStatement stmt = query.prepare(connection)) {
+                stmt.setFetchSize(postgresService.getFetchSize());
+                job.statements.add(stmt);
+                // Checked after registering, so a stop either cancels this query or is seen here
+                if (job.stopped) {
+                    throw new SQLException("Export stopped");
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (request.getS3Target() != null) {
+                        writeToS3(request.getS3Target(), task, rs, bandwidth);
+                    } else {
+                        writeToFile(task, rs, bandwidth);
+                    }
+                } finally {
+                    job.statements.remove(stmt);
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    private void writeToFile(ExportTask task, ResultSet rs, TokenBucket bandwidth) throws SQLException, IOException {
+        Files.createDirectories(task.output().getParent());
+        try (FileChannel out = FileChannel.open(task.output(), StandardOpenOption.CREATE,
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             CsvWriter csv = new CsvWriter(bandwidth != null ? bandwidth.wrap(out) : out)) {
+            // Only the first chunk carries the header so the stitched file has exactly one
+            csv.writeResultSet(rs, task.chunk == 0);
+        }
+    }
+
+    /**
+     * Pipe the CSV stream straight into a multipart upload, nothing is staged on disk
+     */
+    private void writeToS3(S3Request target, ExportTask task, ResultSet rs, TokenBucket bandwidth) throws SQLException, IOException {
+        S3MultipartUpload upload = s3Service.openUpload(target, s3Service.resolveKey(target, task.table.target.getFileName().toString()));
+        try {
+            CsvWriter csv = new CsvWriter(bandwidth != null ? bandwidth.wrap(upload) : upload);
+            csv.writeResultSet(rs, true);
+            csv.flush();
+            upload.close();
+        } catch (SQLException | IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Concatenate chunk files into the target in block order and remove them
+     */
+    private void stitchChunks(TableExport table) throws IOException {
+        try (FileChannel out = FileChannel.open(table.target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < table.chunks; i++) {
+                Path part = table.chunkPath(i);
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = in.size();
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        }
+        deleteChunks(table);
+    }
+
+    private void deleteChunks(TableExport table) {
+        for (int i = 0; i < table.chunks && table.chunks > 1; i++) {
+            try {
+                Files.deleteIfExists(table.chunkPath(i));
+            } catch (IOException e) {
+                System.err.println("Could not delete chunk of " + table.name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Remove whatever a failed table export left behind
+     */
+    private void deletePartialOutput(TableExport table) {
+        deleteChunks(table);
+        try {
+            Files.deleteIfExists(table.target);
+        } catch (IOException e) {
+            System.err.println("Could not delete partial export of " + table.name + ": " + e.getMessage());
+        }
+    }
+
+    private String databaseKey(PostgresRequest request) {
+        return request.getHost() + ":" + request.getPort() + "/" + request.getDatabase();
+    }
+
+    /**
+     * Snapshot ids cannot be bound as parameters, so only the server's own format is accepted
+     */
+    private String quoteSnapshotId(String snapshotId) throws SQLException {
+        if (!snapshotId.matches("[0-9A-Fa-f-]+")) {
+            throw new SQLException("Unexpected snapshot id: " + snapshotId);
+        }
+        return "'" + snapshotId + "'";
+    }
+}
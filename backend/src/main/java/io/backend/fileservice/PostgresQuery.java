@@ -0,0 +1,201 @@
+package io.backend.fileservice;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds a parameterized SELECT for a single table.
+ * Identifiers are always quoted and every value is bound as a parameter, so
+ * column lists, filters and orderings from a request never reach the SQL text.
+ */
+public class PostgresQuery {
+
+    private static final Set<String> COMPARISON_OPERATORS = Set.of("=", "!=", "<>", "<", "<=", ">", ">=", "LIKE", "ILIKE");
+
+    private final StringBuilder sql = new StringBuilder();
+    private final List<Object> parameters = new ArrayList<>();
+    private boolean hasWhere = false;
+
+    private PostgresQuery(String schema, String table, List<String> columns) throws SQLException {
+        sql.append("SELECT ");
+        if (columns == null || columns.isEmpty()) {
+            sql.append("*");
+        } else {
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(quoteIdentifier(columns.get(i)));
+            }
+        }
+        sql.append(" FROM ").append(quoteIdentifier(schema)).append(".").append(quoteIdentifier(table));
+    }
+
+    /**
+     * Start a query selecting the given columns (all columns when empty) from schema.table
+     */
+    public static PostgresQuery select(String schema, String table, List<String> columns) throws SQLException {
+        return new PostgresQuery(schema, table, columns);
+    }
+
+    /**
+     * Draw rows with TABLESAMPLE; must be called before any filter is added
+     */
+    public PostgresQuery tableSample(String method, double percent) {
+        sql.append(" TABLESAMPLE ").append(method).append(" (?)");
+        parameters.add(percent);
+        return this;
+    }
+
+    public PostgresQuery where(List<PostgresRequest.Filter> filters) throws SQLException {
+        if (filters == null) {
+            return this;
+        }
+        for (PostgresRequest.Filter filter : filters) {
+            where(filter);
+        }
+        return this;
+    }
+
+    public PostgresQuery where(PostgresRequest.Filter filter) throws SQLException {
+        if (filter.getColumn() == null || filter.getOperator() == null) {
+            throw new SQLException("Filter requires a column and an operator");
+        }
+        String operator = filter.getOperator().trim().toUpperCase();
+        String column = quoteIdentifier(filter.getColumn());
+
+        sql.append(hasWhere ? " AND " : " WHERE ");
+        hasWhere = true;
+
+        if (COMPARISON_OPERATORS.contains(operator)) {
+            requireValue(filter);
+            sql.append(column).append(" ").append(operator).append(" ?");
+            parameters.add(filter.getValue().toString());
+        } else if (operator.equals("IS NULL") || operator.equals("IS NOT NULL")) {
+            sql.append(column).append(" ").append(operator);
+        } else if (operator.equals("BETWEEN")) {
+            List<Object> values = filter.getValues();
+            if (values == null || values.size() != 2) {
+                throw new SQLException("BETWEEN filter on " + filter.getColumn() + " requires exactly two values");
+            }
+            sql.append(column).append(" BETWEEN ? AND ?");
+            parameters.add(asText(values.get(0)));
+            parameters.add(asText(values.get(1)));
+        } else if (operator.equals("IN") || operator.equals("NOT IN")) {
+            List<Object> values = filter.getValues();
+            if (values == null || values.isEmpty()) {
+                throw new SQLException(operator + " filter on " + filter.getColumn() + " requires at least one value");
+            }
+            sql.append(column).append(" ").append(operator).append(" (");
+            for (int i = 0; i < values.size(); i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+                parameters.add(asText(values.get(i)));
+            }
+            sql.append(")");
+        } else {
+            throw new SQLException("Unsupported filter operator: " + filter.getOperator());
+        }
+        return this;
+    }
+
+    /**
+     * Restrict the scan to heap blocks [startBlock, endBlock); a negative end leaves the range open
+     */
+    public PostgresQuery whereBlockRange(long startBlock, long endBlock) {
+        sql.append(hasWhere ? " AND " : " WHERE ");
+        hasWhere = true;
+        sql.append("ctid >= ?");
+        parameters.add("(" + startBlock + ",0)");
+        if (endBlock >= 0) {
+            sql.append(" AND ctid < ?");
+            parameters.add("(" + endBlock + ",0)");
+        }
+        return this;
+    }
+
+    public PostgresQuery orderBy(List<PostgresRequest.Order> orderBy) throws SQLException {
+        if (orderBy == null || orderBy.isEmpty()) {
+            return this;
+        }
+        sql.append(" ORDER BY ");
+        for (int i = 0; i < orderBy.size(); i++) {
+            PostgresRequest.Order order = orderBy.get(i);
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(quoteIdentifier(order.getColumn()));
+            if (order.isDescending()) {
+                sql.append(" DESC");
+            }
+        }
+        return this;
+    }
+
+    public PostgresQuery limit(int limit) {
+        sql.append(" LIMIT ?");
+        parameters.add(limit);
+        return this;
+    }
+
+    public String getSql() {
+        return sql.toString();
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Prepare a forward-only, read-only statement with all parameters bound
+     */
+    public PreparedStatement prepare(Connection connection) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(
+            getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            for (int i = 0; i < parameters.size(); i++) {
+                Object value = parameters.get(i);
+                if (value == null) {
+                    stmt.setNull(i + 1, Types.NULL);
+                } else if (value instanceof String) {
+                    // Filter values are sent untyped so the server casts them to the column's type
+                    stmt.setObject(i + 1, value, Types.OTHER);
+                } else {
+                    stmt.setObject(i + 1, value);
+                }
+            }
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+    /**
+     * Quote an identifier so it can be safely embedded in SQL
+     */
+    public static String quoteIdentifier(String identifier) throws SQLException {
+        if (identifier == null || identifier.isEmpty()) {
+            throw new SQLException("Identifier must not be empty");
+        }
+        if (identifier.indexOf('\0') >= 0) {
+            throw new SQLException("Identifier contains a null character");
+        }
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String asText(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static void requireValue(PostgresRequest.Filter filter) throws SQLException {
+        if (filter.getValue() == null) {
+            throw new SQLException("Filter on " + filter.getColumn() + " requires a value; use IS NULL to match nulls");
+        }
+    }
+}
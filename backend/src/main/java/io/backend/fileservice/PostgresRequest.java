@@ -14,4 +14,31 @@ public class PostgresRequest {
     private String table;
     private List<String> tables;
     private String jobId;
+    private String sampleMethod;
+    private Double samplePercent;
+    private List<String> columns;
+    private List<Filter> filters;
+    private List<Order> orderBy;
+    private Integer limit;
+    private S3Request s3Target;
+    private String priority; // "low", "normal" or "high"
+    private Long maxBytesPerSecond;
+
+    /**
+     * A single column predicate, e.g. {"column": "created_at", "operator": ">=", "value": "2024-01-01"}.
+     * BETWEEN and IN take their operands from "values".
+     */
+    @Data
+    public static class Filter {
+        private String column;
+        private String operator;
+        private Object value;
+        private List<Object> values;
+    }
+
+    @Data
+    public static class Order {
+        private String column;
+        private boolean descending;
+    }
 }
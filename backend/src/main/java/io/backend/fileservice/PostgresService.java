@@ -1,13 +1,28 @@
 package io.backend.fileservice;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.sql.*;
+import java.time.Duration;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
 public class PostgresService {
 
+    private final int fetchSize;
+    private final String urlTemplate;
+
+    public PostgresService(@Value("${postgres.fetch-size:1000}") int fetchSize,
+                           @Value("${postgres.url-template:jdbc:postgresql://%s:%d/%s}") String urlTemplate) {
+        this.fetchSize = fetchSize;
+        this.urlTemplate = urlTemplate;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
     /**
      * List all schemas, tables, and views in PostgreSQL
      * Returns a map with:
@@ -39,14 +54,29 @@ public class PostgresService {
 
 
     /**
-     * Create database connection
+     * Create database connection. Within a call on the upstream pool, connecting and
+     * every read time out with the call: the driver ignores interrupts, so this is
+     * what frees the worker and the connection of a call that timed out.
      */
-    private Connection createConnection(PostgresRequest request) throws SQLException {
+    Connection createConnection(PostgresRequest request) throws SQLException {
 
-        String url = String.format("jdbc:postgresql://%s:%d/%s",
-                request.getHost(), request.getPort(), request.getDatabase());
+        String url = String.format(urlTemplate, request.getHost(), request.getPort(), request.getDatabase());
 
-        return DriverManager.getConnection(url, request.getUsername(), request.getPassword());
+        Properties properties = new Properties();
+        if (request.getUsername() != null) {
+            properties.setProperty("user", request.getUsername());
+        }
+        if (request.getPassword() != null) {
+            properties.setProperty("password", request.getPassword());
+        }
+        Duration remaining = UpstreamExecutors.remainingTime();
+        if (remaining != null) {
+            // Whole seconds, and 0 would mean no timeout
+            String seconds = String.valueOf(Math.max(1, (remaining.toMillis() + 999) / 1000));
+            properties.setProperty("connectTimeout", seconds);
+            properties.setProperty("socketTimeout", seconds);
+        }
+        return DriverManager.getConnection(url, properties);
     }
 
 
@@ -175,100 +205,228 @@ public class PostgresService {
      * Get table schema information
      */
     public Map<String, Object> getTableSchema(PostgresRequest request, String tableName) throws SQLException {
+        try (Connection connection = createConnection(request)) {
+            return readTableSchema(connection, schemaOf(request), tableName);
+        }
+    }
+
+    /**
+     * Get a table's schema and sample rows over one connection, as getTableSchema
+     * and getTableSample return them, under "schema" and "sample"
+     */
+    public Map<String, Object> getTablePreview(PostgresRequest request, String tableName, int limit) throws SQLException {
+        try (Connection connection = createConnection(request)) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("schema", readTableSchema(connection, schemaOf(request), tableName));
+            result.put("sample", readTableSample(connection, request, schemaOf(request), tableName, limit));
+            return result;
+        }
+    }
+
+    private Map<String, Object> readTableSchema(Connection connection, String schema, String tableName) throws SQLException {
         Map<String, Object> result = new HashMap<>();
         List<Map<String, String>> columns = new ArrayList<>();
-        
-        try (Connection connection = createConnection(request)) {
-            String schema = request.getSchema();
-            if (schema == null || schema.isEmpty()) {
-                schema = "public"; // Default to public schema
-            }
-            
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT column_name, data_type, is_nullable, column_default, character_maximum_length " +
-                    "FROM information_schema.columns " +
-                    "WHERE table_schema = ? AND table_name = ? " +
-                    "ORDER BY ordinal_position")) {
-                
-                stmt.setString(1, schema);
-                stmt.setString(2, tableName);
-                
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        Map<String, String> column = new HashMap<>();
-                        column.put("name", rs.getString("column_name"));
-                        column.put("type", rs.getString("data_type"));
-                        column.put("nullable", rs.getString("is_nullable"));
-                        column.put("default", rs.getString("column_default"));
-                        column.put("maxLength", rs.getString("character_maximum_length"));
-                        columns.add(column);
-                    }
+
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT column_name, data_type, is_nullable, column_default, character_maximum_length " +
+                "FROM information_schema.columns " +
+                "WHERE table_schema = ? AND table_name = ? " +
+                "ORDER BY ordinal_position")) {
+
+            stmt.setString(1, schema);
+            stmt.setString(2, tableName);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, String> column = new HashMap<>();
+                    column.put("name", rs.getString("column_name"));
+                    column.put("type", rs.getString("data_type"));
+                    column.put("nullable", rs.getString("is_nullable"));
+                    column.put("default", rs.getString("column_default"));
+                    column.put("maxLength", rs.getString("character_maximum_length"));
+                    columns.add(column);
                 }
             }
-            
-            result.put("table", schema + "." + tableName);
-            result.put("columns", columns);
         }
-        
+
+        result.put("table", schema + "." + tableName);
+        result.put("columns", columns);
         return result;
     }
 
+    private static String schemaOf(PostgresRequest request) {
+        String schema = request.getSchema();
+        return schema == null || schema.isEmpty() ? "public" : schema; // Default to public schema
+    }
+
     /**
-     * Get sample data from a table
+     * Receives a sample as it is read: the result set metadata once, then each row in column order
+     */
+    interface SampleConsumer {
+        void columns(ResultSetMetaData meta) throws SQLException;
+
+        void row(Object[] row);
+    }
+
+    /**
+     * Get sample data from a table.
+     * Returns a map with the table name, column names, rows and limit, plus the
+     * sample method and percentage when rows were drawn with TABLESAMPLE.
      */
     public Map<String, Object> getTableSample(PostgresRequest request, String tableName, int limit) throws SQLException {
-        Map<String, Object> result = new HashMap<>();
-        List<Map<String, Object>> rows = new ArrayList<>();
-        List<String> columnNames = new ArrayList<>();
-        
         try (Connection connection = createConnection(request)) {
-            String schema = request.getSchema();
-            if (schema == null || schema.isEmpty()) {
-                schema = "public"; // Default to public schema
+            return readTableSample(connection, request, schemaOf(request), tableName, limit);
+        }
+    }
+
+    private Map<String, Object> readTableSample(Connection connection, PostgresRequest request, String schema,
+                                                String tableName, int limit) throws SQLException {
+        List<String> columnNames = new ArrayList<>();
+        List<Map<String, Object>> rows = new ArrayList<>();
+
+        Double samplePercent = streamTableSample(connection, request, schema, tableName, limit, new SampleConsumer() {
+            @Override
+            public void columns(ResultSetMetaData meta) throws SQLException {
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    columnNames.add(meta.getColumnName(i));
+                }
             }
-            
-            // Get column names first
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT column_name FROM information_schema.columns " +
-                    "WHERE table_schema = ? AND table_name = ? " +
-                    "ORDER BY ordinal_position")) {
-                
-                stmt.setString(1, schema);
-                stmt.setString(2, tableName);
-                
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        columnNames.add(rs.getString("column_name"));
-                    }
+
+            @Override
+            public void row(Object[] values) {
+                Map<String, Object> row = new HashMap<>();
+                for (int i = 0; i < values.length; i++) {
+                    row.put(columnNames.get(i), values[i]);
                 }
+                rows.add(row);
             }
-            
-            // Get sample data
-            try (PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT * FROM " + schema + "." + tableName + " LIMIT ?")) {
-                
-                stmt.setInt(1, limit);
-                
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        Map<String, Object> row = new HashMap<>();
-                        for (int i = 0; i < columnNames.size(); i++) {
-                            String columnName = columnNames.get(i);
-                            Object value = rs.getObject(i + 1);
-                            row.put(columnName, value);
-                        }
-                        rows.add(row);
+        });
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("table", schema + "." + tableName);
+        result.put("columns", columnNames);
+        result.put("rows", rows);
+        result.put("limit", limit);
+        if (samplePercent != null) {
+            result.put("sampleMethod", getSampleMethod(request));
+            result.put("samplePercent", samplePercent);
+        }
+        return result;
+    }
+
+    /**
+     * Stream sample rows of a table to the consumer.
+     * Only the requested columns are read and any filters and ordering on the
+     * request are applied by the database.
+     * Rows are read through a server-side cursor in batches of the configured
+     * fetch size, so large samples are not buffered by the driver. When the
+     * request sets a sample method (SYSTEM or BERNOULLI) rows are drawn with
+     * TABLESAMPLE instead of taking the first physical rows.
+     *
+     * @return the percentage sampled with TABLESAMPLE, null when the first rows were taken
+     */
+    Double streamTableSample(PostgresRequest request, String schema, String tableName, int limit,
+                             SampleConsumer consumer) throws SQLException {
+        try (Connection connection = createConnection(request)) {
+            return streamTableSample(connection, request, schema, tableName, limit, consumer);
+        }
+    }
+
+    private Double streamTableSample(Connection connection, PostgresRequest request, String schema, String tableName,
+                                     int limit, SampleConsumer consumer) throws SQLException {
+        // The driver only uses a cursor outside autocommit mode
+        connection.setAutoCommit(false);
+        connection.setReadOnly(true);
+
+        String sampleMethod = getSampleMethod(request);
+        Double samplePercent = null;
+        if (sampleMethod != null) {
+            samplePercent = getSamplePercent(connection, request, schema, tableName, limit);
+        }
+        PostgresQuery query = buildTableQuery(request, schema, tableName, sampleMethod, samplePercent).limit(limit);
+
+        try (PreparedStatement stmt = query.prepare(connection)) {
+            stmt.setFetchSize(Math.max(1, Math.min(fetchSize, limit)));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int columnCount = meta.getColumnCount();
+                consumer.columns(meta);
+                while (rs.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = rs.getObject(i + 1);
                     }
+                    consumer.row(row);
                 }
             }
+        } finally {
+            connection.rollback(); // Read-only, nothing to keep
+        }
+        return samplePercent;
+    }
+
+    /**
+     * Build a query for the table with the column projection, filters and
+     * ordering carried by the request pushed down to the database
+     */
+    private PostgresQuery buildTableQuery(PostgresRequest request, String schema, String tableName,
+                                          String sampleMethod, Double samplePercent) throws SQLException {
+        PostgresQuery query = PostgresQuery.select(schema, tableName, request.getColumns());
+        if (sampleMethod != null && samplePercent != null) {
+            query.tableSample(sampleMethod, samplePercent);
+        }
+        return query.where(request.getFilters()).orderBy(request.getOrderBy());
+    }
+
+    /**
+     * Validated TABLESAMPLE method from the request, null for first-rows sampling
+     */
+    private String getSampleMethod(PostgresRequest request) throws SQLException {
+        String method = request.getSampleMethod();
+        if (method == null || method.isEmpty()) {
+            return null;
+        }
+        method = method.trim().toUpperCase();
+        if (!method.equals("SYSTEM") && !method.equals("BERNOULLI")) {
+            throw new SQLException("Unsupported sample method: " + request.getSampleMethod());
+        }
+        return method;
+    }
+
+    /**
+     * Percentage of the table to sample so that roughly twice the requested rows
+     * are drawn. Uses the planner's row estimate from pg_class; returns null when
+     * the relation cannot be sampled (views) so the caller falls back to LIMIT.
+     */
+    private Double getSamplePercent(Connection connection, PostgresRequest request,
+                                    String schema, String tableName, int limit) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT c.reltuples, c.relkind FROM pg_class c " +
+                "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                "WHERE n.nspname = ? AND c.relname = ?")) {
+            
+            stmt.setString(1, schema);
+            stmt.setString(2, tableName);
             
-            result.put("table", schema + "." + tableName);
-            result.put("columns", columnNames);
-            result.put("rows", rows);
-            result.put("limit", limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                String relkind = rs.getString("relkind");
+                if (!"r".equals(relkind) && !"m".equals(relkind) && !"p".equals(relkind)) {
+                    return null;
+                }
+                if (request.getSamplePercent() != null) {
+                    return Math.max(0.0, Math.min(100.0, request.getSamplePercent()));
+                }
+                double estimatedRows = rs.getDouble("reltuples");
+                if (estimatedRows <= 0) {
+                    return 100.0; // Never analyzed, no estimate available
+                }
+                return Math.min(100.0, limit * 2 * 100.0 / estimatedRows);
+            }
         }
-        
-        return result;
     }
 
 
@@ -0,0 +1,208 @@
+package io.backend.fileservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Sits in front of the S3 browse calls used by the file tree. Identical
+ * requests that arrive while one is already running wait for its result
+ * instead of calling S3 again, and results are kept for a few seconds.
+ * Entries are scoped by access key and a hash of the secret, so a result is
+ * only served to a request that could have fetched it itself, and the cache
+ * is bounded by an estimate of the memory its results take. Every listing
+ * fetched from S3 also updates the search index of its bucket.
+ */
+@Service
+public class S3BrowseCache {
+
+    private final S3Service s3Service;
+    private final FileSearchIndex searchIndex;
+    private final long ttlMillis;
+    private final long maxBytes;
+    private final Map<String, CachedResult> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Map<String, Object>>> inFlight = new ConcurrentHashMap<>();
+    private long cachedBytes = 0;
+
+    private static class CachedResult {
+        final Map<String, Object> result;
+        final long expiresAt;
+        final long bytes;
+
+        CachedResult(Map<String, Object> result, long expiresAt, long bytes) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+    }
+
+    public S3BrowseCache(S3Service s3Service, FileSearchIndex searchIndex,
+                         @Value("${s3.browse-cache.ttl-seconds:10}") long ttlSeconds,
+                         @Value("${s3.browse-cache.max-bytes:33554432}") long maxBytes) {
+        this.s3Service = s3Service;
+        this.searchIndex = searchIndex;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Same result as {@link S3Service#listS3Contents}, shared between concurrent and recent callers
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> listS3Contents(S3Request s3Request) {
+        String key = "list|" + scope(s3Request) + "|" + s3Request.getPath();
+        return get(key, () -> {
+            Map<String, Object> result = s3Service.listS3Contents(s3Request);
+            if (result.get("files") instanceof List<?> files) {
+                Object folders = result.get("folders");
+                searchIndex.replace(FileSearchIndex.s3Namespace(s3Request), pathOf(s3Request), (List<String>) files,
+                    folders instanceof List<?> ? (List<String>) folders : List.of());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Same result as {@link S3Service#getAllFilesInFolder}, not cached but recorded in the search index
+     */
+    public List<String> getAllFilesInFolder(S3Request s3Request) {
+        List<String> files = s3Service.getAllFilesInFolder(s3Request);
+        searchIndex.replace(FileSearchIndex.s3Namespace(s3Request), pathOf(s3Request), files, null);
+        return files;
+    }
+
+    /**
+     * Same result as {@link S3Service#getS3FileMetadata}, shared between concurrent and recent callers
+     */
+    public Map<String, Object> getS3FileMetadata(S3Request s3Request) {
+        List<String> files = s3Request.getFiles() != null ? new ArrayList<>(s3Request.getFiles()) : new ArrayList<>();
+        Collections.sort(files);
+        String key = "metadata|" + scope(s3Request) + "|" + String.join("\n", files);
+        return get(key, () -> s3Service.getS3FileMetadata(s3Request));
+    }
+
+    /**
+     * Drop all cached results, e.g. after writing to a bucket
+     */
+    public synchronized void clear() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    private Map<String, Object> get(String key, Supplier<Map<String, Object>> call) {
+        synchronized (this) {
+            CachedResult cached = cache.get(key);
+            if (cached != null) {
+                if (cached.expiresAt > System.currentTimeMillis()) {
+                    return cached.result;
+                }
+                remove(key);
+            }
+        }
+
+        CompletableFuture<Map<String, Object>> flight = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            Map<String, Object> result = call.get();
+            store(key, result);
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    private Map<String, Object> await(CompletableFuture<Map<String, Object>> existing) {
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for S3", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    private synchronized void store(String key, Map<String, Object> result) {
+        if (ttlMillis <= 0 || result.containsKey("error")) {
+            return;
+        }
+        long bytes = estimateBytes(key) + estimateBytes(result);
+        if (bytes > maxBytes) {
+            return; // Would evict everything else
+        }
+        remove(key);
+        cache.put(key, new CachedResult(result, System.currentTimeMillis() + ttlMillis, bytes));
+        cachedBytes += bytes;
+
+        // Least recently used first
+        Iterator<CachedResult> iterator = cache.values().iterator();
+        while (cachedBytes > maxBytes && iterator.hasNext()) {
+            cachedBytes -= iterator.next().bytes;
+            iterator.remove();
+        }
+    }
+
+    private void remove(String key) {
+        CachedResult removed = cache.remove(key);
+        if (removed != null) {
+            cachedBytes -= removed.bytes;
+        }
+    }
+
+    private static String pathOf(S3Request s3Request) {
+        return s3Request.getPath() != null ? s3Request.getPath() : "";
+    }
+
+    /**
+     * Rough heap size of a result made of maps, lists, strings and boxed values
+     */
+    static long estimateBytes(Object value) {
+        if (value instanceof String string) {
+            return 40 + 2L * string.length();
+        } else if (value instanceof Map<?, ?> map) {
+            long bytes = 64;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                bytes += 32 + estimateBytes(entry.getKey()) + estimateBytes(entry.getValue());
+            }
+            return bytes;
+        } else if (value instanceof Collection<?> collection) {
+            long bytes = 40;
+            for (Object element : collection) {
+                bytes += 8 + estimateBytes(element);
+            }
+            return bytes;
+        }
+        return 24;
+    }
+
+    /**
+     * Credentials, region and bucket a result belongs to; the secret is only kept as a hash
+     */
+    static String scope(S3Request s3Request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String secret = s3Request.getSecretKey() != null ? s3Request.getSecretKey() : "";
+            String secretHash = HexFormat.of().formatHex(digest.digest(secret.getBytes(StandardCharsets.UTF_8)));
+            return s3Request.getAccessKey() + "|" + secretHash + "|" + s3Request.getRegion() + "|" + s3Request.getBucket();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package io.backend.fileservice;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Imports S3 objects into the storage directory in parallel.
+ * Objects are downloaded by a shared pool, with each job's concurrent
+ * requests governed by an adaptive {@link S3TransferLimiter}: it grows while
+ * S3 keeps up and backs off on throttling, and retries failed downloads with
+ * jittered backoff before a file is given up on.
+ * Jobs are recorded in the {@link JobJournal} as they progress, and jobs
+ * interrupted by a restart resume on startup, skipping finished objects;
+ * paused jobs stay paused until they are resumed.
+ * The workers are shared between jobs by a {@link FairScheduler}, weighted by
+ * the request's priority, and a job is given no more workers than its limiter
+ * currently allows. A job's download rate can be capped.
+ */
+@Service
+public class S3ImportService {
+
+    static final String JOB_TYPE = "s3-import";
+
+    private final S3Service s3Service;
+    private final JobJournal jobJournal;
+    private final BackgroundJobs backgroundJobs;
+    private final FairScheduler workers;
+    private final int maxConcurrency;
+    private final Set<String> journaledJobs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The running downloads of one import, so a stop can interrupt them and
+     * wait until they have let go of their files
+     */
+    private static class Downloads {
+        private final FairScheduler.Share share;
+        private final List<Future<?>> futures = new ArrayList<>();
+        private final Set<Thread> threads = new HashSet<>();
+        private boolean stopped = false;
+
+        Downloads(FairScheduler.Share share) {
+            this.share = share;
+        }
+
+        void submit(Runnable download) {
+            futures.add(share.submit(() -> {
+                synchronized (this) {
+                    if (stopped) {
+                        return;
+                    }
+                    threads.add(Thread.currentThread());
+                }
+                try {
+                    download.run();
+                } finally {
+                    synchronized (this) {
+                        threads.remove(Thread.currentThread());
+                        notifyAll();
+                    }
+                }
+            }));
+        }
+
+        void awaitAll() throws InterruptedException, ExecutionException {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        void stop() {
+            boolean interrupted = Thread.interrupted();
+            synchronized (this) {
+                stopped = true;
+                threads.forEach(Thread::interrupt);
+                while (!threads.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            futures.forEach(future -> future.cancel(false));
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public S3ImportService(S3Service s3Service, JobJournal jobJournal, BackgroundJobs backgroundJobs,
+                           @Value("${s3.import.max-concurrency:16}") int maxConcurrency,
+                           @Value("${jobs.scheduler.reserved-slots:2}") int reservedSlots,
+                           @Value("${jobs.quota.per-user:0}") int maxPerUser,
+                           @Value("${jobs.quota.per-source:0}") int maxPerSource) {
+        this.s3Service = s3Service;
+        this.jobJournal = jobJournal;
+        this.backgroundJobs = backgroundJobs;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.workers = new FairScheduler("s3-import", this.maxConcurrency, reservedSlots, maxPerUser, maxPerSource);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Journal the import and run it in the background. Without a journal the import
+     * still runs, it just cannot resume after a restart.
+     */
+    public void start(String jobId, S3Request s3Request, FileController.ImportProgress progress) {
+        if (backgroundJobs.isRunning(jobId)) {
+            FileController.alreadyRunning(jobId, progress); // Its journal must not be replaced
+            return;
+        }
+        JobJournal.Job job = null;
+        try {
+            job = jobJournal.create(jobId, JOB_TYPE, s3Request);
+        } catch (IOException e) {
+            System.err.println("Could not journal S3 import " + jobId + ": " + e.getMessage());
+        }
+        if (!run(jobId, s3Request, job, progress)) {
+            FileController.alreadyRunning(jobId, progress);
+        }
+    }
+
+    /**
+     * Pick up imports left unfinished by the previous run under their old job ids.
+     * Paused imports are only listed, to be resumed or cancelled by the user.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedJobs() {
+        for (JobJournal.Job job : jobJournal.loadUnfinished(JOB_TYPE)) {
+            S3Request s3Request = job.getDefinition(S3Request.class);
+            FileController.ImportProgress progress = new FileController.ImportProgress();
+            progress.total = s3Request.getFiles() != null ? s3Request.getFiles().size() : 0;
+            progress.processed = job.getDoneCount();
+            FileController.progressMap.put(job.getId(), progress);
+            if (job.isPaused()) {
+                progress.status = BackgroundJobs.PAUSED;
+                progress.message = "Job " + BackgroundJobs.PAUSED;
+                continue;
+            }
+            progress.processed = 0; // Finished objects are counted again as they are skipped
+            progress.message = "Resuming S3 import...";
+            System.err.println("Resuming S3 import " + job.getId() + " with " + job.getDoneCount() + " of "
+                + progress.total + " files done");
+            run(job.getId(), s3Request, job, progress);
+        }
+    }
+
+    /**
+     * Stop a running, journaled import, keeping its journal and checkpoints for {@link #resume}
+     */
+    public boolean pause(String jobId) {
+        return journaledJobs.contains(jobId) && backgroundJobs.stop(jobId, BackgroundJobs.PAUSED);
+    }
+
+    /**
+     * Continue a paused or interrupted import from its journal, skipping finished objects.
+     * Journals are only loaded here while their job is not running, hence the lock.
+     */
+    public synchronized boolean resume(String jobId, FileController.ImportProgress progress) {
+        if (backgroundJobs.isRunning(jobId)) {
+            return false;
+        }
+        JobJournal.Job job = jobJournal.load(jobId, JOB_TYPE);
+        if (job == null) {
+            return false;
+        }
+        S3Request s3Request = job.getDefinition(S3Request.class);
+        // Held until the counters are reset, so the resumed job only counts after that
+        synchronized (progress) {
+            if (!run(jobId, s3Request, job, progress)) {
+                job.close();
+                return false;
+            }
+            progress.total = s3Request.getFiles() != null ? s3Request.getFiles().size() : 0;
+            progress.processed = 0; // Finished objects are counted again as they are skipped
+            progress.status = "in_progress";
+            progress.message = "Resuming S3 import...";
+        }
+        return true;
+    }
+
+    /**
+     * Drop a paused import: its journal and the partial files of its checkpointed objects
+     */
+    public synchronized boolean discard(String jobId) {
+        if (backgroundJobs.isRunning(jobId)) {
+            return false;
+        }
+        JobJournal.Job job = jobJournal.load(jobId, JOB_TYPE);
+        if (job == null) {
+            return false;
+        }
+        job.finish();
+        return true;
+    }
+
+    /**
+     * Submit the import; false when a job with this id is already queued or running
+     */
+    private boolean run(String jobId, S3Request s3Request, JobJournal.Job job, FileController.ImportProgress progress) {
+        if (job != null) {
+            journaledJobs.add(jobId);
+        }
+        return backgroundJobs.submit(jobId, progress, () -> {
+            try {
+                if (job != null) {
+                    markPaused(job, false);
+                }
+                importFiles(s3Request, job, progress);
+                if (job != null) {
+                    job.finish();
+                }
+            } catch (Exception e) {
+                if (job != null) {
+                    String stopReason = backgroundJobs.getStopReason(jobId);
+                    if (BackgroundJobs.CANCELLED.equals(stopReason)) {
+                        job.finish();
+                    } else {
+                        // Paused or shut down: the journal stays for a resume, on startup only if not paused
+                        markPaused(job, BackgroundJobs.PAUSED.equals(stopReason));
+                        job.close();
+                    }
+                }
+                progress.status = "error";
+                progress.message = "Import failed: " + e.getMessage();
+            } finally {
+                journaledJobs.remove(jobId);
+            }
+        }) != null;
+    }
+
+    private static void markPaused(JobJournal.Job job, boolean paused) {
+        try {
+            job.setPaused(paused);
+        } catch (IOException e) {
+            System.err.println("Could not record pause of S3 import " + job.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Import the request's keys, each under its file name, extracting archives when requested.
+     * Blocks until every key has been imported or has failed.
+     */
+    public void importFiles(S3Request s3Request, FileController.ImportProgress progress) {
+        importFiles(s3Request, null, progress);
+    }
+
+    /**
+     * Same as above, recording finished keys in the job's journal and skipping keys it already has
+     */
+    public void importFiles(S3Request s3Request, JobJournal.Job job, FileController.ImportProgress progress) {
+        List<String> files = s3Request.getFiles();
+        Queue<String> processedFiles = new ConcurrentLinkedQueue<>();
+        Queue<String> failedFiles = new ConcurrentLinkedQueue<>();
+        // Jobs share the workers by priority, within the quotas of their credentials and bucket
+        FairScheduler.Share share = workers.register(FairScheduler.weightOf(s3Request.getPriority()),
+            s3Request.getAccessKey(), "s3://" + s3Request.getRegion() + "/" + s3Request.getBucket());
+        Downloads downloads = new Downloads(share);
+        TokenBucket bandwidth = TokenBucket.of(s3Request.getMaxBytesPerSecond());
+
+        S3TransferLimiter limiter = s3Service.newTransferLimiter(maxConcurrency, progress);
+        // Each download holds one request at a time, so workers beyond the limit would only wait for it
+        limiter.onLimitChange(share::setMaxRunning);
+        try (S3Client s3 = s3Service.createS3Client(s3Request)) {
+            for (int i = 0; i < files.size(); i++) {
+                String fileKey = files.get(i);
+                String fileName = fileName(fileKey, i);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                if (job != null && job.isDone(fileKey)) {
+                    processedFiles.add(fileKey);
+                    synchronized (progress) {
+                        progress.processed++;
+                    }
+                    continue;
+                }
+                downloads.submit(() -> {
+                    try {
+                        progress.message = "Processing " + fileKey + "...";
+                        if (s3Request.isExtractArchives() && ArchiveExtractService.isArchive(fileName)) {
+                            // Entries are counted in the progress as they are extracted
+                            Map<String, Object> extracted = limiter.execute(s3Service.newRetryBudget(),
+                                result -> (Long) result.get("bytes"),
+                                () -> s3Service.extractObject(s3, s3Request.getBucket(), fileKey, fileName, progress, bandwidth));
+                            @SuppressWarnings("unchecked")
+                            List<String> failedEntries = (List<String>) extracted.get("failedFiles");
+                            failedFiles.addAll(failedEntries);
+                        } else {
+                            // Stream the object into storage, detecting its format and schema on the way
+                            Map<String, Object> metadata = limiter.execute(s3Service.newRetryBudget(),
+                                result -> (Long) result.get("size"),
+                                () -> s3Service.importObject(s3, s3Request.getBucket(), fileKey, fileName, job, bandwidth));
+                            addBytes(progress, (Long) metadata.get("size"));
+                        }
+                        if (job != null) {
+                            job.done(fileKey);
+                        }
+                        processedFiles.add(fileKey);
+                    } catch (Exception e) {
+                        System.err.println("Error downloading " + fileKey + ": " + e.getMessage());
+                        failedFiles.add(fileKey + " (Error: " + e.getMessage() + ")");
+                    }
+                    synchronized (progress) {
+                        progress.processed++;
+                    }
+                });
+            }
+
+            downloads.awaitAll();
+        } catch (InterruptedException e) {
+            // The client is closed by now, which drops in-flight connections; wait for the downloads to let go
+            Thread.currentThread().interrupt();
+            downloads.stop();
+            throw new RuntimeException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            System.err.println("Unexpected S3 import failure: " + e.getCause());
+        } finally {
+            share.close();
+        }
+        if (workers.isShutdown()) {
+            // Downloads failed because the application is stopping, not because of S3
+            throw new IllegalStateException("Import stopped by shutdown");
+        }
+
+        progress.message = "Import completed. Processed: " + processedFiles.size() + ", Failed: " + failedFiles.size();
+        progress.status = "done";
+    }
+
+    /**
+     * Objects are stored flat, under the last segment of their key
+     */
+    private static String fileName(String fileKey, int index) {
+        String fileName = fileKey.substring(fileKey.lastIndexOf('/') + 1);
+        if (fileName.isEmpty()) {
+            fileName = fileKey.substring(fileKey.lastIndexOf('\\') + 1);
+        }
+        if (fileName.isEmpty()) {
+            fileName = "s3_file_" + index + ".txt";
+        }
+        return fileName;
+    }
+
+    private void addBytes(FileController.ImportProgress progress, long bytes) {
+        synchronized (progress) {
+            progress.bytesProcessed += bytes;
+        }
+    }
+}
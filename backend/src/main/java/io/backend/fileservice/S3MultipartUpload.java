@@ -0,0 +1,262 @@
+package io.backend.fileservice;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A channel that streams its bytes into an S3 object.
+ * Data is collected into part-sized buffers that are uploaded concurrently as
+ * they fill. At most maxInFlight buffers exist per upload, so writers block
+ * once that many parts are waiting on S3 and memory stays bounded. Objects
+ * smaller than one part are sent with a single PUT. Since the final size is
+ * not known up front, parts double in size every {@value #PARTS_PER_SIZE} parts
+ * so that large streams fit in S3's 10,000 parts; a stream that still needs
+ * more fails as soon as it does. {@link #close()} completes the upload;
+ * {@link #abort()} discards it.
+ */
+public class S3MultipartUpload implements WritableByteChannel {
+
+    static final int PARTS_PER_SIZE = 1000;
+    private static final int MAX_PART_SIZE = 1 << 30; // Buffered in one array, so well below S3's 5 GiB
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+    private final BlockingQueue<byte[]> freeBuffers;
+    private final Map<Integer, String> completedParts = new ConcurrentSkipListMap<>();
+    private final List<Future<?>> pendingParts = new ArrayList<>();
+
+    private int allocatedBuffers = 0;
+    private byte[] current;
+    private int currentLength = 0;
+    private int nextPartNumber = 1;
+    private String uploadId;
+    private long bytesWritten = 0;
+    private volatile Throwable failure;
+    private boolean open = true;
+
+    S3MultipartUpload(S3Client s3, String bucket, String key, int partSize, int maxInFlight, ExecutorService executor) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.executor = executor;
+        this.freeBuffers = new ArrayBlockingQueue<>(this.maxInFlight);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        checkFailure();
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (current == null) {
+                if (nextPartNumber > S3Service.MAX_PARTS) {
+                    throw new IOException("Upload of " + key + " exceeds the " + S3Service.MAX_PARTS
+                        + " parts S3 allows after " + bytesWritten + " bytes");
+                }
+                current = takeBuffer(partSizeFor(nextPartNumber));
+                currentLength = 0;
+            }
+            int length = Math.min(src.remaining(), current.length - currentLength);
+            src.get(current, currentLength, length);
+            currentLength += length;
+            bytesWritten += length;
+            if (currentLength == current.length) {
+                submitCurrentPart();
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Upload whatever is buffered and complete the object
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            if (uploadId == null) {
+                // Never filled a part, a single PUT is cheaper than a multipart upload
+                byte[] data = current != null ? current : new byte[0];
+                int length = currentLength;
+                s3.putObject(builder -> builder.bucket(bucket).key(key).contentLength((long) length),
+                    RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length),
+                        length, "application/octet-stream"));
+                return;
+            }
+            if (currentLength > 0) {
+                submitCurrentPart();
+            }
+            awaitParts();
+            checkFailure();
+
+            List<CompletedPart> parts = new ArrayList<>();
+            for (Map.Entry<Integer, String> part : completedParts.entrySet()) {
+                parts.add(CompletedPart.builder().partNumber(part.getKey()).eTag(part.getValue()).build());
+            }
+            s3.completeMultipartUpload(builder -> builder
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()));
+        } catch (IOException | RuntimeException e) {
+            abortQuietly();
+            throw e instanceof IOException ? (IOException) e : new IOException("Upload of " + key + " failed: " + e.getMessage(), e);
+        } finally {
+            s3.close();
+        }
+    }
+
+    /**
+     * Discard the upload and any parts already stored
+     */
+    public void abort() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        for (Future<?> part : pendingParts) {
+            part.cancel(true);
+        }
+        abortQuietly();
+        s3.close();
+    }
+
+    private void abortQuietly() {
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            s3.abortMultipartUpload(builder -> builder.bucket(bucket).key(key).uploadId(uploadId));
+        } catch (RuntimeException e) {
+            System.err.println("Could not abort multipart upload of " + key + ": " + e.getMessage());
+        }
+    }
+
+    private void submitCurrentPart() throws IOException {
+        if (uploadId == null) {
+            CreateMultipartUploadResponse response = s3.createMultipartUpload(builder -> builder.bucket(bucket).key(key));
+            uploadId = response.uploadId();
+        }
+        byte[] data = current;
+        int length = currentLength;
+        int partNumber = nextPartNumber++;
+        current = null;
+        currentLength = 0;
+
+        pendingParts.add(executor.submit(() -> {
+            try {
+                UploadPartResponse response = s3.uploadPart(builder -> builder
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) length),
+                    RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length),
+                        length, "application/octet-stream"));
+                completedParts.put(partNumber, response.eTag());
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                freeBuffers.offer(data);
+            }
+        }));
+        pendingParts.removeIf(Future::isDone);
+        checkFailure();
+    }
+
+    /**
+     * Size of the given part: the configured size, doubled for every {@value #PARTS_PER_SIZE} parts before it
+     */
+    private int partSizeFor(int partNumber) {
+        long size = (long) partSize << Math.min(30, (partNumber - 1) / PARTS_PER_SIZE);
+        return (int) Math.min(size, Math.max(partSize, MAX_PART_SIZE));
+    }
+
+    /**
+     * Reuse a returned buffer, allocate while under the in-flight limit, otherwise wait for a part to finish
+     */
+    private byte[] takeBuffer(int size) throws IOException {
+        byte[] buffer;
+        while ((buffer = freeBuffers.poll()) != null) {
+            if (buffer.length == size) {
+                return buffer;
+            }
+            allocatedBuffers--; // Parts have grown, the smaller buffer is dropped
+        }
+        if (allocatedBuffers < maxInFlight) {
+            allocatedBuffers++;
+            return new byte[size];
+        }
+        try {
+            buffer = freeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for upload of " + key, e);
+        }
+        checkFailure();
+        return buffer.length == size ? buffer : new byte[size];
+    }
+
+    private void awaitParts() throws IOException {
+        for (Future<?> part : pendingParts) {
+            try {
+                part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for upload of " + key, e);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        pendingParts.clear();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) {
+            throw new IOException("Upload of part of " + key + " failed: " + t.getMessage(), t);
+        }
+    }
+}
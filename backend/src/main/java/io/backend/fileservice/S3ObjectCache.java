@@ -0,0 +1,261 @@
+package io.backend.fileservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * Read-through disk cache of S3 objects keyed by bucket, key and ETag.
+ * Every lookup validates the entry with a HEAD request, so a changed object
+ * is fetched again under its new ETag. Concurrent requests for the same
+ * object share one download. Entries are evicted least recently used first
+ * once the cache exceeds its byte capacity; entries in use are never evicted.
+ * Objects above a size threshold bypass the cache: a one-off import of a large
+ * object would otherwise be written to disk twice and push out the rest.
+ */
+@Component
+public class S3ObjectCache {
+
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final long maxObjectBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private long totalBytes = 0;
+
+    private static class Entry {
+        final String id;
+        final Path path;
+        final long size;
+        int pins = 0;
+        boolean invalid = false;
+
+        Entry(String id, Path path, long size) {
+            this.id = id;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A cached file held open against eviction until closed
+     */
+    public class CachedObject implements AutoCloseable {
+        private final Entry entry;
+        private final HeadObjectResponse head;
+
+        private CachedObject(Entry entry, HeadObjectResponse head) {
+            this.entry = entry;
+            this.head = head;
+        }
+
+        public Path getPath() {
+            return entry.path;
+        }
+
+        public long getSize() {
+            return entry.size;
+        }
+
+        public String getETag() {
+            return head.eTag();
+        }
+
+        /**
+         * Checksums to verify the cached bytes against what S3 reports for the object
+         */
+        public TransferChecksums newChecksums() {
+            return new TransferChecksums(head.eTag(),
+                TransferChecksums.isMd5ETag(head.eTag(), head.serverSideEncryptionAsString(), head.sseCustomerAlgorithm()),
+                head.checksumCRC32C(), head.checksumSHA256());
+        }
+
+        /**
+         * Drop the entry once it is no longer in use, e.g. after its bytes failed verification
+         */
+        public void invalidate() {
+            synchronized (S3ObjectCache.this) {
+                entry.invalid = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            unpin(entry);
+        }
+    }
+
+    public S3ObjectCache(@Value("${s3.cache.dir:s3-cache}") String cacheDir,
+                         @Value("${s3.cache.max-bytes:10737418240}") long maxBytes,
+                         @Value("${s3.cache.max-object-bytes:268435456}") long maxObjectBytes) throws IOException {
+        this.cacheDir = Paths.get(cacheDir).toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.maxObjectBytes = Math.min(maxBytes, maxObjectBytes);
+        if (isEnabled()) {
+            Files.createDirectories(this.cacheDir);
+            loadExistingEntries();
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Get a validated local copy of the object, downloading it at most once for concurrent callers.
+     * Returns null when the object is larger than the caching threshold; the caller should then download directly.
+     */
+    public CachedObject open(S3Client s3, String bucket, String key) throws IOException {
+        HeadObjectResponse head = s3.headObject(builder -> builder.bucket(bucket).key(key).checksumMode(ChecksumMode.ENABLED));
+        if (head.contentLength() > maxObjectBytes) {
+            return null;
+        }
+        String eTag = head.eTag();
+        String id = entryId(bucket, key, eTag);
+
+        while (true) {
+            synchronized (this) {
+                Entry entry = entries.get(id);
+                if (entry != null && !entry.invalid && Files.exists(entry.path)) {
+                    entry.pins++;
+                    return new CachedObject(entry, head);
+                }
+            }
+
+            CompletableFuture<Entry> fill = new CompletableFuture<>();
+            CompletableFuture<Entry> existing = inFlight.putIfAbsent(id, fill);
+            if (existing == null) {
+                try {
+                    // Comes back pinned for this caller
+                    Entry entry = download(s3, bucket, key, eTag, id);
+                    fill.complete(entry);
+                    return new CachedObject(entry, head);
+                } catch (IOException | RuntimeException e) {
+                    fill.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    inFlight.remove(id);
+                }
+            }
+
+            try {
+                existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + key, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+            }
+            // Filled by another caller; pick it up from the index on the next pass (evicted in between is refilled)
+        }
+    }
+
+    private Entry download(S3Client s3, String bucket, String key, String eTag, String id) throws IOException {
+        Path target = cacheDir.resolve(id);
+        Path temp = cacheDir.resolve(id + "." + UUID.randomUUID() + ".tmp");
+        try {
+            // If-Match makes sure the bytes belong to the ETag the entry is filed under; with checksum
+            // mode on, the SDK validates the object's own checksum while writing the file
+            s3.getObject(builder -> builder.bucket(bucket).key(key).ifMatch(eTag).checksumMode(ChecksumMode.ENABLED), temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Entry entry = new Entry(id, target, Files.size(target));
+        entry.pins = 1;
+        synchronized (this) {
+            Entry previous = entries.put(id, entry);
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+            totalBytes += entry.size;
+            evict();
+        }
+        return entry;
+    }
+
+    private synchronized void unpin(Entry entry) {
+        entry.pins--;
+        // An invalidated entry may already have been replaced by a fresh download of the same id
+        if (entry.invalid && entry.pins <= 0 && entries.get(entry.id) == entry) {
+            entries.remove(entry.id);
+            totalBytes -= entry.size;
+            try {
+                Files.deleteIfExists(entry.path);
+            } catch (IOException e) {
+                System.err.println("Could not delete cached object " + entry.id + ": " + e.getMessage());
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Drop least recently used entries until the cache fits, skipping entries in use
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.pins > 0) {
+                continue;
+            }
+            iterator.remove();
+            totalBytes -= entry.size;
+            try {
+                Files.deleteIfExists(entry.path);
+            } catch (IOException e) {
+                System.err.println("Could not delete cached object " + entry.id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index from files left by a previous run, oldest first so they are evicted first
+     */
+    private void loadExistingEntries() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            files = new ArrayList<>(stream.filter(Files::isRegularFile).toList());
+        }
+        files.sort(Comparator.comparingLong(path -> path.toFile().lastModified()));
+        synchronized (this) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); // Interrupted download
+                    continue;
+                }
+                long size = Files.size(file);
+                entries.put(name, new Entry(name, file, size));
+                totalBytes += size;
+            }
+            evict();
+        }
+    }
+
+    private static String entryId(String bucket, String key, String eTag) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((bucket + "\n" + key + "\n" + eTag).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -12,4 +12,7 @@ public class S3Request {
     private List<String> files;
     private String region;
     private String jobId;
+    private boolean extractArchives;
+    private String priority; // "low", "normal" or "high"
+    private Long maxBytesPerSecond;
 } 
\ No newline at end of file
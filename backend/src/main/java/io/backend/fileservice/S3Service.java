@@ -1,23 +1,108 @@
 package io.backend.fileservice;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 import software.amazon.awssdk.services.s3.model.CommonPrefix;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Service
 public class S3Service {
 
+    private final int partSize;
+    private final int maxInFlightParts;
+    private final ExecutorService uploadExecutor;
+    private final Duration presignTtl;
+    private final S3ObjectCache objectCache;
+    private final FileService fileService;
+    private final FileMetadataStore metadataStore;
+    private final ArchiveExtractService archiveExtractService;
+    private final int initialConcurrency;
+    private final int retriesPerFile;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+    private final URI endpoint;
+    private final boolean pathStyleAccess;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_PARTS = 10_000; // Per multipart upload, fixed by S3
+
+    public S3Service(S3ObjectCache objectCache, FileService fileService, FileMetadataStore metadataStore,
+                     ArchiveExtractService archiveExtractService,
+                     @Value("${s3.upload.part-size-mb:8}") int partSizeMb,
+                     @Value("${s3.upload.max-in-flight-parts:4}") int maxInFlightParts,
+                     @Value("${s3.upload.threads:8}") int uploadThreads,
+                     @Value("${s3.presign.ttl-seconds:900}") long presignTtlSeconds,
+                     @Value("${s3.transfer.initial-concurrency:4}") int initialConcurrency,
+                     @Value("${s3.transfer.retries-per-file:5}") int retriesPerFile,
+                     @Value("${s3.transfer.backoff-base-ms:100}") long backoffBaseMillis,
+                     @Value("${s3.transfer.backoff-max-ms:20000}") long backoffMaxMillis,
+                     @Value("${s3.endpoint:}") String endpoint,
+                     @Value("${s3.path-style-access:false}") boolean pathStyleAccess) {
+        this.objectCache = objectCache;
+        this.fileService = fileService;
+        this.metadataStore = metadataStore;
+        this.archiveExtractService = archiveExtractService;
+        this.presignTtl = Duration.ofSeconds(presignTtlSeconds);
+        this.initialConcurrency = initialConcurrency;
+        this.retriesPerFile = retriesPerFile;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+        // S3-compatible stores such as MinIO, or a local stand-in, instead of AWS
+        this.endpoint = endpoint == null || endpoint.isBlank() ? null : URI.create(endpoint.trim());
+        this.pathStyleAccess = pathStyleAccess;
+        // S3 rejects parts under 5 MiB except the last one
+        this.partSize = Math.max(5, partSizeMb) * 1024 * 1024;
+        this.maxInFlightParts = maxInFlightParts;
+        this.uploadExecutor = Executors.newFixedThreadPool(uploadThreads, runnable -> {
+            Thread thread = new Thread(runnable, "s3-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdownNow();
+    }
+
     /**
      * List files and folders in S3 with optional recursive file counting
      */
@@ -93,6 +178,7 @@ public class S3Service {
     /**
      * Download and prepare S3 files for processing
      */
+    @SuppressWarnings("unchecked")
     public Map<String, Object> loadS3Files(S3Request s3Request) {
         Map<String, Object> result = new HashMap<>();
         List<String> processedFiles = new java.util.ArrayList<>();
@@ -108,15 +194,19 @@ public class S3Service {
             
             for (String fileKey : s3Request.getFiles()) {
                 try {
-                    // Download file from S3
+                    if (s3Request.isExtractArchives() && ArchiveExtractService.isArchive(fileKey)) {
+                        // Unpack the archive while it downloads instead of storing it
+                        Map<String, Object> extracted = extractObject(s3, s3Request.getBucket(), fileKey, fileKey,
+                            new FileController.ImportProgress());
+                        processedFiles.addAll((List<String>) extracted.get("extractedFiles"));
+                        failedFiles.addAll((List<String>) extracted.get("failedFiles"));
+                        continue;
+                    }
+                    
+                    // Download file from S3, detecting its format and schema on the way
                     String localFilePath = downloadS3File(s3, s3Request.getBucket(), fileKey);
                     processedFiles.add(localFilePath);
                     
-                    // Here you would typically:
-                    // 1. Validate the file format (CSV, JSON, Parquet, etc.)
-                    // 2. Process the data
-                    // 3. Store metadata about the loaded file
-                    
                 } catch (Exception e) {
                     System.err.println("Error downloading file " + fileKey + ": " + e.getMessage());
                     e.printStackTrace();
@@ -139,72 +229,233 @@ public class S3Service {
     }
     
     /**
-     * Download a single file from S3 to local storage
+     * Download a single file from S3 to local storage, keeping its folder structure
      */
     private String downloadS3File(S3Client s3, String bucket, String fileKey) throws Exception {
-        // Create a unique local filename
-        String fileName;
-        int lastSlashIndex = fileKey.lastIndexOf('/');
-        if (lastSlashIndex >= 0 && lastSlashIndex < fileKey.length() - 1) {
-            fileName = fileKey.substring(lastSlashIndex + 1);
-        } else {
-            fileName = fileKey; // Use the full key if no slash or slash is at the end
+        importObject(s3, bucket, fileKey, fileKey);
+        return fileKey;
+    }
+
+    /**
+     * Download an object into the storage directory under the given name.
+     * The bytes pass through a format detector and the transfer checksums on
+     * their way to disk, so the detected format and schema are stored as file
+     * metadata, and the content is verified against S3's checksums, without
+     * reading the file a second time. A mismatch leaves nothing behind and
+     * fails with an IOException, which the transfer limiter retries.
+     * Returns the stored metadata.
+     */
+    public Map<String, Object> importObject(S3Client s3, String bucket, String fileKey, String fileName) throws IOException {
+        return importObject(s3, bucket, fileKey, fileName, null, null);
+    }
+
+    /**
+     * Same as above, checkpointing objects streamed straight from S3 in the job's journal.
+     * A checkpointed object is continued from its partial file with a ranged GET, both by
+     * retries and by a resumed job, as long as the object's ETag has not changed. Objects
+     * read through the object cache are not checkpointed; the cache itself survives restarts.
+     * Reading from S3 is throttled by the bandwidth bucket, when there is one.
+     */
+    public Map<String, Object> importObject(S3Client s3, String bucket, String fileKey, String fileName,
+                                            JobJournal.Job job, TokenBucket bandwidth) throws IOException {
+        Path target = fileService.resolveForWrite(fileName);
+        FormatDetector detector = metadataStore.newDetector();
+
+        JobJournal.Partial partial = job != null ? job.getPartial(fileKey) : null;
+        if (partial != null && !(Files.exists(Paths.get(partial.file())) && Files.size(Paths.get(partial.file())) >= partial.offset())) {
+            job.discardPartial(fileKey);
+            partial = null;
         }
-        
-        // Sanitize filename to remove any invalid characters
-        fileName = fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
-        
-        // Preserve folder structure and original filename
-        String localFilePath = "uploads/" + fileKey;
-        
-        // Ensure uploads directory and all parent directories exist
-        java.io.File localFile = new java.io.File(localFilePath);
-        if (!localFile.getParentFile().exists()) {
-            localFile.getParentFile().mkdirs();
+        ObjectStream in = partial != null ? openObjectRange(s3, bucket, fileKey, partial.offset(), partial.eTag()) : null;
+        if (in == null && partial != null) {
+            job.discardPartial(fileKey); // Object changed since the checkpoint
+            partial = null;
         }
-        
-        // Download the file
-        s3.getObject(builder -> builder
-            .bucket(bucket)
-            .key(fileKey)
-            .build(), 
-            java.nio.file.Paths.get(localFilePath)
-        );
-        
-        return localFilePath;
+        // Unique, since parallel imports may store objects from different prefixes under one name
+        Path temp = partial != null ? Paths.get(partial.file())
+            : Files.createTempFile(target.getParent(), target.getFileName() + ".", ".importing");
+
+        long size = partial != null ? partial.offset() : 0;
+        Map<String, Object> checksums;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (in == null) {
+                in = openObjectStream(s3, bucket, fileKey);
+            }
+            try (ObjectStream object = in) {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                if (size > 0) {
+                    // Bytes written before the checkpoint are read back locally, not fetched again
+                    channel.truncate(size);
+                    InputStream written = Channels.newInputStream(channel.position(0));
+                    int read;
+                    while ((read = written.read(buffer)) > 0) {
+                        object.checksums.update(buffer, 0, read);
+                        detector.update(buffer, 0, read);
+                    }
+                }
+                OutputStream out = Channels.newOutputStream(channel.position(size));
+                boolean checkpoint = job != null && object.cached == null;
+                long checkpointed = size;
+                int read;
+                while ((read = object.read(buffer)) > 0) {
+                    if (bandwidth != null) {
+                        bandwidth.acquire(read);
+                    }
+                    out.write(buffer, 0, read);
+                    detector.update(buffer, 0, read);
+                    size += read;
+                    if (checkpoint && size - checkpointed >= job.getCheckpointBytes()) {
+                        job.checkpoint(fileKey, temp.toString(), size, object.eTag);
+                        checkpointed = size;
+                    }
+                }
+                checksums = object.verify();
+            }
+        } catch (TransferChecksums.ChecksumMismatchException e) {
+            discard(job, fileKey, temp);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // A checkpointed transfer keeps its partial file for the retry or the resumed job
+            if (job == null || job.getPartial(fileKey) == null) {
+                Files.deleteIfExists(temp);
+            }
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        fileService.stored(target);
+
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("source", "s3://" + bucket + "/" + fileKey);
+        metadata.put("size", size);
+        metadata.put("importedAt", Instant.now().toString());
+        metadata.put("checksums", checksums);
+        metadata.put("schema", detector.detect());
+        metadataStore.save(fileName, metadata);
+        return metadata;
+    }
+
+    private static void discard(JobJournal.Job job, String fileKey, Path temp) throws IOException {
+        if (job != null) {
+            job.discardPartial(fileKey);
+        }
+        Files.deleteIfExists(temp);
     }
 
     /**
-     * Download file content from S3 as a string
+     * Stream a .zip, .tar or .tar.gz object into the storage directory, extracting its
+     * entries under the archive's name without its extension while it downloads.
+     * The archive is verified once fully read; on a mismatch the call fails so it is
+     * retried, and the retry overwrites the extracted entries.
+     * Returns a map with "extractedFiles", "failedFiles", the extracted "bytes" and the archive's "checksums".
      */
-    public String downloadFileContent(S3Request s3Request, String fileKey) throws Exception {
-        S3Client s3 = createS3Client(s3Request);
-        
-        try {
-            // First check if the file exists
+    public Map<String, Object> extractObject(S3Client s3, String bucket, String fileKey, String archiveName,
+                                             FileController.ImportProgress progress) throws IOException {
+        return extractObject(s3, bucket, fileKey, archiveName, progress, null);
+    }
+
+    /**
+     * Same as above, throttling the download by the bandwidth bucket when there is one
+     */
+    public Map<String, Object> extractObject(S3Client s3, String bucket, String fileKey, String archiveName,
+                                             FileController.ImportProgress progress, TokenBucket bandwidth) throws IOException {
+        try (ObjectStream in = openObjectStream(s3, bucket, fileKey)) {
+            InputStream throttled = bandwidth != null ? bandwidth.wrap(in) : in;
+            Map<String, Object> result = archiveExtractService.extract(throttled, archiveName,
+                ArchiveExtractService.targetDirectory(archiveName), "s3://" + bucket + "/" + fileKey, progress);
+            // Readers stop at the end marker; the rest (e.g. a zip's central directory) still counts
+            in.transferTo(OutputStream.nullOutputStream());
+            result.put("checksums", in.verify());
+            return result;
+        }
+    }
+
+    /**
+     * An object's bytes together with the checksums they are verified against
+     */
+    private static class ObjectStream extends FilterInputStream {
+        private final TransferChecksums checksums;
+        private final S3ObjectCache.CachedObject cached;
+        private final String eTag;
+
+        ObjectStream(InputStream in, TransferChecksums checksums, S3ObjectCache.CachedObject cached, String eTag) {
+            super(checksums.wrap(in));
+            this.checksums = checksums;
+            this.cached = cached;
+            this.eTag = eTag;
+        }
+
+        /**
+         * Verify everything read so far; a cached copy that fails is dropped so the retry downloads it again
+         */
+        Map<String, Object> verify() throws IOException {
             try {
-                s3.headObject(builder -> builder
-                    .bucket(s3Request.getBucket())
-                    .key(fileKey)
-                    .build()
-                );
-            } catch (Exception e) {
-                return "S3 File: " + fileKey + "\nOriginal S3 path: " + s3Request.getBucket() + "/" + fileKey + "\nImport timestamp: " + new java.util.Date() + "\n\nERROR: File not found or access denied. Please check:\n- File exists in S3\n- Your credentials have read access\n- Bucket and region are correct\n\nError: " + e.getMessage();
+                return checksums.verify();
+            } catch (TransferChecksums.ChecksumMismatchException e) {
+                if (cached != null) {
+                    cached.invalidate();
+                }
+                throw e;
             }
-            
-            // Download the file to a temporary location first
-            String tempFilePath = downloadS3File(s3, s3Request.getBucket(), fileKey);
-            
-            // Read the content as a string
-            String content = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(tempFilePath)));
-            return content;
-            
-        } catch (Exception e) {
-            // If we can't read the file, create a placeholder with better error info
-            return "S3 File: " + fileKey + "\nOriginal S3 path: " + s3Request.getBucket() + "/" + fileKey + "\nImport timestamp: " + new java.util.Date() + "\n\nERROR: Failed to download file content.\n\nError details: " + e.getMessage() + "\n\nPlease check:\n- S3 credentials are correct\n- File exists and is accessible\n- Network connection to S3";
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (cached != null) {
+                    cached.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Open an object for reading, from the local object cache when the object is cacheable.
+     * Closing the stream releases the cache entry.
+     */
+    private ObjectStream openObjectStream(S3Client s3, String bucket, String fileKey) throws IOException {
+        S3ObjectCache.CachedObject cached = objectCache.isEnabled() ? objectCache.open(s3, bucket, fileKey) : null;
+        if (cached == null) {
+            ResponseInputStream<GetObjectResponse> object = s3.getObject(builder -> builder.bucket(bucket).key(fileKey)
+                .checksumMode(ChecksumMode.ENABLED));
+            GetObjectResponse response = object.response();
+            TransferChecksums checksums = new TransferChecksums(response.eTag(),
+                TransferChecksums.isMd5ETag(response.eTag(), response.serverSideEncryptionAsString(),
+                    response.sseCustomerAlgorithm()),
+                response.checksumCRC32C(), response.checksumSHA256());
+            return new ObjectStream(object, checksums, null, response.eTag());
+        }
+        try {
+            return new ObjectStream(Files.newInputStream(cached.getPath()), cached.newChecksums(), cached, cached.getETag());
+        } catch (IOException | RuntimeException e) {
+            cached.close();
+            throw e;
         }
     }
 
+    /**
+     * Open the rest of an object from offset on, provided it still has the given ETag.
+     * S3 sends no checksums for ranges, so only a content-MD5 ETag is verified, over the
+     * whole object once the earlier bytes are fed in. Returns null when the object changed.
+     */
+    private ObjectStream openObjectRange(S3Client s3, String bucket, String fileKey, long offset, String eTag) {
+        ResponseInputStream<GetObjectResponse> object;
+        try {
+            object = s3.getObject(builder -> builder.bucket(bucket).key(fileKey).range("bytes=" + offset + "-").ifMatch(eTag));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 412 || e.statusCode() == 416) {
+                return null;
+            }
+            throw e;
+        }
+        GetObjectResponse response = object.response();
+        TransferChecksums checksums = new TransferChecksums(eTag,
+            TransferChecksums.isMd5ETag(eTag, response.serverSideEncryptionAsString(), response.sseCustomerAlgorithm()),
+            null, null);
+        return new ObjectStream(object, checksums, null, eTag);
+    }
+
     /**
      * Get file metadata from S3 (size, last modified, etc.)
      */
@@ -241,7 +492,115 @@ public class S3Service {
         return metadata;
     }
 
-    private S3Client createS3Client(S3Request s3Request) {
+    /**
+     * Create short-lived GET URLs for the requested keys so browsers can download directly from S3
+     * Returns a map with:
+     * - "urls": key to presigned URL
+     * - "expiresInSeconds": lifetime of every URL
+     */
+    public Map<String, Object> presignDownloads(S3Request s3Request) {
+        Map<String, Object> result = new HashMap<>();
+        if (s3Request.getFiles() == null || s3Request.getFiles().isEmpty()) {
+            result.put("error", "No files specified");
+            return result;
+        }
+        
+        Map<String, String> urls = new HashMap<>();
+        try (S3Presigner presigner = createS3Presigner(s3Request)) {
+            for (String fileKey : s3Request.getFiles()) {
+                String url = presigner.presignGetObject(builder -> builder
+                    .signatureDuration(presignTtl)
+                    .getObjectRequest(get -> get.bucket(s3Request.getBucket()).key(fileKey))
+                ).url().toString();
+                urls.put(fileKey, url);
+            }
+        }
+        
+        result.put("urls", urls);
+        result.put("expiresInSeconds", presignTtl.getSeconds());
+        return result;
+    }
+
+    /**
+     * Create short-lived PUT URLs for uploading the requested file names under the request's path
+     * Returns a map with:
+     * - "urls": key to presigned URL
+     * - "expiresInSeconds": lifetime of every URL
+     */
+    public Map<String, Object> presignUploads(S3Request s3Request) {
+        Map<String, Object> result = new HashMap<>();
+        if (s3Request.getFiles() == null || s3Request.getFiles().isEmpty()) {
+            result.put("error", "No files specified");
+            return result;
+        }
+        
+        Map<String, String> urls = new HashMap<>();
+        try (S3Presigner presigner = createS3Presigner(s3Request)) {
+            for (String fileName : s3Request.getFiles()) {
+                String key = resolveKey(s3Request, fileName);
+                String url = presigner.presignPutObject(builder -> builder
+                    .signatureDuration(presignTtl)
+                    .putObjectRequest(put -> put.bucket(s3Request.getBucket()).key(key))
+                ).url().toString();
+                urls.put(key, url);
+            }
+        }
+        
+        result.put("urls", urls);
+        result.put("expiresInSeconds", presignTtl.getSeconds());
+        return result;
+    }
+
+    /**
+     * Open a channel that streams into the given key using a multipart upload.
+     * The channel owns its client; close it to complete the object or abort it to discard it.
+     */
+    public S3MultipartUpload openUpload(S3Request s3Request, String key) {
+        S3Client s3 = createS3Client(s3Request);
+        return new S3MultipartUpload(s3, s3Request.getBucket(), key, partSize, maxInFlightParts, uploadExecutor);
+    }
+
+    /**
+     * Build an object key under the request's path, treating the path as a folder prefix
+     */
+    public String resolveKey(S3Request s3Request, String name) {
+        String prefix = s3Request.getPath();
+        if (prefix == null || prefix.isEmpty()) {
+            return name;
+        }
+        return prefix.endsWith("/") ? prefix + name : prefix + "/" + name;
+    }
+
+    /**
+     * Adaptive request limit for one transfer job, never above maxConcurrency
+     */
+    S3TransferLimiter newTransferLimiter(int maxConcurrency, FileController.ImportProgress progress) {
+        return new S3TransferLimiter(initialConcurrency, 1, maxConcurrency, backoffBaseMillis, backoffMaxMillis, progress);
+    }
+
+    /**
+     * Retries allowed for all requests of one file
+     */
+    AtomicInteger newRetryBudget() {
+        return new AtomicInteger(retriesPerFile);
+    }
+
+    ExecutorService getUploadExecutor() {
+        return uploadExecutor;
+    }
+
+    int getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Part size for an object of known size: the configured size, grown so the object fits in S3's part limit
+     */
+    long partSizeFor(long size) {
+        return Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    S3Client createS3Client(S3Request s3Request) {
         AwsBasicCredentials awsCreds = AwsBasicCredentials.create(
             s3Request.getAccessKey(), s3Request.getSecretKey()
         );
@@ -255,12 +614,14 @@ public class S3Service {
         try {
             Region awsRegion = Region.of(region.trim());
             
-            S3Client client = S3Client.builder()
+            S3ClientBuilder builder = S3Client.builder()
                 .region(awsRegion)
                 .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
-                .build();
-            
-            return client;
+                .forcePathStyle(pathStyleAccess);
+            if (endpoint != null) {
+                builder.endpointOverride(endpoint);
+            }
+            return builder.build();
         } catch (Exception e) {
             System.err.println("Error creating S3 client: " + e.getMessage());
             e.printStackTrace();
@@ -268,6 +629,26 @@ public class S3Service {
         }
     }
 
+    S3Presigner createS3Presigner(S3Request s3Request) {
+        AwsBasicCredentials awsCreds = AwsBasicCredentials.create(
+            s3Request.getAccessKey(), s3Request.getSecretKey()
+        );
+        
+        String region = s3Request.getRegion();
+        if (region == null || region.trim().isEmpty()) {
+            region = "eu-central-1"; // Default region (Frankfurt)
+        }
+        
+        S3Presigner.Builder builder = S3Presigner.builder()
+            .region(Region.of(region.trim()))
+            .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
+            .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(pathStyleAccess).build());
+        if (endpoint != null) {
+            builder.endpointOverride(endpoint);
+        }
+        return builder.build();
+    }
+
     private Map<String, Long> getFileSizes(List<S3Object> contents, String currentPath) {
         Map<String, Long> fileSizes = new HashMap<>();
         for (S3Object obj : contents) {
@@ -0,0 +1,211 @@
+package io.backend.fileservice;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Adaptive limit on the concurrent S3 requests of one transfer job.
+ * The limit grows by about one request per round of successful requests and
+ * is halved when S3 throttles (SlowDown, 503, 429), at most once per cool-down
+ * so a burst of throttled requests counts as one signal. Requests that take
+ * much longer per byte than the best seen so far shrink it more gently.
+ * Failed requests are retried with full-jitter exponential backoff while the
+ * file's retry budget lasts; the current limit and the retry count are
+ * reported in the job's progress, and to a listener such as the job's share
+ * of a {@link FairScheduler} so it does not start more tasks than may run.
+ */
+public class S3TransferLimiter {
+
+    private static final long MEBIBYTE = 1024 * 1024;
+    private static final double LATENCY_TOLERANCE = 4.0;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long cooldownMillis;
+    private final FileController.ImportProgress progress;
+
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecrease = 0;
+    private double bestMillisPerUnit = Double.MAX_VALUE;
+    private IntConsumer limitListener;
+    private int reportedLimit;
+
+    /**
+     * One S3 request, repeated as a whole on retry
+     */
+    public interface TransferCall<T> {
+        T run() throws Exception;
+    }
+
+    public S3TransferLimiter(int initialLimit, int minLimit, int maxLimit, long baseBackoffMillis, long maxBackoffMillis,
+                             FileController.ImportProgress progress) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.cooldownMillis = Math.max(100, baseBackoffMillis * 2);
+        this.progress = progress;
+        report();
+    }
+
+    /**
+     * Run the call once a slot is free, retrying retryable failures while the budget lasts.
+     * The budget is shared by all requests of one file; bytes is the payload size used
+     * to compare latencies of differently sized requests.
+     */
+    public <T> T execute(AtomicInteger retryBudget, long bytes, TransferCall<T> call) throws Exception {
+        return execute(retryBudget, result -> bytes, call);
+    }
+
+    /**
+     * Same as above for requests whose size is only known from their result, such as downloads
+     */
+    public <T> T execute(AtomicInteger retryBudget, ToLongFunction<T> bytesOf, TransferCall<T> call) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            acquire();
+            long start = System.nanoTime();
+            Exception failure;
+            try {
+                T result = call.run();
+                onSuccess((System.nanoTime() - start) / 1_000_000, bytesOf.applyAsLong(result));
+                return result;
+            } catch (Exception e) {
+                failure = e;
+            }
+
+            boolean throttled = isThrottled(failure);
+            onFailure(throttled);
+            if (!isRetryable(failure) || retryBudget.getAndDecrement() <= 0) {
+                throw failure;
+            }
+            synchronized (progress) {
+                progress.retries++;
+            }
+            sleep(backoff(attempt, throttled));
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Tell the listener the current limit now and whenever it changes
+     */
+    public synchronized void onLimitChange(IntConsumer listener) {
+        this.limitListener = listener;
+        reportedLimit = (int) limit;
+        listener.accept(reportedLimit);
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    synchronized void onSuccess(long millis, long bytes) {
+        release();
+        // Per-MiB latency for large payloads, plain latency for small ones
+        double millisPerUnit = (double) millis / Math.max(1, bytes / MEBIBYTE);
+        bestMillisPerUnit = Math.min(bestMillisPerUnit, millisPerUnit);
+        if (millisPerUnit > bestMillisPerUnit * LATENCY_TOLERANCE && millis > baseBackoffMillis) {
+            decrease(0.9);
+        } else {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        report();
+    }
+
+    synchronized void onFailure(boolean throttled) {
+        release();
+        if (throttled) {
+            decrease(0.5);
+        }
+        report();
+    }
+
+    private void decrease(double factor) {
+        long now = System.currentTimeMillis();
+        if (now - lastDecrease < cooldownMillis) {
+            return;
+        }
+        lastDecrease = now;
+        limit = Math.max(minLimit, limit * factor);
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    private void report() {
+        synchronized (progress) {
+            progress.concurrency = (int) limit;
+        }
+        if (limitListener != null && reportedLimit != (int) limit) {
+            reportedLimit = (int) limit;
+            limitListener.accept(reportedLimit);
+        }
+    }
+
+    /**
+     * Full jitter: a uniform wait up to an exponentially growing cap, longer when throttled
+     */
+    long backoff(int attempt, boolean throttled) {
+        long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1 + (throttled ? 1 : 0), 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    static boolean isThrottled(Throwable e) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof AwsServiceException service) {
+            return service.isThrottlingException() || service.statusCode() == 503;
+        }
+        return false;
+    }
+
+    static boolean isRetryable(Throwable e) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof AbortedException || cause instanceof InterruptedIOException
+                || cause instanceof InterruptedException) {
+            return false;
+        }
+        if (cause instanceof AwsServiceException service) {
+            int status = service.statusCode();
+            return isThrottled(service) || status >= 500 || status == 408;
+        }
+        return cause instanceof SdkClientException || cause instanceof IOException;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof UncheckedIOException || cause instanceof ExecutionException
+                || cause instanceof CompletionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package io.backend.fileservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Uploads files from the storage directory to an S3 bucket and prefix.
+ * Files up to one part in size are sent with a single PUT; larger files use a
+ * multipart upload whose parts are memory-mapped from the file and uploaded
+ * concurrently. Parts grow beyond the configured size when a file would
+ * otherwise need more than S3's 10,000 parts, and a file is only held open
+ * while its parts are being uploaded. All requests of a job share the S3 upload pool, with at most
+ * a fixed number queued per job so one job cannot flood it. Requests go
+ * through an adaptive {@link S3TransferLimiter} that backs off when S3
+ * throttles and retries failed requests within each file's retry budget.
+ */
+@Service
+public class S3UploadService {
+
+    private final S3Service s3Service;
+    private final FileService fileService;
+    private final int maxInFlightPerJob;
+
+    /**
+     * Reads a mapped region; each call to the content provider gets a fresh view so retries start over
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * One local file being uploaded, single PUT or multipart
+     */
+    private static class FileUpload {
+        final String name;
+        final Path path;
+        final String key;
+        final long size;
+        final List<Future<?>> futures = new ArrayList<>();
+        AtomicInteger retryBudget;
+        String uploadId;
+        CompletedPart[] parts;
+        AtomicInteger partsLeft;
+        private FileChannel channel;
+        private boolean closed;
+
+        FileUpload(String name, Path path, String key, long size) {
+            this.name = name;
+            this.path = path;
+            this.key = key;
+            this.size = size;
+        }
+
+        /**
+         * Opened by the first part to run rather than when the parts are queued
+         */
+        synchronized FileChannel openChannel() throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        synchronized void closeChannel() {
+            closed = true;
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Could not close " + name + ": " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    public S3UploadService(S3Service s3Service, FileService fileService,
+                           @Value("${s3.upload.max-in-flight-per-job:16}") int maxInFlightPerJob) {
+        this.s3Service = s3Service;
+        this.fileService = fileService;
+        this.maxInFlightPerJob = Math.max(1, maxInFlightPerJob);
+    }
+
+    /**
+     * Upload the stored files (or directories) named in the request's file list to
+     * the request's bucket under its path. Blocks until every file has finished or failed.
+     */
+    public void uploadFiles(S3Request s3Request, FileController.ImportProgress progress) {
+        List<String> processedFiles = new ArrayList<>();
+        List<String> failedFiles = new ArrayList<>();
+
+        List<FileUpload> uploads;
+        try {
+            uploads = collectFiles(s3Request);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read files to upload: " + e.getMessage(), e);
+        }
+
+        synchronized (progress) {
+            progress.total = uploads.size();
+            progress.bytesTotal = uploads.stream().mapToLong(upload -> upload.size).sum();
+        }
+
+        S3Client s3 = s3Service.createS3Client(s3Request);
+        Semaphore window = new Semaphore(maxInFlightPerJob);
+        S3TransferLimiter limiter = s3Service.newTransferLimiter(maxInFlightPerJob, progress);
+        int partSize = s3Service.getPartSize();
+
+        try {
+            for (FileUpload upload : uploads) {
+                try {
+                    progress.message = "Uploading " + upload.name + "...";
+                    upload.retryBudget = s3Service.newRetryBudget();
+                    if (upload.size <= partSize) {
+                        submit(window, upload, () -> {
+                            limiter.execute(upload.retryBudget, upload.size, () ->
+                                s3.putObject(builder -> builder.bucket(s3Request.getBucket()).key(upload.key),
+                                    RequestBody.fromFile(upload.path)));
+                            addBytes(progress, upload.size);
+                        });
+                    } else {
+                        startMultipart(s3, s3Request.getBucket(), upload, s3Service.partSizeFor(upload.size), window, limiter, progress);
+                    }
+                } catch (InterruptedException e) {
+                    // Cancelled or paused while waiting for a slot: stop the whole job, not just this file
+                    Thread.currentThread().interrupt();
+                    cancelAll(s3, s3Request.getBucket(), uploads);
+                    throw new RuntimeException("Upload interrupted", e);
+                } catch (Exception e) {
+                    upload.futures.forEach(future -> future.cancel(true));
+                    abort(s3, s3Request.getBucket(), upload);
+                    failedFiles.add(upload.name + " (Error: " + e.getMessage() + ")");
+                    synchronized (progress) {
+                        progress.processed++;
+                    }
+                    upload.futures.clear();
+                }
+            }
+
+            for (FileUpload upload : uploads) {
+                if (upload.futures.isEmpty()) {
+                    continue; // Already failed while submitting
+                }
+                try {
+                    for (Future<?> future : upload.futures) {
+                        future.get();
+                    }
+                    if (upload.uploadId != null) {
+                        limiter.execute(upload.retryBudget, 0, () -> s3.completeMultipartUpload(builder -> builder
+                            .bucket(s3Request.getBucket())
+                            .key(upload.key)
+                            .uploadId(upload.uploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(upload.parts).build())));
+                    }
+                    processedFiles.add(upload.name);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelAll(s3, s3Request.getBucket(), uploads);
+                    throw new RuntimeException("Upload interrupted", e);
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    System.err.println("Error uploading " + upload.name + ": " + cause.getMessage());
+                    upload.futures.forEach(future -> future.cancel(true));
+                    abort(s3, s3Request.getBucket(), upload);
+                    failedFiles.add(upload.name + " (Error: " + cause.getMessage() + ")");
+                } finally {
+                    upload.closeChannel();
+                }
+                synchronized (progress) {
+                    progress.processed++;
+                }
+            }
+        } finally {
+            uploads.forEach(FileUpload::closeChannel);
+            s3.close();
+        }
+
+        progress.message = "Export completed. Uploaded: " + processedFiles.size() + ", Failed: " + failedFiles.size();
+        if (!failedFiles.isEmpty()) {
+            progress.message += ". Failed: " + String.join(", ", failedFiles);
+        }
+        progress.status = failedFiles.isEmpty() ? "done" : "error";
+    }
+
+    /**
+     * Resolve the requested names to stored files, expanding directories
+     */
+    private List<FileUpload> collectFiles(S3Request s3Request) throws IOException {
+        List<FileUpload> uploads = new ArrayList<>();
+        if (s3Request.getFiles() == null) {
+            return uploads;
+        }
+        Path root = fileService.getFileStorageLocation();
+        for (String name : s3Request.getFiles()) {
+            Path path = fileService.resolveStoredFile(name);
+            List<Path> files;
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> stream = Files.walk(path)) {
+                    files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+                }
+            } else {
+                files = List.of(path);
+            }
+            for (Path file : files) {
+                String relative = root.relativize(file).toString().replace("\\", "/");
+                uploads.add(new FileUpload(relative, file, s3Service.resolveKey(s3Request, relative), Files.size(file)));
+            }
+        }
+        return uploads;
+    }
+
+    private void startMultipart(S3Client s3, String bucket, FileUpload upload, long partSize, Semaphore window,
+                                S3TransferLimiter limiter, FileController.ImportProgress progress) throws Exception {
+        upload.uploadId = limiter.execute(upload.retryBudget, 0, () ->
+            s3.createMultipartUpload(builder -> builder.bucket(bucket).key(upload.key)).uploadId());
+        int partCount = (int) ((upload.size + partSize - 1) / partSize);
+        upload.parts = new CompletedPart[partCount];
+        upload.partsLeft = new AtomicInteger(partCount);
+
+        for (int i = 0; i < partCount; i++) {
+            int partNumber = i + 1;
+            long offset = i * partSize;
+            long length = Math.min(partSize, upload.size - offset);
+            submit(window, upload, () -> {
+                ByteBuffer mapped;
+                try {
+                    mapped = upload.openChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+                } finally {
+                    // The mapping outlives the channel, so the file is closed once every part has been mapped
+                    if (upload.partsLeft.decrementAndGet() == 0) {
+                        upload.closeChannel();
+                    }
+                }
+                String eTag = limiter.execute(upload.retryBudget, length, () -> s3.uploadPart(builder -> builder
+                        .bucket(bucket)
+                        .key(upload.key)
+                        .uploadId(upload.uploadId)
+                        .partNumber(partNumber)
+                        .contentLength(length),
+                    RequestBody.fromContentProvider(() -> new ByteBufferInputStream(mapped.duplicate()),
+                        length, "application/octet-stream")).eTag());
+                upload.parts[partNumber - 1] = CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+                addBytes(progress, length);
+            });
+        }
+    }
+
+    private interface UploadStep {
+        void run() throws Exception;
+    }
+
+    /**
+     * Queue a request on the shared pool once the job has a free slot in its window
+     */
+    private void submit(Semaphore window, FileUpload upload, UploadStep step) throws InterruptedException {
+        window.acquire();
+        try {
+            upload.futures.add(s3Service.getUploadExecutor().submit(() -> {
+                try {
+                    step.run();
+                    return null;
+                } finally {
+                    window.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            window.release();
+            throw e;
+        }
+    }
+
+    private void addBytes(FileController.ImportProgress progress, long bytes) {
+        synchronized (progress) {
+            progress.bytesProcessed += bytes;
+        }
+    }
+
+    /**
+     * Stop a job: drop its queued and running parts and abort its multipart uploads, so S3 keeps no orphaned parts
+     */
+    private void cancelAll(S3Client s3, String bucket, List<FileUpload> uploads) {
+        for (FileUpload upload : uploads) {
+            upload.futures.forEach(future -> future.cancel(true));
+        }
+        // The SDK refuses to send requests from an interrupted thread
+        boolean interrupted = Thread.interrupted();
+        try {
+            for (FileUpload upload : uploads) {
+                abort(s3, bucket, upload);
+                upload.uploadId = null;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void abort(S3Client s3, String bucket, FileUpload upload) {
+        if (upload.uploadId == null) {
+            return;
+        }
+        try {
+            s3.abortMultipartUpload(builder -> builder.bucket(bucket).key(upload.key).uploadId(upload.uploadId));
+        } catch (RuntimeException e) {
+            System.err.println("Could not abort multipart upload of " + upload.key + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.backend.fileservice;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Checks client-supplied names of stored files and resolves them inside a
+ * storage root. A name is rejected when it is empty or absolute, contains
+ * "..", "%2e%2e" or "%252e%252e" in any case, a control character or one of
+ * {@code < > : " | ? *}, or is a Windows device name such as CON or COM1
+ * before its last extension. The check is one pass over the characters and
+ * allocates nothing, so every read and write path can afford it.
+ */
+public final class SafeFileNames {
+
+    private SafeFileNames() {
+    }
+
+    public static boolean isValid(CharSequence name) {
+        if (name == null || name.length() == 0) {
+            return false;
+        }
+        int length = name.length();
+        char first = name.charAt(0);
+        if (first == '/' || first == '\\') {
+            return false;
+        }
+
+        int lastDot = -1;
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            switch (c) {
+                case '<', '>', ':', '"', '|', '?', '*':
+                    return false;
+                case '.':
+                    if (previous == '.') {
+                        return false;
+                    }
+                    lastDot = i;
+                    break;
+                case '%':
+                    if (matchesIgnoreCase(name, i, "%2e%2e") || matchesIgnoreCase(name, i, "%252e%252e")) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (c < 0x20 || (c >= 0x7f && c <= 0x9f)) {
+                        return false;
+                    }
+            }
+            previous = c;
+        }
+        return !isDeviceName(name, lastDot > 0 ? lastDot : length);
+    }
+
+    /**
+     * The path of a valid name inside root
+     */
+    public static Path resolve(Path root, String name) throws IOException {
+        if (!isValid(name)) {
+            throw new IOException("Invalid file path: " + name);
+        }
+        Path path = root.resolve(name).normalize();
+        // Cannot fail for a valid name; kept as a second line of defence
+        if (!path.startsWith(root)) {
+            throw new IOException("Path traversal attack detected: " + name);
+        }
+        return path;
+    }
+
+    /**
+     * Whether the pattern, given in lower case, occurs at offset ignoring ASCII case
+     */
+    private static boolean matchesIgnoreCase(CharSequence name, int offset, String pattern) {
+        if (offset + pattern.length() > name.length()) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            if (lower(name.charAt(offset + i)) != pattern.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * CON, PRN, AUX, NUL, COM1-9 or LPT1-9 as the first stemLength characters
+     */
+    private static boolean isDeviceName(CharSequence name, int stemLength) {
+        if (stemLength == 3) {
+            char a = lower(name.charAt(0));
+            char b = lower(name.charAt(1));
+            char c = lower(name.charAt(2));
+            return (a == 'c' && b == 'o' && c == 'n') || (a == 'p' && b == 'r' && c == 'n')
+                || (a == 'a' && b == 'u' && c == 'x') || (a == 'n' && b == 'u' && c == 'l');
+        }
+        if (stemLength == 4) {
+            char a = lower(name.charAt(0));
+            char b = lower(name.charAt(1));
+            char c = lower(name.charAt(2));
+            char digit = name.charAt(3);
+            return digit >= '1' && digit <= '9'
+                && ((a == 'c' && b == 'o' && c == 'm') || (a == 'l' && b == 'p' && c == 't'));
+        }
+        return false;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,162 @@
+package io.backend.fileservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves table previews: the column descriptions from information_schema and
+ * a few sample rows. Both parts are cached for a short time, separately, since
+ * the columns of a table do not change with the filters, ordering or limit
+ * of the sample. Samples are capped at a configured number of rows and the
+ * cache is bounded by an estimate of the memory its results take.
+ */
+@Service
+public class TablePreviewService {
+
+    private final PostgresService postgresService;
+    private final long ttlMillis;
+    private final int rowLimit;
+    private final int maxRowLimit;
+    private final long maxBytes;
+    // Access-ordered so the least recently viewed table is evicted first
+    private final Map<String, CachedResult> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private static class CachedResult {
+        final Map<String, Object> result;
+        final long expiresAt;
+        final long bytes;
+
+        CachedResult(Map<String, Object> result, long expiresAt, long bytes) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+    }
+
+    public TablePreviewService(PostgresService postgresService,
+                               @Value("${preview.cache.ttl-seconds:30}") long ttlSeconds,
+                               @Value("${preview.cache.max-bytes:33554432}") long maxBytes,
+                               @Value("${preview.row-limit:5}") int rowLimit,
+                               @Value("${preview.max-row-limit:1000}") int maxRowLimit) {
+        this.postgresService = postgresService;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxBytes = maxBytes;
+        this.maxRowLimit = Math.max(1, maxRowLimit);
+        this.rowLimit = Math.min(rowLimit, this.maxRowLimit);
+    }
+
+    /**
+     * Get the schema and sample rows for a table, served from cache while fresh.
+     * What is missing is read over a single connection.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getPreview(PostgresRequest request, String tableName) throws SQLException {
+        String table = scope(request) + "|" + schemaOf(request) + "." + tableName;
+        int limit = request.getLimit() != null ? Math.max(0, Math.min(request.getLimit(), maxRowLimit)) : rowLimit;
+        String schemaKey = "schema|" + table;
+        String sampleKey = "sample|" + table + "|" + request.getColumns() + "|" + request.getFilters()
+            + "|" + request.getOrderBy() + "|" + limit + "|" + request.getSampleMethod() + "|" + request.getSamplePercent();
+
+        long now = System.currentTimeMillis();
+        Map<String, Object> schema = lookup(schemaKey, now);
+        Map<String, Object> sample = lookup(sampleKey, now);
+        if (schema == null && sample == null) {
+            Map<String, Object> preview = postgresService.getTablePreview(request, tableName, limit);
+            schema = (Map<String, Object>) preview.get("schema");
+            sample = (Map<String, Object>) preview.get("sample");
+            store(schemaKey, schema, now + ttlMillis);
+            store(sampleKey, sample, now + ttlMillis);
+        } else if (schema == null) {
+            schema = postgresService.getTableSchema(request, tableName);
+            store(schemaKey, schema, now + ttlMillis);
+        } else if (sample == null) {
+            sample = postgresService.getTableSample(request, tableName, limit);
+            store(sampleKey, sample, now + ttlMillis);
+        }
+
+        Map<String, Object> preview = new HashMap<>();
+        preview.put("schema", schema);
+        preview.put("sample", sample);
+        return preview;
+    }
+
+    /**
+     * Drop all cached previews
+     */
+    public synchronized void clear() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    private synchronized Map<String, Object> lookup(String key, long now) {
+        CachedResult cached = cache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiresAt > now) {
+            return cached.result;
+        }
+        remove(key);
+        return null;
+    }
+
+    private synchronized void store(String key, Map<String, Object> result, long expiresAt) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        long bytes = S3BrowseCache.estimateBytes(key) + S3BrowseCache.estimateBytes(result);
+        if (bytes > maxBytes) {
+            return; // Would evict everything else
+        }
+        remove(key);
+        cache.put(key, new CachedResult(result, expiresAt, bytes));
+        cachedBytes += bytes;
+
+        // Least recently used first
+        Iterator<CachedResult> iterator = cache.values().iterator();
+        while (cachedBytes > maxBytes && iterator.hasNext()) {
+            cachedBytes -= iterator.next().bytes;
+            iterator.remove();
+        }
+    }
+
+    private void remove(String key) {
+        CachedResult removed = cache.remove(key);
+        if (removed != null) {
+            cachedBytes -= removed.bytes;
+        }
+    }
+
+    private static String schemaOf(PostgresRequest request) {
+        String schema = request.getSchema();
+        return schema == null || schema.isEmpty() ? "public" : schema;
+    }
+
+    /**
+     * Previews are scoped by server, database and credentials so a cached entry
+     * is only ever served to a request that could have read it directly; the
+     * password is only kept as a hash
+     */
+    static String scope(PostgresRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String password = request.getPassword() != null ? request.getPassword() : "";
+            String passwordHash = HexFormat.of().formatHex(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+            return request.getHost() + ":" + request.getPort() + "/" + request.getDatabase()
+                + "|" + request.getUsername() + "|" + passwordHash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.backend.fileservice;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Caps the bandwidth of one job. Every thread of the job takes tokens for the
+ * bytes it moves; when the bucket runs dry the caller sleeps until the rate
+ * has paid for them, so concurrent transfers share the cap between them.
+ * Up to a quarter second of traffic may pass as a burst.
+ */
+public class TokenBucket {
+
+    private final double bytesPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    public TokenBucket(long bytesPerSecond) {
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.capacity = Math.max(64 * 1024, bytesPerSecond / 4.0);
+        this.tokens = capacity;
+    }
+
+    /**
+     * A bucket for the given rate, or null when the rate is unset and nothing should be throttled
+     */
+    public static TokenBucket of(Long bytesPerSecond) {
+        return bytesPerSecond != null && bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond) : null;
+    }
+
+    /**
+     * Take tokens for the bytes, waiting as long as the rate requires
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * bytesPerNano);
+            refilledAt = now;
+            tokens -= bytes; // Going into debt makes later callers wait for it too
+            waitNanos = tokens < 0 ? (long) (-tokens / bytesPerNano) : 0;
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    acquire(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    public WritableByteChannel wrap(WritableByteChannel channel) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                int written = channel.write(source);
+                acquire(written);
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
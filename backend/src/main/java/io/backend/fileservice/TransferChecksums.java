@@ -0,0 +1,155 @@
+package io.backend.fileservice;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Checksums of an object computed while its bytes stream past, and the values
+ * S3 says they should have. CRC32C and SHA-256 are always computed; MD5 only
+ * when the object's ETag is known to be the MD5 of its content (single-part
+ * upload without KMS or customer-key encryption). After the last byte,
+ * {@link #verify} compares every value S3 supplied and fails on a mismatch.
+ */
+public class TransferChecksums {
+
+    private final String expectedMd5;
+    private final String expectedCrc32c;
+    private final String expectedSha256;
+    private final CRC32C crc32c = new CRC32C();
+    private final MessageDigest sha256;
+    private final MessageDigest md5;
+    private long bytes = 0;
+
+    /**
+     * Thrown when the received bytes do not match the checksums S3 reported
+     */
+    public static class ChecksumMismatchException extends IOException {
+        public ChecksumMismatchException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param eTag           the object's ETag, quoted or not
+     * @param eTagIsMd5      whether the ETag is the content MD5
+     * @param crc32cBase64   x-amz-checksum-crc32c, or null
+     * @param sha256Base64   x-amz-checksum-sha256, or null
+     */
+    public TransferChecksums(String eTag, boolean eTagIsMd5, String crc32cBase64, String sha256Base64) {
+        String unquoted = eTag != null ? eTag.replace("\"", "") : null;
+        this.expectedMd5 = eTagIsMd5 && unquoted != null && unquoted.matches("[0-9a-fA-F]{32}") ? unquoted.toLowerCase() : null;
+        // Checksums of multipart objects are checksums of part checksums ("...-N") and cannot be compared
+        this.expectedCrc32c = crc32cBase64 != null && !crc32cBase64.contains("-") ? crc32cBase64 : null;
+        this.expectedSha256 = sha256Base64 != null && !sha256Base64.contains("-") ? sha256Base64 : null;
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+            this.md5 = expectedMd5 != null ? MessageDigest.getInstance("MD5") : null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Whether an ETag is the MD5 of the object: single-part uploads not encrypted with KMS or a customer key
+     */
+    public static boolean isMd5ETag(String eTag, String serverSideEncryption, String customerAlgorithm) {
+        return eTag != null && !eTag.contains("-") && customerAlgorithm == null
+            && (serverSideEncryption == null || !serverSideEncryption.startsWith("aws:kms"));
+    }
+
+    public void update(byte[] buffer, int offset, int length) {
+        crc32c.update(buffer, offset, length);
+        sha256.update(buffer, offset, length);
+        if (md5 != null) {
+            md5.update(buffer, offset, length);
+        }
+        bytes += length;
+    }
+
+    /**
+     * A stream that feeds everything read through it into the checksums
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    update(new byte[]{(byte) b}, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    update(buffer, offset, read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                // Skipped bytes must still be checksummed
+                byte[] buffer = new byte[(int) Math.min(count, 8192)];
+                long skipped = 0;
+                while (skipped < count) {
+                    int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+                    if (read < 0) {
+                        break;
+                    }
+                    skipped += read;
+                }
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Compare against every checksum S3 supplied and return what was verified and computed
+     */
+    public Map<String, Object> verify() throws ChecksumMismatchException {
+        List<String> verified = new ArrayList<>();
+        String crc = Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc32c.getValue()).array());
+        byte[] sha = sha256.digest();
+
+        if (expectedCrc32c != null) {
+            if (!expectedCrc32c.equals(crc)) {
+                throw new ChecksumMismatchException("CRC32C mismatch: expected " + expectedCrc32c + ", got " + crc);
+            }
+            verified.add("crc32c");
+        }
+        if (expectedSha256 != null) {
+            String actual = Base64.getEncoder().encodeToString(sha);
+            if (!expectedSha256.equals(actual)) {
+                throw new ChecksumMismatchException("SHA-256 mismatch: expected " + expectedSha256 + ", got " + actual);
+            }
+            verified.add("sha256");
+        }
+        String md5Hex = null;
+        if (md5 != null) {
+            md5Hex = HexFormat.of().formatHex(md5.digest());
+            if (!expectedMd5.equals(md5Hex)) {
+                throw new ChecksumMismatchException("MD5 does not match ETag: expected " + expectedMd5 + ", got " + md5Hex);
+            }
+            verified.add("etag-md5");
+        }
+
+        Map<String, Object> checksums = new LinkedHashMap<>();
+        checksums.put("crc32c", crc);
+        checksums.put("sha256", HexFormat.of().formatHex(sha));
+        if (md5Hex != null) {
+            checksums.put("md5", md5Hex);
+        }
+        checksums.put("bytes", bytes);
+        checksums.put("verified", verified);
+        return checksums;
+    }
+}
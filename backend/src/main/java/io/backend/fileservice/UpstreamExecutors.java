@@ -0,0 +1,137 @@
+package io.backend.fileservice;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs controller calls that wait on S3 or a database off the servlet threads.
+ * S3 and JDBC calls get separate bounded pools, so a slow bucket or database
+ * can only exhaust its own pool while downloads and other endpoints keep their
+ * Tomcat threads. A full pool answers 503 straight away, and a call running
+ * longer than its endpoint's timeout (upstream.timeout.&lt;endpoint&gt;, falling
+ * back to upstream.timeout.default) answers 504 and has its worker interrupted.
+ * Clients that ignore interrupts, such as JDBC drivers, can bound their own
+ * waits by {@link #remainingTime} so the worker is freed with the call.
+ */
+@Component
+public class UpstreamExecutors {
+
+    private final ThreadPoolExecutor s3Executor;
+    private final ThreadPoolExecutor jdbcExecutor;
+    private final ScheduledExecutorService timer;
+    private final Environment environment;
+    private final Duration defaultTimeout;
+    // Deadline, in System.nanoTime, of the call running on a worker
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    public UpstreamExecutors(Environment environment,
+                             @Value("${upstream.s3.threads:16}") int s3Threads,
+                             @Value("${upstream.s3.queue:64}") int s3Queue,
+                             @Value("${upstream.jdbc.threads:8}") int jdbcThreads,
+                             @Value("${upstream.jdbc.queue:32}") int jdbcQueue,
+                             @Value("${upstream.timeout.default:30s}") Duration defaultTimeout) {
+        this.environment = environment;
+        this.defaultTimeout = defaultTimeout;
+        this.s3Executor = newPool("upstream-s3", s3Threads, s3Queue);
+        this.jdbcExecutor = newPool("upstream-jdbc", jdbcThreads, jdbcQueue);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upstream-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        s3Executor.shutdownNow();
+        jdbcExecutor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Run a call that talks to S3 on the S3 pool
+     */
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> s3(String endpoint,
+                                                                      Supplier<ResponseEntity<Map<String, Object>>> call) {
+        return submit(s3Executor, "S3", endpoint, call);
+    }
+
+    /**
+     * Run a call that talks to a database on the JDBC pool
+     */
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> jdbc(String endpoint,
+                                                                        Supplier<ResponseEntity<Map<String, Object>>> call) {
+        return submit(jdbcExecutor, "database", endpoint, call);
+    }
+
+    /**
+     * Time left before the call running on this thread times out, null when no call is running here
+     */
+    public static Duration remainingTime() {
+        Long deadline = DEADLINE.get();
+        return deadline != null ? Duration.ofNanos(Math.max(0, deadline - System.nanoTime())) : null;
+    }
+
+    Duration getTimeout(String endpoint) {
+        String timeout = environment.getProperty("upstream.timeout." + endpoint);
+        return timeout != null ? DurationStyle.detectAndParse(timeout) : defaultTimeout;
+    }
+
+    private CompletableFuture<ResponseEntity<Map<String, Object>>> submit(ThreadPoolExecutor executor, String upstream,
+                                                                           String endpoint,
+                                                                           Supplier<ResponseEntity<Map<String, Object>>> call) {
+        CompletableFuture<ResponseEntity<Map<String, Object>>> result = new CompletableFuture<>();
+        Duration timeout = getTimeout(endpoint);
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                DEADLINE.set(deadline);
+                try {
+                    result.complete(call.get());
+                } catch (RuntimeException e) {
+                    result.complete(error(500, "Error: " + e.getMessage()));
+                } finally {
+                    DEADLINE.remove();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.complete(error(503, "Too many concurrent " + upstream + " requests, please try again later"));
+            return result;
+        }
+
+        ScheduledFuture<?> expiry = timer.schedule(() -> {
+            if (result.complete(error(504, "Request to " + upstream + " timed out after " + timeout.toSeconds() + "s"))) {
+                task.cancel(true);
+            }
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((response, e) -> expiry.cancel(false));
+        return result;
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(int status, String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", message);
+        return ResponseEntity.status(status).body(error);
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads, int queue) {
+        int size = Math.max(1, threads);
+        return new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queue)),
+            runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -0,0 +1,107 @@
+package io.backend.fileservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams stored files and directories to a client as one ZIP archive.
+ * The archive is written straight to the response while it is generated,
+ * with no temporary file and a fixed-size copy buffer, and directories are
+ * walked lazily. Files that are already compressed are added at deflate
+ * level 0 so no CPU is spent trying to shrink them further.
+ */
+@Service
+public class ZipDownloadService {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+        "gz", "tgz", "zip", "bz2", "xz", "zst", "7z", "rar", "lz4", "snappy",
+        "parquet", "orc", "avro", "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "pdf");
+
+    private final FileService fileService;
+    private final int compressionLevel;
+
+    public ZipDownloadService(FileService fileService,
+                              @Value("${download.zip.compression-level:1}") int compressionLevel) {
+        this.fileService = fileService;
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Resolve the requested names before anything is written, so a bad name fails the request up front
+     */
+    public List<Path> resolve(List<String> names) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (String name : names) {
+            paths.add(fileService.resolveStoredFile(name));
+        }
+        return paths;
+    }
+
+    /**
+     * Write the given stored files, and everything under the given directories, as a ZIP archive.
+     * Entry names are the paths relative to the storage directory.
+     */
+    public void writeZip(List<Path> paths, OutputStream out) throws IOException {
+        Path root = fileService.getFileStorageLocation();
+        Set<String> written = new HashSet<>();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+        OutputStream response = new BufferedOutputStream(out, COPY_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                flush(); // The response stream belongs to the container
+            }
+        };
+        try (ZipOutputStream zip = new ZipOutputStream(response)) {
+            for (Path path : paths) {
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> stream = Files.walk(path)) {
+                        Iterator<Path> files = stream.filter(Files::isRegularFile).iterator();
+                        while (files.hasNext()) {
+                            addEntry(zip, root, files.next(), written, buffer);
+                        }
+                    }
+                } else {
+                    addEntry(zip, root, path, written, buffer);
+                }
+            }
+        }
+    }
+
+    private void addEntry(ZipOutputStream zip, Path root, Path file, Set<String> written, byte[] buffer) throws IOException {
+        String name = root.relativize(file).toString().replace("\\", "/");
+        if (!written.add(name)) {
+            return; // Requested both directly and through its directory
+        }
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setLastModifiedTime(Files.getLastModifiedTime(file));
+        zip.setLevel(isCompressed(name) ? Deflater.NO_COMPRESSION : compressionLevel);
+        zip.putNextEntry(entry);
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                zip.write(buffer, 0, read);
+            }
+        }
+        zip.closeEntry();
+    }
+
+    static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,165 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveExtractServiceTests {
+
+	@TempDir
+	Path temp;
+
+	@Test
+	void extractsZipEntriesAndRejectsTraversal() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+			addZipEntry(zip, "data/small.csv", "id\n1\n");
+			addZipEntry(zip, "../escape.txt", "nope");
+			addZipEntry(zip, "large.txt", "x".repeat(5000));
+		}
+
+		ArchiveExtractService service = service(1024);
+		FileController.ImportProgress progress = new FileController.ImportProgress();
+		Map<String, Object> result = service.extract(new ByteArrayInputStream(archive.toByteArray()),
+			"bundle.zip", "bundle", "s3://bucket/bundle.zip", progress);
+
+		assertThat(result.get("extractedFiles")).asList().containsExactlyInAnyOrder("bundle/data/small.csv", "bundle/large.txt");
+		assertThat(result.get("failedFiles")).asList().hasSize(1);
+		assertThat(Files.readString(temp.resolve("storage/bundle/data/small.csv"))).isEqualTo("id\n1\n");
+		assertThat(Files.readString(temp.resolve("storage/bundle/large.txt"))).isEqualTo("x".repeat(5000));
+		assertThat(Files.exists(temp.resolve("escape.txt"))).isFalse();
+		assertThat(progress.total).isEqualTo(3);
+		assertThat(progress.processed).isEqualTo(3);
+	}
+
+	@Test
+	void extractsGzippedTarWithLongNames() throws Exception {
+		String longName = "deep/" + "d".repeat(120) + "/file.csv";
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		addTarEntry(tar, "././@LongLink", 'L', (longName + "\0").getBytes(StandardCharsets.UTF_8));
+		addTarEntry(tar, "ignored", '0', "a,b\n1,2\n".getBytes(StandardCharsets.UTF_8));
+		addTarEntry(tar, "dir/", '5', new byte[0]);
+		addTarEntry(tar, "link", '2', new byte[0]);
+		addTarEntry(tar, "./top.txt", '0', "top".getBytes(StandardCharsets.UTF_8));
+		tar.write(new byte[1024]);
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(tar.toByteArray());
+		}
+
+		Map<String, Object> result = service(1024 * 1024).extract(new ByteArrayInputStream(compressed.toByteArray()),
+			"bundle.tar.gz", "bundle", "s3://bucket/bundle.tar.gz", new FileController.ImportProgress());
+
+		assertThat(result.get("extractedFiles")).asList().containsExactlyInAnyOrder("bundle/" + longName, "bundle/top.txt");
+		assertThat(Files.readString(temp.resolve("storage/bundle/" + longName))).isEqualTo("a,b\n1,2\n");
+		assertThat(Files.readString(temp.resolve("storage/bundle/top.txt"))).isEqualTo("top");
+		assertThat(ArchiveExtractService.targetDirectory("in/bundle.TGZ")).isEqualTo("in/bundle");
+	}
+
+	@Test
+	void appliesPaxAndBase256SizesAndStaysInStep() throws Exception {
+		byte[] csv = "id\n1\n2\n".getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		addTarEntry(tar, "paxheader", 'x', paxRecord("size=" + csv.length));
+		addTarEntry(tar, "pax.csv", '0', csv, 0); // The header's own size is overridden
+		addTarEntry(tar, "gnu.csv", '0', csv, -1);
+		addTarEntry(tar, "after.txt", '0', "after".getBytes(StandardCharsets.UTF_8));
+		tar.write(new byte[1024]);
+
+		Map<String, Object> result = service(1024 * 1024).extract(new ByteArrayInputStream(tar.toByteArray()),
+			"bundle.tar", "bundle", "s3://bucket/bundle.tar", new FileController.ImportProgress());
+
+		assertThat(result.get("extractedFiles")).asList()
+			.containsExactlyInAnyOrder("bundle/pax.csv", "bundle/gnu.csv", "bundle/after.txt");
+		assertThat(Files.readString(temp.resolve("storage/bundle/pax.csv"))).isEqualTo("id\n1\n2\n");
+		assertThat(Files.readString(temp.resolve("storage/bundle/gnu.csv"))).isEqualTo("id\n1\n2\n");
+		assertThat(Files.readString(temp.resolve("storage/bundle/after.txt"))).isEqualTo("after");
+	}
+
+	@Test
+	void readsTheSizeOfEntriesLargerThanOctalAllows() throws Exception {
+		long size = 8L * 1024 * 1024 * 1024 + 3;
+		byte[] header = new byte[512];
+		header[124] = (byte) 0x80;
+		for (int i = 0; i < 8; i++) {
+			header[135 - i] = (byte) (size >>> (8 * i));
+		}
+
+		assertThat(ArchiveExtractService.TarReader.parseNumber(header, 124, 12)).isEqualTo(size);
+		System.arraycopy("00000000017\0".getBytes(StandardCharsets.US_ASCII), 0, header, 124, 12);
+		assertThat(ArchiveExtractService.TarReader.parseNumber(header, 124, 12)).isEqualTo(15);
+	}
+
+	@Test
+	void rejectsOversizedLongNameRecords() {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		byte[] header = new byte[512];
+		System.arraycopy("././@LongLink".getBytes(StandardCharsets.US_ASCII), 0, header, 0, 13);
+		System.arraycopy(String.format("%011o\0", 1L << 32).getBytes(StandardCharsets.US_ASCII), 0, header, 124, 12);
+		header[156] = 'L';
+		tar.writeBytes(header);
+
+		assertThatThrownBy(() -> new ArchiveExtractService.TarReader(new ByteArrayInputStream(tar.toByteArray())).next())
+			.isInstanceOf(IOException.class).hasMessageContaining("too large");
+	}
+
+	private ArchiveExtractService service(int smallEntryBytes) throws Exception {
+		FileService fileService = new FileService(temp.resolve("storage").toString(), new FileSearchIndex(1000));
+		FileMetadataStore metadataStore = new FileMetadataStore(temp.resolve("metadata").toString(), 4096);
+		return new ArchiveExtractService(fileService, metadataStore, 2, smallEntryBytes, 4);
+	}
+
+	private static void addZipEntry(ZipOutputStream zip, String name, String content) throws Exception {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content.getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+	}
+
+	private static void addTarEntry(ByteArrayOutputStream tar, String name, char type, byte[] data) {
+		addTarEntry(tar, name, type, data, data.length);
+	}
+
+	/**
+	 * An entry whose header states the given size, or the real size in base-256 when it is negative
+	 */
+	private static void addTarEntry(ByteArrayOutputStream tar, String name, char type, byte[] data, long headerSize) {
+		byte[] header = new byte[512];
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+		if (headerSize < 0) {
+			header[124] = (byte) 0x80;
+			header[135] = (byte) data.length;
+		} else {
+			byte[] size = String.format("%011o\0", headerSize).getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(size, 0, header, 124, size.length);
+		}
+		header[156] = (byte) type;
+		System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+		tar.writeBytes(header);
+		tar.writeBytes(data);
+		tar.writeBytes(new byte[(512 - data.length % 512) % 512]);
+	}
+
+	private static byte[] paxRecord(String record) {
+		// The length counts itself, the space and the newline
+		int length = record.length() + 2;
+		length += String.valueOf(length + String.valueOf(length).length()).length();
+		return (length + " " + record + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,73 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BackgroundJobsTests {
+
+	@Test
+	void stopsRunningAndQueuedJobsPromptly() throws Exception {
+		BackgroundJobs jobs = new BackgroundJobs(1);
+		FileController.ImportProgress running = new FileController.ImportProgress();
+		FileController.ImportProgress queued = new FileController.ImportProgress();
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean queuedSawInterrupt = new AtomicBoolean();
+		try {
+			Future<?> first = jobs.submit("first", running, () -> {
+				started.countDown();
+				try {
+					Thread.sleep(60_000);
+					running.status = "done";
+				} catch (InterruptedException e) {
+					running.status = "error";
+				}
+			});
+			Future<?> second = jobs.submit("second", queued, () -> queuedSawInterrupt.set(Thread.currentThread().isInterrupted()));
+			assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+			assertThat(jobs.stop("second", BackgroundJobs.PAUSED)).isTrue();
+			assertThat(jobs.stop("first", BackgroundJobs.CANCELLED)).isTrue();
+			first.get(5, TimeUnit.SECONDS);
+			second.get(5, TimeUnit.SECONDS);
+
+			assertThat(running.status).isEqualTo(BackgroundJobs.CANCELLED);
+			assertThat(queued.status).isEqualTo(BackgroundJobs.PAUSED);
+			assertThat(queuedSawInterrupt).isTrue();
+			assertThat(jobs.isRunning("first")).isFalse();
+			assertThat(jobs.stop("first", BackgroundJobs.CANCELLED)).isFalse();
+		} finally {
+			jobs.shutdown();
+		}
+	}
+
+	@Test
+	void refusesAJobWhoseIdIsStillRunning() throws Exception {
+		BackgroundJobs jobs = new BackgroundJobs(2);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean secondRan = new AtomicBoolean();
+		try {
+			Future<?> first = jobs.submit("job", new FileController.ImportProgress(), () -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			assertThat(jobs.submit("job", new FileController.ImportProgress(), () -> secondRan.set(true))).isNull();
+			release.countDown();
+			first.get(5, TimeUnit.SECONDS);
+			assertThat(secondRan).isFalse();
+			jobs.submit("job", new FileController.ImportProgress(), () -> secondRan.set(true)).get(5, TimeUnit.SECONDS);
+			assertThat(secondRan).isTrue();
+		} finally {
+			jobs.shutdown();
+		}
+	}
+}
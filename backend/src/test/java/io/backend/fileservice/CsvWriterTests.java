@@ -0,0 +1,48 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvWriterTests {
+
+	@Test
+	void quotesOnlyFieldsThatNeedIt() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (CsvWriter csv = new CsvWriter(Channels.newChannel(out), 64)) {
+			csv.writeField("plain");
+			csv.writeField("a,b");
+			csv.writeField("say \"hi\"");
+			csv.writeNull();
+			csv.writeLong(-42);
+			csv.writeLong(Long.MIN_VALUE);
+			csv.endRow();
+			csv.writeField("line\nbreak");
+			csv.writeHex(new byte[] {0x0a, (byte) 0xff});
+			csv.endRow();
+		}
+
+		assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(
+			"plain,\"a,b\",\"say \"\"hi\"\"\",,-42,-9223372036854775808\n" +
+			"\"line\nbreak\",\\x0aff\n");
+	}
+
+	@Test
+	void encodesUtf8AcrossBufferBoundaries() throws IOException {
+		String value = "héllo wörld ✓ 𝄞 ".repeat(20);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (CsvWriter csv = new CsvWriter(Channels.newChannel(out), 64)) {
+			csv.writeField(value);
+			csv.endRow();
+			assertThat(csv.getBytesWritten()).isEqualTo(value.getBytes(StandardCharsets.UTF_8).length + 1);
+		}
+
+		assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(value + "\n");
+	}
+
+}
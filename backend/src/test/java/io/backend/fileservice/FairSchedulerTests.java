@@ -0,0 +1,147 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairSchedulerTests {
+
+	@Test
+	void smallJobStartsAtOnceWhileABackfillHoldsTheWorkers() throws Exception {
+		FairScheduler scheduler = new FairScheduler("test", 4, 1, 0, 0);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger backfillRunning = new AtomicInteger();
+		try {
+			FairScheduler.Share backfill = scheduler.register(FairScheduler.weightOf("low"), "etl", "s3://bucket-a");
+			for (int i = 0; i < 100; i++) {
+				backfill.submit(() -> {
+					backfillRunning.incrementAndGet();
+					awaitQuietly(release);
+				});
+			}
+			waitFor(() -> backfillRunning.get() == 3);
+
+			CountDownLatch smallDone = new CountDownLatch(2);
+			FairScheduler.Share small = scheduler.register(FairScheduler.weightOf("normal"), "analyst", "s3://bucket-b");
+			small.submit(smallDone::countDown);
+			small.submit(smallDone::countDown);
+
+			// The reserved worker serves the newcomer although the backfill has 97 tasks queued
+			assertThat(smallDone.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(backfillRunning.get()).isEqualTo(3);
+		} finally {
+			release.countDown();
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	void capsRunningTasksPerUserAcrossJobs() throws Exception {
+		FairScheduler scheduler = new FairScheduler("test", 4, 0, 2, 0);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		try {
+			for (String source : new String[]{"postgres://db-1", "postgres://db-2"}) {
+				FairScheduler.Share share = scheduler.register(4, "reporting", source);
+				for (int i = 0; i < 5; i++) {
+					share.submit(() -> {
+						running.incrementAndGet();
+						awaitQuietly(release);
+					});
+				}
+			}
+			waitFor(() -> running.get() == 2);
+			Thread.sleep(200);
+			assertThat(running.get()).isEqualTo(2);
+		} finally {
+			release.countDown();
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	void sourceHeldOutsideTheWorkersCountsAgainstItsQuota() throws Exception {
+		FairScheduler scheduler = new FairScheduler("test", 4, 0, 0, 3);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		try {
+			scheduler.acquireSource("postgres://db-1");
+			FairScheduler.Share share = scheduler.register(4, "reporting", "postgres://db-1");
+			for (int i = 0; i < 5; i++) {
+				share.submit(() -> {
+					running.incrementAndGet();
+					awaitQuietly(release);
+				});
+			}
+			CountDownLatch otherDone = new CountDownLatch(1);
+			scheduler.register(4, "reporting", "postgres://db-2").submit(otherDone::countDown);
+
+			// The held slot leaves two for the tasks, and the idle worker serves the other database
+			assertThat(otherDone.await(5, TimeUnit.SECONDS)).isTrue();
+			waitFor(() -> running.get() == 2);
+			Thread.sleep(200);
+			assertThat(running.get()).isEqualTo(2);
+
+			scheduler.releaseSource("postgres://db-1");
+			waitFor(() -> running.get() == 3);
+		} finally {
+			release.countDown();
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	void jobGetsNoMoreWorkersThanItsTransferLimitAllows() throws Exception {
+		FairScheduler scheduler = new FairScheduler("test", 4, 0, 0, 0);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger running = new AtomicInteger();
+		try {
+			FairScheduler.Share throttled = scheduler.register(4, "etl", "s3://bucket-a");
+			S3TransferLimiter limiter = new S3TransferLimiter(1, 1, 16, 1, 5, new FileController.ImportProgress());
+			limiter.onLimitChange(throttled::setMaxRunning);
+			for (int i = 0; i < 5; i++) {
+				throttled.submit(() -> {
+					running.incrementAndGet();
+					awaitQuietly(release);
+				});
+			}
+			CountDownLatch otherDone = new CountDownLatch(1);
+			scheduler.register(4, "analyst", "s3://bucket-b").submit(otherDone::countDown);
+
+			// Workers the throttled job could only have waited in stay free for others
+			assertThat(otherDone.await(5, TimeUnit.SECONDS)).isTrue();
+			waitFor(() -> running.get() == 1);
+			Thread.sleep(200);
+			assertThat(running.get()).isEqualTo(1);
+
+			// A request succeeds, the limit grows and another task starts
+			limiter.acquire();
+			limiter.onSuccess(0, 0);
+			waitFor(() -> running.get() == 2);
+		} finally {
+			release.countDown();
+			scheduler.shutdownNow();
+		}
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(condition.getAsBoolean()).isTrue();
+	}
+}
@@ -0,0 +1,36 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FilePreviewServiceTests {
+
+	@TempDir
+	Path temp;
+
+	@Test
+	void readsOnlyTheHeadOfALocalCsv() throws Exception {
+		FileService fileService = new FileService(temp.toString(), new FileSearchIndex(1000));
+		StringBuilder csv = new StringBuilder("id,name\n");
+		for (int i = 0; i < 10000; i++) {
+			csv.append(i).append(",\"row, ").append(i).append("\"\n");
+		}
+		Files.writeString(temp.resolve("big.csv"), csv);
+
+		FilePreviewService service = new FilePreviewService(fileService, null, 1024 * 1024);
+		Map<String, Object> preview = service.previewLocalFile("big.csv", 100, 3, "auto");
+
+		assertThat(preview.get("bytesRead")).isEqualTo(100);
+		assertThat(preview.get("truncated")).isEqualTo(true);
+		assertThat(preview.get("header")).isEqualTo(List.of("id", "name"));
+		assertThat(preview.get("rows")).isEqualTo(List.of(List.of("0", "row, 0"), List.of("1", "row, 1"), List.of("2", "row, 2")));
+	}
+
+}
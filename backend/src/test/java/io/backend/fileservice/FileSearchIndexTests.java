@@ -0,0 +1,213 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileSearchIndexTests {
+
+	private static final String[] FOLDERS = {"", "reports/", "reports/2024/", "reports/2025/", "raw/", "raw/Sales/", "a/b/c/"};
+	private static final String[] STEMS = {"summary", "Sales_Q3", "data", "report-final", "x", "ab", "notes", "Summary-2024"};
+	private static final String[] EXTENSIONS = {".csv", ".CSV", ".json", ".txt", ".tar.gz", "", ".Csv"};
+
+	@Test
+	void findsWhatAScanOfAllNamesFinds() {
+		Random random = new Random(42);
+		FileSearchIndex index = new FileSearchIndex(1_000_000);
+		List<String> stored = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			String path = FOLDERS[random.nextInt(FOLDERS.length)] + STEMS[random.nextInt(STEMS.length)]
+				+ (random.nextBoolean() ? "" : String.valueOf(random.nextInt(50))) + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+			index.add(FileSearchIndex.LOCAL, path);
+			if (!stored.contains(path)) {
+				stored.add(path);
+			}
+		}
+		// Enough removals to compact the index
+		for (int i = 0; i < 1500 && !stored.isEmpty(); i++) {
+			String path = stored.remove(random.nextInt(stored.size()));
+			index.remove(FileSearchIndex.LOCAL, path);
+		}
+
+		String[] queries = {null, "sum", "SALES", "a", "ab", "port-f", "2024", "zzz", "rts/2024/s"};
+		String[] globs = {null, "*.csv", "summary*", "reports/*/*.json", "**/x?.txt", "*.tar.gz", "raw/**", "s*_q?*"};
+		String[] extensions = {null, "csv", ".JSON", "gz", "none"};
+		String[] prefixes = {"", "reports/", "raw/S", "a/b/"};
+		for (String query : queries) {
+			for (String glob : globs) {
+				for (String extension : extensions) {
+					for (String prefix : prefixes) {
+						if (query == null && glob == null && extension == null) {
+							continue;
+						}
+						List<String> expected = stored.stream()
+							.filter(path -> matches(path, prefix, query, glob, extension)).toList();
+						assertThat(searchAll(index, FileSearchIndex.LOCAL, prefix, query, glob, extension, 7))
+							.as("q=%s glob=%s ext=%s prefix=%s", query, glob, extension, prefix)
+							.isEqualTo(expected);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void listsPrefixesInPathOrderPageByPage() {
+		FileSearchIndex index = new FileSearchIndex(1000);
+		for (String path : List.of("b/2.csv", "a.csv", "b/1.csv", "b/c/3.csv", "ba.csv", "b/c/d/4.csv", "bz/5.csv")) {
+			index.add(FileSearchIndex.LOCAL, path);
+		}
+
+		assertThat(searchAll(index, FileSearchIndex.LOCAL, "", null, null, null, 2))
+			.containsExactly("a.csv", "ba.csv", "b/1.csv", "b/2.csv", "b/c/3.csv", "b/c/d/4.csv", "bz/5.csv");
+		assertThat(searchAll(index, FileSearchIndex.LOCAL, "b/", null, null, null, 1))
+			.containsExactly("b/1.csv", "b/2.csv", "b/c/3.csv", "b/c/d/4.csv");
+		assertThat(searchAll(index, FileSearchIndex.LOCAL, "b/c", null, null, null, 3)).containsExactly("b/c/3.csv", "b/c/d/4.csv");
+
+		// ba.csv, then the b/ folder, then bz/
+		Map<String, Object> page = index.search(FileSearchIndex.LOCAL, "b", null, null, null, 3, 2);
+		assertThat(page.get("results")).isEqualTo(List.of("b/c/3.csv", "b/c/d/4.csv"));
+		assertThat(page.get("total")).isEqualTo(6);
+	}
+
+	@Test
+	void listingsReplaceWhatWasIndexedForTheirFolder() {
+		FileSearchIndex index = new FileSearchIndex(1000);
+		String bucket = "s3|key|hash|region|bucket";
+		index.replace(bucket, "data/", List.of("data/a.csv", "data/b.csv"), List.of("data/old/", "data/keep/"));
+		index.replace(bucket, "data/old/", List.of("data/old/x.csv", "data/old/y.csv"), List.of());
+		index.replace(bucket, "data/keep/", List.of("data/keep/z.csv"), List.of());
+
+		// a.csv and the old folder are gone from S3, and a folder marker is listed
+		index.replace(bucket, "data/", List.of("data/b.csv", "data/c.csv", "data/"), List.of("data/keep/"));
+		assertThat(searchAll(index, bucket, "", null, "*.csv", null, 10))
+			.containsExactly("data/b.csv", "data/keep/z.csv", "data/c.csv");
+
+		// A recursive listing replaces everything below its folder
+		index.replace(bucket, "data/keep/", List.of("data/keep/deep/w.csv"), null);
+		assertThat(searchAll(index, bucket, "data/", null, null, "csv", 10))
+			.containsExactly("data/b.csv", "data/c.csv", "data/keep/deep/w.csv");
+		assertThat(index.search("s3|other", "", "csv", null, null, 0, 10).get("total")).isEqualTo(0);
+	}
+
+	@Test
+	void scanDoesNotBringBackFilesRemovedMeanwhile() {
+		FileSearchIndex index = new FileSearchIndex(1000);
+		Iterator<String> scan = List.of("a.csv", "b.csv", "c.csv").iterator();
+		index.load(FileSearchIndex.LOCAL, new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return scan.hasNext();
+			}
+
+			@Override
+			public String next() {
+				String path = scan.next();
+				if (path.equals("b.csv")) {
+					index.remove(FileSearchIndex.LOCAL, "c.csv"); // Deleted after the walk saw it
+					index.add(FileSearchIndex.LOCAL, "d.csv");
+				}
+				return path;
+			}
+		});
+
+		// In index order: d.csv was added before the scan reached b.csv
+		assertThat(searchAll(index, FileSearchIndex.LOCAL, "", null, null, "csv", 10)).containsExactly("a.csv", "d.csv", "b.csv");
+	}
+
+	@Test
+	void dropsLeastRecentlyUsedBucketsOverTheLimit() {
+		FileSearchIndex index = new FileSearchIndex(5);
+		index.add(FileSearchIndex.LOCAL, "local.csv");
+		index.replace("s3|one", "", List.of("1.csv", "2.csv"), List.of());
+		index.replace("s3|two", "", List.of("3.csv", "4.csv"), List.of());
+		index.search("s3|one", "", null, null, null, 0, 1);
+		index.replace("s3|three", "", List.of("5.csv"), List.of());
+
+		assertThat(index.size("s3|two")).isZero();
+		assertThat(index.size("s3|one")).isEqualTo(2);
+		assertThat(index.size(FileSearchIndex.LOCAL)).isEqualTo(1);
+	}
+
+	private static List<String> searchAll(FileSearchIndex index, String namespace, String prefix, String query, String glob,
+										  String extension, int pageSize) {
+		List<String> all = new ArrayList<>();
+		int total;
+		do {
+			Map<String, Object> page = index.search(namespace, prefix, query, glob, extension, all.size(), pageSize);
+			@SuppressWarnings("unchecked")
+			List<String> results = (List<String>) page.get("results");
+			total = (Integer) page.get("total");
+			all.addAll(results);
+			if (results.isEmpty()) {
+				break;
+			}
+		} while (all.size() < total);
+		assertThat(all).hasSize(total);
+		return all;
+	}
+
+	/**
+	 * The documented query semantics, applied by brute force
+	 */
+	private static boolean matches(String path, String prefix, String query, String glob, String extension) {
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		if (!path.startsWith(prefix)) {
+			return false;
+		}
+		if (query != null) {
+			String target = query.contains("/") ? path : name;
+			if (!target.toLowerCase(Locale.ROOT).contains(query.toLowerCase(Locale.ROOT))) {
+				return false;
+			}
+		}
+		if (glob != null && !globMatches(glob.toLowerCase(Locale.ROOT), (glob.contains("/") ? path : name).toLowerCase(Locale.ROOT))) {
+			return false;
+		}
+		if (extension != null) {
+			String wanted = extension.startsWith(".") ? extension.substring(1) : extension;
+			int dot = name.lastIndexOf('.');
+			if (dot <= 0 || !name.substring(dot + 1).equalsIgnoreCase(wanted)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean globMatches(String glob, String text) {
+		if (glob.isEmpty()) {
+			return text.isEmpty();
+		}
+		if (glob.startsWith("**/")) {
+			for (int i = 0; i <= text.length(); i++) {
+				if ((i == 0 || text.charAt(i - 1) == '/') && globMatches(glob.substring(3), text.substring(i))) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (glob.startsWith("**") || glob.startsWith("*")) {
+			boolean crossFolders = glob.startsWith("**");
+			String rest = glob.substring(crossFolders ? 2 : 1);
+			for (int i = 0; i <= text.length(); i++) {
+				if (globMatches(rest, text.substring(i))) {
+					return true;
+				}
+				if (i < text.length() && text.charAt(i) == '/' && !crossFolders) {
+					return false;
+				}
+			}
+			return false;
+		}
+		if (text.isEmpty()) {
+			return false;
+		}
+		char c = glob.charAt(0);
+		if (c == '?' ? text.charAt(0) == '/' : c != text.charAt(0)) {
+			return false;
+		}
+		return globMatches(glob.substring(1), text.substring(1));
+	}
+}
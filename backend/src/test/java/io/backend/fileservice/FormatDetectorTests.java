@@ -0,0 +1,71 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FormatDetectorTests {
+
+	@Test
+	void infersDelimiterHeaderAndColumnTypesFromASample() {
+		StringBuilder csv = new StringBuilder("id;price;active;day;note\n");
+		for (int i = 0; i < 5000; i++) {
+			csv.append(i).append(';').append(i).append(".5;true;2024-01-0").append(i % 9 + 1)
+				.append(';').append(i % 2 == 0 ? "\"a; b\"" : "").append('\n');
+		}
+		Map<String, Object> schema = detect(csv.toString().getBytes(StandardCharsets.UTF_8), 4096);
+
+		assertThat(schema.get("format")).isEqualTo("csv");
+		assertThat(schema.get("delimiter")).isEqualTo(";");
+		assertThat(schema.get("quoted")).isEqualTo(true);
+		assertThat(schema.get("hasHeader")).isEqualTo(true);
+		assertThat(schema.get("columns")).isEqualTo(List.of(
+			Map.of("name", "id", "type", "integer", "nullable", false),
+			Map.of("name", "price", "type", "decimal", "nullable", false),
+			Map.of("name", "active", "type", "boolean", "nullable", false),
+			Map.of("name", "day", "type", "date", "nullable", false),
+			Map.of("name", "note", "type", "string", "nullable", true)));
+	}
+
+	@Test
+	void detectsNdjsonInsideGzip() throws Exception {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			for (int i = 0; i < 100; i++) {
+				gzip.write(("{\"id\":" + i + ",\"name\":" + (i == 3 ? "null" : "\"n" + i + "\"") + "}\n")
+					.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		Map<String, Object> schema = detect(compressed.toByteArray(), 1024 * 1024);
+
+		assertThat(schema.get("compression")).isEqualTo("gzip");
+		assertThat(schema.get("format")).isEqualTo("ndjson");
+		assertThat(schema.get("columns")).isEqualTo(List.of(
+			Map.of("name", "id", "type", "integer", "nullable", false),
+			Map.of("name", "name", "type", "string", "nullable", true)));
+	}
+
+	@Test
+	void recognisesParquetAndJsonDocuments() {
+		assertThat(detect("PAR1\0\0\0".getBytes(StandardCharsets.UTF_8), 1024).get("format")).isEqualTo("parquet");
+		assertThat(detect("[{\"a\": 1}]".getBytes(StandardCharsets.UTF_8), 1024).get("format")).isEqualTo("json");
+	}
+
+	/**
+	 * Feed the bytes in small writes, as an import copy loop would
+	 */
+	private Map<String, Object> detect(byte[] bytes, int sampleLimit) {
+		FormatDetector detector = new FormatDetector(sampleLimit);
+		for (int offset = 0; offset < bytes.length; offset += 100) {
+			detector.update(bytes, offset, Math.min(100, bytes.length - offset));
+		}
+		return detector.detect();
+	}
+
+}
@@ -0,0 +1,75 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JobJournalTests {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void replaysFinishedItemsAndCheckpointsAfterARestart() throws Exception {
+		Path partialFile = Files.writeString(dir.resolve("big.csv.importing"), "0123456789");
+		S3Request request = new S3Request();
+		request.setBucket("bucket");
+		request.setFiles(List.of("a.csv", "big.csv", "c.csv"));
+
+		JobJournal journal = new JobJournal(dir.resolve("journal").toString(), 4);
+		JobJournal.Job job = journal.create("job-1", S3ImportService.JOB_TYPE, request);
+		job.done("a.csv");
+		job.checkpoint("big.csv", partialFile.toString(), 4, "\"etag\"");
+		job.checkpoint("big.csv", partialFile.toString(), 8, "\"etag\"");
+		job.close();
+		// The process died while writing a line
+		Path journalFile;
+		try (Stream<Path> files = Files.list(dir.resolve("journal"))) {
+			journalFile = files.findFirst().orElseThrow();
+		}
+		Files.writeString(journalFile, "{\"done\":\"c.c", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		List<JobJournal.Job> resumed = new JobJournal(dir.resolve("journal").toString(), 4).loadUnfinished(S3ImportService.JOB_TYPE);
+
+		assertThat(resumed).hasSize(1);
+		JobJournal.Job restored = resumed.get(0);
+		assertThat(restored.getId()).isEqualTo("job-1");
+		assertThat(restored.getDefinition(S3Request.class).getFiles()).containsExactly("a.csv", "big.csv", "c.csv");
+		assertThat(restored.isDone("a.csv")).isTrue();
+		assertThat(restored.isDone("c.csv")).isFalse();
+		assertThat(restored.getPartial("big.csv")).isEqualTo(new JobJournal.Partial(partialFile.toString(), 8, "\"etag\""));
+
+		// Appends after the torn line still replay, and finishing removes the journal and leftover partials
+		restored.done("c.csv");
+		assertThat(new JobJournal(dir.resolve("journal").toString(), 4).loadUnfinished(S3ImportService.JOB_TYPE).get(0)
+			.isDone("c.csv")).isTrue();
+		restored.finish();
+		assertThat(partialFile).doesNotExist();
+		assertThat(journalFile).doesNotExist();
+	}
+
+	@Test
+	void pausedJobsStayPausedAcrossARestartUntilResumed() throws Exception {
+		S3Request request = new S3Request();
+		request.setBucket("bucket");
+		request.setFiles(List.of("a.csv"));
+
+		JobJournal.Job job = new JobJournal(dir.toString(), 4).create("job-1", S3ImportService.JOB_TYPE, request);
+		job.setPaused(true);
+		job.close();
+
+		JobJournal.Job restored = new JobJournal(dir.toString(), 4).loadUnfinished(S3ImportService.JOB_TYPE).get(0);
+		assertThat(restored.isPaused()).isTrue();
+		restored.setPaused(false);
+		restored.close();
+		assertThat(new JobJournal(dir.toString(), 4).load("job-1", S3ImportService.JOB_TYPE).isPaused()).isFalse();
+	}
+}
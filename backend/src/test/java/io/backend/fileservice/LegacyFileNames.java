@@ -0,0 +1,65 @@
+package io.backend.fileservice;
+
+/**
+ * The file name check FileService used before {@link SafeFileNames}, kept as
+ * the reference the new check must agree with and as the benchmark baseline.
+ */
+final class LegacyFileNames {
+
+	private LegacyFileNames() {
+	}
+
+	static boolean isValid(String fileName) {
+		if (fileName == null || fileName.isEmpty()) {
+			return false;
+		}
+
+		String normalized = fileName.replace("\\", "/").toLowerCase();
+
+		String[] dangerousPatterns = {
+			"..", "....", "%2e%2e", "%252e%252e", "..%2f", "%2e%2e%2f", "..%5c", "%2e%2e%5c", "..\\",
+			"..%c0%af", "..%c1%9c", "..%ef%bc%8f", "..%c0%2f", "..%c0%5c", "..%00", "..%0d", "..%0a",
+			"..%09", "..%20", "..%7f", "..%ff"
+		};
+		for (String pattern : dangerousPatterns) {
+			if (normalized.contains(pattern)) {
+				return false;
+			}
+		}
+
+		if (fileName.startsWith("/") || fileName.startsWith("\\") ||
+			(fileName.length() > 2 && fileName.charAt(1) == ':')) {
+			return false;
+		}
+
+		for (char c : fileName.toCharArray()) {
+			if (Character.isISOControl(c)) {
+				return false;
+			}
+		}
+
+		String[] reservedChars = {"<", ">", ":", "\"", "|", "?", "*"};
+		for (String reserved : reservedChars) {
+			if (fileName.contains(reserved)) {
+				return false;
+			}
+		}
+
+		String[] reservedNames = {
+			"CON", "PRN", "AUX", "NUL",
+			"COM1", "COM2", "COM3", "COM4", "COM5", "COM6", "COM7", "COM8", "COM9",
+			"LPT1", "LPT2", "LPT3", "LPT4", "LPT5", "LPT6", "LPT7", "LPT8", "LPT9"
+		};
+		String nameWithoutExtension = fileName;
+		int lastDot = fileName.lastIndexOf('.');
+		if (lastDot > 0) {
+			nameWithoutExtension = fileName.substring(0, lastDot);
+		}
+		for (String reserved : reservedNames) {
+			if (nameWithoutExtension.equalsIgnoreCase(reserved)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,124 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalImportServiceTests {
+
+	@TempDir
+	Path temp;
+
+	@Test
+	void copiesDirectoriesAndRejectsPathsOutsideAllowedRoots() throws Exception {
+		Path source = Files.createDirectories(temp.resolve("share/dataset/nested"));
+		Files.writeString(source.resolve("a.csv"), "id\n1\n");
+		Files.writeString(source.getParent().resolve("b.csv"), "id\n2\n");
+		Path outside = Files.writeString(temp.resolve("secret.txt"), "nope");
+
+		FileService fileService = new FileService(temp.resolve("uploads").toString(), new FileSearchIndex(1000));
+		LocalImportService service = new LocalImportService(fileService, temp.resolve("share").toString(), "copy", 2);
+		try {
+			FileController.ImportProgress progress = new FileController.ImportProgress();
+			service.importPaths(List.of("dataset", outside.toString()), progress);
+
+			assertThat(fileService.getFileStorageLocation().resolve("dataset/nested/a.csv")).hasContent("id\n1");
+			assertThat(fileService.getFileStorageLocation().resolve("dataset/b.csv")).hasContent("id\n2");
+			assertThat(fileService.getFileStorageLocation().resolve("secret.txt")).doesNotExist();
+			assertThat(progress.total).isEqualTo(3);
+			assertThat(progress.processed).isEqualTo(3);
+			assertThat(progress.bytesProcessed).isEqualTo(10);
+			assertThat(progress.status).isEqualTo("error");
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	void sourcesStoredUnderTheSameNameDoNotShareATemporaryFile() throws Exception {
+		Path first = Files.createDirectories(temp.resolve("share/a/data"));
+		Path second = Files.createDirectories(temp.resolve("share/b/data"));
+		Files.write(first.resolve("big.bin"), new byte[8 * 1024 * 1024]);
+		byte[] other = new byte[8 * 1024 * 1024];
+		Arrays.fill(other, (byte) 1);
+		Files.write(second.resolve("big.bin"), other);
+
+		FileService fileService = new FileService(temp.resolve("uploads").toString(), new FileSearchIndex(1000));
+		LocalImportService service = new LocalImportService(fileService, temp.resolve("share").toString(), "copy", 4);
+		try {
+			FileController.ImportProgress progress = new FileController.ImportProgress();
+			service.importPaths(List.of("a/data", "b/data"), progress);
+
+			// Whichever copy finished last, the stored file is one of the sources, whole
+			byte[] stored = Files.readAllBytes(fileService.getFileStorageLocation().resolve("data/big.bin"));
+			assertThat(stored).satisfiesAnyOf(
+				bytes -> assertThat(bytes).isEqualTo(Files.readAllBytes(first.resolve("big.bin"))),
+				bytes -> assertThat(bytes).isEqualTo(other));
+			assertThat(progress.status).isEqualTo("done");
+			try (Stream<Path> files = Files.list(fileService.getFileStorageLocation().resolve("data"))) {
+				assertThat(files).noneMatch(file -> file.toString().endsWith(".importing"));
+			}
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test
+	void cancelledImportStopsCopyingAndLeavesNoTemporaryFiles() throws Exception {
+		Path source = Files.createDirectories(temp.resolve("share/dataset"));
+		for (int i = 0; i < 2000; i++) {
+			Files.write(source.resolve("file-" + i + ".bin"), new byte[64 * 1024]);
+		}
+
+		FileService fileService = new FileService(temp.resolve("uploads").toString(), new FileSearchIndex(1000));
+		LocalImportService service = new LocalImportService(fileService, temp.resolve("share").toString(), "copy", 2);
+		Path imported = fileService.getFileStorageLocation().resolve("dataset");
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread job = new Thread(() -> {
+			try {
+				service.importPaths(List.of("dataset"), new FileController.ImportProgress());
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		try {
+			job.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (count(imported) == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			job.interrupt();
+			job.join(5000);
+
+			assertThat(job.isAlive()).isFalse();
+			assertThat(failure.get()).hasMessage("Import interrupted");
+			// Copies in flight have ended, so nothing is written after the import returns
+			long stored = count(imported);
+			Thread.sleep(200);
+			assertThat(count(imported)).isEqualTo(stored).isLessThan(2000);
+			try (Stream<Path> files = Files.list(imported)) {
+				assertThat(files).noneMatch(file -> file.toString().endsWith(".importing"));
+			}
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	private static long count(Path directory) throws Exception {
+		if (!Files.isDirectory(directory)) {
+			return 0;
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+
+}
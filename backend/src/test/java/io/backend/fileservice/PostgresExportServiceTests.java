@@ -0,0 +1,278 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static io.backend.fileservice.PostgresServiceTests.proxy;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PostgresExportServiceTests {
+
+	private static final String SNAPSHOT = "00000003-0000001B-1";
+
+	@TempDir
+	Path storage;
+
+	private PostgresExportService exportService;
+
+	@AfterEach
+	void shutdown() {
+		if (exportService != null) {
+			exportService.shutdown();
+		}
+	}
+
+	@Test
+	void splitsLargeTablesIntoBlockRangesAndStitchesThemInOrder() throws Exception {
+		FakeDatabase database = new FakeDatabase(16);
+		database.tables.put("public.orders", 95L); // Ten pages of ten rows
+		FileController.ImportProgress progress = new FileController.ImportProgress();
+
+		export(database, 3).exportTables(request("orders"), progress);
+
+		assertThat(progress.status).isEqualTo("done");
+		assertThat(database.blockRanges).containsExactlyInAnyOrder("0-3", "3-6", "6-9", "9-");
+		assertThat(Files.readString(storage.resolve("orders.csv"))).isEqualTo(csv(0, 95));
+		try (Stream<Path> files = Files.list(storage)) {
+			assertThat(files.map(file -> file.getFileName().toString())).containsExactly("orders.csv");
+		}
+	}
+
+	@Test
+	void everyConnectionReadsTheOneExportedSnapshot() throws Exception {
+		FakeDatabase database = new FakeDatabase(16);
+		database.tables.put("public.orders", 95L);
+		database.tables.put("public.customers", 5L);
+
+		export(database, 3).exportTables(request("orders", "customers"), new FileController.ImportProgress());
+
+		assertThat(database.snapshotsExported.get()).isEqualTo(1);
+		// Four chunks of orders and one customers task, each on its own connection
+		assertThat(database.snapshotsSet).hasSize(5).allMatch(("'" + SNAPSHOT + "'")::equals);
+		assertThat(Files.readString(storage.resolve("customers.csv"))).isEqualTo(csv(0, 5));
+	}
+
+	@Test
+	void serversBeforeTidRangeScansReadTablesWhole() throws Exception {
+		FakeDatabase database = new FakeDatabase(13);
+		database.tables.put("public.orders", 95L);
+
+		export(database, 3).exportTables(request("orders"), new FileController.ImportProgress());
+
+		assertThat(database.blockRanges).isEmpty();
+		assertThat(database.tableQueries.get()).isEqualTo(1);
+		assertThat(Files.readString(storage.resolve("orders.csv"))).isEqualTo(csv(0, 95));
+	}
+
+	@Test
+	void stopCancelsRunningQueriesAndRemovesPartialOutput() throws Exception {
+		FakeDatabase database = new FakeDatabase(16);
+		database.tables.put("public.orders", 95L);
+		database.hangAfterFirstChunk = true;
+		PostgresExportService service = export(database, 3);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread job = new Thread(() -> {
+			try {
+				service.exportTables(request("orders"), new FileController.ImportProgress());
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+
+		job.start();
+		assertThat(database.hanging.await(5, TimeUnit.SECONDS)).as("blocked chunks, export failed with %s", failure).isTrue();
+		// The first chunk is written while the others wait in the database
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!Files.exists(storage.resolve("orders.csv.part0")) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(storage.resolve("orders.csv.part0")).exists();
+		job.interrupt();
+		job.join(5000);
+
+		assertThat(job.isAlive()).isFalse();
+		assertThat(failure.get()).hasMessage("Export interrupted");
+		assertThat(database.cancelled.get()).isEqualTo(3);
+		try (Stream<Path> files = Files.list(storage)) {
+			assertThat(files).isEmpty();
+		}
+	}
+
+	private PostgresExportService export(FakeDatabase database, long chunkPages) throws IOException {
+		FileService fileService = new FileService(storage.toString(), new FileSearchIndex(1000));
+		exportService = new PostgresExportService(database.service(), fileService, null, 4, 8, chunkPages, 0, 0, 0);
+		return exportService;
+	}
+
+	private static PostgresRequest request(String... tables) {
+		PostgresRequest request = new PostgresRequest();
+		request.setHost("db");
+		request.setPort(5432);
+		request.setDatabase("shop");
+		request.setUsername("reader");
+		request.setTables(List.of(tables));
+		return request;
+	}
+
+	private static String csv(long first, long end) {
+		return "id\n" + LongStream.range(first, end).mapToObj(id -> id + "\n").collect(Collectors.joining());
+	}
+
+	/**
+	 * Tables of ids laid out ten rows to a page, answering the catalog, snapshot and ctid range
+	 * statements of an export and recording how they were used
+	 */
+	static class FakeDatabase {
+		static final int ROWS_PER_PAGE = 10;
+
+		final int majorVersion;
+		final Map<String, Long> tables = new ConcurrentHashMap<>();
+		final AtomicInteger snapshotsExported = new AtomicInteger();
+		final Queue<String> snapshotsSet = new ConcurrentLinkedQueue<>();
+		final Queue<String> blockRanges = new ConcurrentLinkedQueue<>();
+		final AtomicInteger tableQueries = new AtomicInteger();
+		final AtomicInteger cancelled = new AtomicInteger();
+		final CountDownLatch hanging = new CountDownLatch(3);
+		volatile boolean hangAfterFirstChunk;
+
+		FakeDatabase(int majorVersion) {
+			this.majorVersion = majorVersion;
+		}
+
+		PostgresService service() {
+			return new PostgresService(1000, "") {
+				@Override
+				Connection createConnection(PostgresRequest request) {
+					return connection();
+				}
+			};
+		}
+
+		private Connection connection() {
+			DatabaseMetaData meta = proxy(DatabaseMetaData.class, (method, args) ->
+				method.equals("getDatabaseMajorVersion") ? majorVersion : null);
+			return proxy(Connection.class, (method, args) -> switch (method) {
+				case "getMetaData" -> meta;
+				case "createStatement" -> statement(null);
+				case "prepareStatement" -> statement((String) args[0]);
+				default -> null;
+			});
+		}
+
+		private PreparedStatement statement(String preparedSql) {
+			Map<Integer, Object> parameters = new HashMap<>();
+			CountDownLatch cancel = new CountDownLatch(1);
+			return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+				case "setString", "setObject" -> parameters.put((Integer) args[0], args[1]);
+				case "execute" -> {
+					String sql = (String) args[0];
+					if (sql.startsWith("SET TRANSACTION SNAPSHOT ")) {
+						snapshotsSet.add(sql.substring("SET TRANSACTION SNAPSHOT ".length()));
+					}
+					yield false;
+				}
+				case "cancel" -> {
+					cancelled.incrementAndGet();
+					cancel.countDown();
+					yield null;
+				}
+				case "executeQuery" -> query(args != null ? (String) args[0] : preparedSql, parameters, cancel);
+				default -> null;
+			});
+		}
+
+		private ResultSet query(String sql, Map<Integer, Object> parameters, CountDownLatch cancel) throws SQLException {
+			if (sql.contains("pg_export_snapshot()")) {
+				snapshotsExported.incrementAndGet();
+				return rows(List.of(SNAPSHOT));
+			}
+			if (sql.contains("FROM pg_class")) {
+				Long rows = tables.get(parameters.get(1) + "." + parameters.get(2));
+				long pages = rows == null ? 0 : (rows + ROWS_PER_PAGE - 1) / ROWS_PER_PAGE;
+				return rows == null ? rows(List.of()) : rows(List.of(pages * 8192, pages, "r"));
+			}
+
+			tableQueries.incrementAndGet();
+			String table = sql.substring(sql.indexOf("FROM \"") + 6).split("\"", 4)[2];
+			long first = 0;
+			long end = tables.get("public." + table);
+			if (sql.contains("ctid >= ?")) {
+				long startBlock = block(parameters.get(1));
+				long endBlock = sql.contains("ctid < ?") ? block(parameters.get(2)) : -1;
+				blockRanges.add(startBlock + "-" + (endBlock >= 0 ? endBlock : ""));
+				first = startBlock * ROWS_PER_PAGE;
+				if (endBlock >= 0) {
+					end = Math.min(end, endBlock * ROWS_PER_PAGE);
+				}
+				if (hangAfterFirstChunk && startBlock > 0) {
+					hanging.countDown();
+					// Like a socket read, only a cancel request ends the wait
+					boolean interrupted = false;
+					while (cancel.getCount() > 0) {
+						try {
+							cancel.await();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+					throw new SQLException("canceling statement due to user request");
+				}
+			}
+			return ids(first, end);
+		}
+
+		private static long block(Object ctid) {
+			String text = String.valueOf(ctid);
+			return Long.parseLong(text.substring(1, text.indexOf(',')));
+		}
+
+		/**
+		 * One row of catalog values, or none
+		 */
+		private static ResultSet rows(List<Object> row) {
+			boolean[] read = {false};
+			return proxy(ResultSet.class, (method, args) -> switch (method) {
+				case "next" -> !row.isEmpty() && !read[0] && (read[0] = true);
+				case "getString" -> String.valueOf(row.get((Integer) args[0] - 1));
+				case "getLong" -> ((Number) row.get((Integer) args[0] - 1)).longValue();
+				default -> null;
+			});
+		}
+
+		private static ResultSet ids(long first, long end) {
+			ResultSetMetaData meta = proxy(ResultSetMetaData.class, (method, args) -> switch (method) {
+				case "getColumnCount" -> 1;
+				case "getColumnName" -> "id";
+				case "getColumnType" -> Types.BIGINT;
+				case "getColumnTypeName" -> "int8";
+				default -> null;
+			});
+			long[] id = {first - 1};
+			return proxy(ResultSet.class, (method, args) -> switch (method) {
+				case "next" -> ++id[0] < end;
+				case "getMetaData" -> meta;
+				case "getLong" -> id[0];
+				default -> null;
+			});
+		}
+	}
+}
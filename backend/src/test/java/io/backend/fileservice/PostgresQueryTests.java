@@ -0,0 +1,66 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PostgresQueryTests {
+
+	@Test
+	void quotesIdentifiersAndBindsValues() throws SQLException {
+		PostgresRequest.Filter filter = new PostgresRequest.Filter();
+		filter.setColumn("created_at");
+		filter.setOperator(">=");
+		filter.setValue("2024-01-01");
+
+		PostgresRequest.Order order = new PostgresRequest.Order();
+		order.setColumn("id");
+		order.setDescending(true);
+
+		PostgresQuery query = PostgresQuery.select("public", "Orders", List.of("id", "total\"; DROP TABLE x; --"))
+			.where(List.of(filter))
+			.orderBy(List.of(order))
+			.limit(10);
+
+		assertThat(query.getSql()).isEqualTo(
+			"SELECT \"id\", \"total\"\"; DROP TABLE x; --\" FROM \"public\".\"Orders\"" +
+			" WHERE \"created_at\" >= ? ORDER BY \"id\" DESC LIMIT ?");
+		assertThat(query.getParameters()).containsExactly("2024-01-01", 10);
+	}
+
+	@Test
+	void selectsAllColumnsWhenNoProjectionGiven() throws SQLException {
+		PostgresRequest.Filter between = new PostgresRequest.Filter();
+		between.setColumn("amount");
+		between.setOperator("between");
+		between.setValues(List.of(1, 5));
+
+		PostgresRequest.Filter isNull = new PostgresRequest.Filter();
+		isNull.setColumn("deleted_at");
+		isNull.setOperator("IS NULL");
+
+		PostgresQuery query = PostgresQuery.select("s", "t", null)
+			.tableSample("SYSTEM", 2.5)
+			.where(List.of(between, isNull));
+
+		assertThat(query.getSql()).isEqualTo(
+			"SELECT * FROM \"s\".\"t\" TABLESAMPLE SYSTEM (?) WHERE \"amount\" BETWEEN ? AND ? AND \"deleted_at\" IS NULL");
+		assertThat(query.getParameters()).containsExactly(2.5, "1", "5");
+	}
+
+	@Test
+	void rejectsUnknownOperators() {
+		PostgresRequest.Filter filter = new PostgresRequest.Filter();
+		filter.setColumn("id");
+		filter.setOperator("= 1 OR 1 =");
+		filter.setValue("1");
+
+		assertThatThrownBy(() -> PostgresQuery.select("s", "t", null).where(filter))
+			.isInstanceOf(SQLException.class);
+	}
+
+}
@@ -0,0 +1,206 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PostgresServiceTests {
+
+	@Test
+	void sampleDrawsRowsWithTableSampleThroughACursor() throws Exception {
+		FakeDatabase database = new FakeDatabase(10_000);
+		PostgresRequest request = request();
+		request.setSampleMethod("bernoulli");
+
+		Map<String, Object> sample = database.service().getTableSample(request, "orders", 5);
+
+		assertThat((List<?>) sample.get("rows")).hasSize(5);
+		assertThat(sample.get("sampleMethod")).isEqualTo("BERNOULLI");
+		assertThat(sample.get("samplePercent")).isEqualTo(0.1); // Twice the limit out of 10,000 estimated rows
+		assertThat(database.tableQuery).isEqualTo("SELECT * FROM \"public\".\"orders\" TABLESAMPLE BERNOULLI (?) LIMIT ?");
+		assertThat(database.fetchSize).isEqualTo(5);
+		assertThat(database.autoCommit).isFalse();
+		assertThat(database.rowsRead).isEqualTo(5);
+	}
+
+	@Test
+	void sampleTakesTheFirstRowsWithoutASampleMethod() throws Exception {
+		FakeDatabase database = new FakeDatabase(10_000);
+
+		Map<String, Object> sample = database.service().getTableSample(request(), "orders", 3);
+
+		assertThat((List<?>) sample.get("rows")).hasSize(3);
+		assertThat(sample).doesNotContainKey("samplePercent");
+		assertThat(database.tableQuery).isEqualTo("SELECT * FROM \"public\".\"orders\" LIMIT ?");
+		assertThat(database.catalogQueries).isZero();
+		assertThat(database.autoCommit).isFalse();
+	}
+
+	@Test
+	void streamsEveryRowToTheConsumerAsItIsRead() throws Exception {
+		FakeDatabase database = new FakeDatabase(10_000);
+		List<Integer> seenWhileReading = new ArrayList<>();
+
+		database.service().streamTableSample(request(), "public", "orders", 4, new PostgresService.SampleConsumer() {
+			@Override
+			public void columns(ResultSetMetaData meta) throws SQLException {
+				assertThat(meta.getColumnCount()).isEqualTo(2);
+			}
+
+			@Override
+			public void row(Object[] row) {
+				seenWhileReading.add(database.rowsRead);
+			}
+		});
+
+		assertThat(seenWhileReading).containsExactly(1, 2, 3, 4);
+	}
+
+	@Test
+	void previewReadsSchemaAndSampleOverOneConnection() throws Exception {
+		FakeDatabase database = new FakeDatabase(10_000);
+
+		Map<String, Object> preview = database.service().getTablePreview(request(), "orders", 2);
+
+		assertThat(database.connections).isEqualTo(1);
+		assertThat(preview.get("schema").toString()).contains("name=id", "type=integer");
+		assertThat((List<?>) ((Map<?, ?>) preview.get("sample")).get("rows")).hasSize(2);
+	}
+
+	private static PostgresRequest request() {
+		PostgresRequest request = new PostgresRequest();
+		request.setHost("db");
+		request.setPort(5432);
+		request.setDatabase("shop");
+		request.setUsername("reader");
+		request.setPassword("secret");
+		return request;
+	}
+
+	/**
+	 * Answers the catalog estimate and a two-column table scan, recording how the table was read
+	 */
+	static class FakeDatabase {
+		final double estimatedRows;
+		String tableQuery;
+		int catalogQueries;
+		int connections;
+		int fetchSize;
+		int rowsRead;
+		boolean autoCommit = true;
+
+		FakeDatabase(double estimatedRows) {
+			this.estimatedRows = estimatedRows;
+		}
+
+		PostgresService service() {
+			return new PostgresService(1000, "") {
+				@Override
+				Connection createConnection(PostgresRequest request) {
+					connections++;
+					return connection();
+				}
+			};
+		}
+
+		private Connection connection() {
+			return proxy(Connection.class, (method, args) -> switch (method) {
+				case "setAutoCommit" -> {
+					autoCommit = (Boolean) args[0];
+					yield null;
+				}
+				case "prepareStatement" -> statement((String) args[0]);
+				default -> null;
+			});
+		}
+
+		private PreparedStatement statement(String sql) {
+			Map<Integer, Object> parameters = new HashMap<>();
+			return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+				case "setString", "setObject" -> parameters.put((Integer) args[0], args[1]);
+				case "setFetchSize" -> {
+					fetchSize = (Integer) args[0];
+					yield null;
+				}
+				case "executeQuery" -> {
+					if (sql.contains("information_schema")) {
+						yield columns();
+					}
+					if (sql.contains("FROM pg_class")) {
+						catalogQueries++;
+						yield catalog();
+					}
+					tableQuery = sql;
+					yield rows((Integer) parameters.get(parameters.size()));
+				}
+				default -> null;
+			});
+		}
+
+		private ResultSet catalog() {
+			boolean[] read = {false};
+			return proxy(ResultSet.class, (method, args) -> switch (method) {
+				case "next" -> !read[0] && (read[0] = true);
+				case "getString" -> "r";
+				case "getDouble" -> estimatedRows;
+				default -> null;
+			});
+		}
+
+		private ResultSet columns() {
+			boolean[] read = {false};
+			return proxy(ResultSet.class, (method, args) -> switch (method) {
+				case "next" -> !read[0] && (read[0] = true);
+				case "getString" -> switch ((String) args[0]) {
+					case "column_name" -> "id";
+					case "data_type" -> "integer";
+					case "is_nullable" -> "NO";
+					default -> null;
+				};
+				default -> null;
+			});
+		}
+
+		private ResultSet rows(int limit) {
+			ResultSetMetaData meta = proxy(ResultSetMetaData.class, (method, args) -> switch (method) {
+				case "getColumnCount" -> 2;
+				case "getColumnName" -> (Integer) args[0] == 1 ? "id" : "status";
+				case "getColumnTypeName" -> (Integer) args[0] == 1 ? "int4" : "text";
+				case "isNullable" -> ResultSetMetaData.columnNullable;
+				default -> null;
+			});
+			return proxy(ResultSet.class, (method, args) -> switch (method) {
+				case "next" -> rowsRead < limit && ++rowsRead > 0;
+				case "getMetaData" -> meta;
+				case "getObject" -> (Integer) args[0] == 1 ? rowsRead : "paid";
+				default -> null;
+			});
+		}
+	}
+
+	interface Answer {
+		Object answer(String method, Object[] args) throws SQLException;
+	}
+
+	/**
+	 * A JDBC object that answers by method name; anything else returns the zero value of its type
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T proxy(Class<T> type, Answer answer) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object result = answer.answer(method.getName(), args);
+			Class<?> returnType = method.getReturnType();
+			if (result != null || !returnType.isPrimitive() || returnType == void.class) {
+				return result;
+			}
+			if (returnType == boolean.class) {
+				return false;
+			}
+			return returnType == double.class ? (Object) 0.0 : returnType == long.class ? (Object) 0L : (Object) 0;
+		});
+	}
+}
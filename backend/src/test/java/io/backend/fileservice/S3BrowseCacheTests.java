@@ -0,0 +1,65 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3BrowseCacheTests {
+
+	@Test
+	void coalescesConcurrentListingsAndScopesThemByCredentials() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		S3Service s3Service = new S3Service(null, null, null, null, 8, 4, 1, 900, 4, 5, 100, 20000, "", false) {
+			@Override
+			public Map<String, Object> listS3Contents(S3Request s3Request) {
+				calls.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return Map.of("files", List.of(s3Request.getPath() + "a.csv"));
+			}
+		};
+		S3BrowseCache cache = new S3BrowseCache(s3Service, new FileSearchIndex(1000), 60, 1024 * 1024);
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+
+		try {
+			List<Future<Map<String, Object>>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(callers.submit(() -> cache.listS3Contents(request("secret"))));
+			}
+			Thread.sleep(200); // Let every caller reach the cache
+			release.countDown();
+			for (Future<Map<String, Object>> result : results) {
+				assertThat(result.get(5, TimeUnit.SECONDS).get("files")).isEqualTo(List.of("in/a.csv"));
+			}
+			assertThat(calls.get()).isEqualTo(1);
+
+			cache.listS3Contents(request("secret"));
+			assertThat(calls.get()).isEqualTo(1);
+			cache.listS3Contents(request("other secret"));
+			assertThat(calls.get()).isEqualTo(2);
+		} finally {
+			callers.shutdownNow();
+			s3Service.shutdown();
+		}
+	}
+
+	private static S3Request request(String secret) {
+		S3Request request = new S3Request();
+		request.setAccessKey("key");
+		request.setSecretKey(secret);
+		request.setBucket("bucket");
+		request.setPath("in/");
+		return request;
+	}
+
+}
@@ -0,0 +1,157 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3MultipartUploadTests {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	private final Map<Integer, Long> partSizes = new ConcurrentSkipListMap<>();
+	private final Queue<String> aborted = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger completed = new AtomicInteger();
+
+	@AfterEach
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void writerWaitsOnceTheInFlightPartsHoldEveryBuffer() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		S3MultipartUpload upload = new S3MultipartUpload(client(release, -1), "bucket", "out.csv", 1024, 2, executor);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 5; i++) {
+					upload.write(ByteBuffer.wrap(new byte[1024]));
+				}
+				upload.close();
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+
+		writer.start();
+		waitFor(() -> partSizes.size() == 2);
+		Thread.sleep(200);
+		// Both buffers are out with S3, so the third part has nowhere to go
+		assertThat(partSizes).hasSize(2);
+		assertThat(writer.getState()).isEqualTo(Thread.State.WAITING);
+
+		release.countDown();
+		writer.join(5000);
+		assertThat(failure.get()).isNull();
+		assertThat(partSizes).hasSize(5);
+		assertThat(completed.get()).isEqualTo(1);
+		assertThat(aborted).isEmpty();
+	}
+
+	@Test
+	void failedPartAbortsTheUpload() throws Exception {
+		S3MultipartUpload upload = new S3MultipartUpload(client(null, 2), "bucket", "out.csv", 1024, 2, executor);
+
+		assertThatThrownBy(() -> {
+			for (int i = 0; i < 5; i++) {
+				upload.write(ByteBuffer.wrap(new byte[1024]));
+			}
+			upload.close();
+		}).isInstanceOf(IOException.class).hasMessageContaining("S3 is unavailable");
+		upload.abort();
+
+		assertThat(aborted).containsExactly("upload-1");
+		assertThat(completed.get()).isZero();
+	}
+
+	@Test
+	void partsGrowAsTheStreamGetsLonger() throws Exception {
+		S3MultipartUpload upload = new S3MultipartUpload(client(null, -1), "bucket", "out.csv", 16, 2, executor);
+
+		upload.write(ByteBuffer.wrap(new byte[S3MultipartUpload.PARTS_PER_SIZE * 16 + 64]));
+		upload.close();
+
+		assertThat(partSizes.get(1)).isEqualTo(16);
+		assertThat(partSizes.get(S3MultipartUpload.PARTS_PER_SIZE)).isEqualTo(16);
+		assertThat(partSizes.get(S3MultipartUpload.PARTS_PER_SIZE + 1)).isEqualTo(32);
+		assertThat(partSizes.get(S3MultipartUpload.PARTS_PER_SIZE + 2)).isEqualTo(32);
+		assertThat(completed.get()).isEqualTo(1);
+	}
+
+	@Test
+	void streamBeyondThePartLimitFailsAtOnceAndIsAborted() throws Exception {
+		S3MultipartUpload upload = new S3MultipartUpload(client(null, -1), "bucket", "out.csv", 1, 2, executor);
+		// Ten sizes of a thousand parts each, one byte to 512 bytes
+		long capacity = (long) S3MultipartUpload.PARTS_PER_SIZE * 1023;
+
+		upload.write(ByteBuffer.wrap(new byte[(int) capacity]));
+		assertThatThrownBy(() -> upload.write(ByteBuffer.wrap(new byte[1])))
+			.isInstanceOf(IOException.class).hasMessageContaining("exceeds the 10000 parts");
+		upload.abort();
+
+		assertThat(partSizes.keySet()).allMatch(part -> part <= S3Service.MAX_PARTS);
+		assertThat(aborted).containsExactly("upload-1");
+		assertThat(completed.get()).isZero();
+	}
+
+	/**
+	 * Records every part; parts wait for release when given, and failingPart fails
+	 */
+	private S3Client client(CountDownLatch release, int failingPart) {
+		return new S3UploadServiceTests.StubS3Client() {
+			@Override
+			public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+				return CreateMultipartUploadResponse.builder().uploadId("upload-1").build();
+			}
+
+			@Override
+			public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+				partSizes.put(request.partNumber(), request.contentLength());
+				if (request.partNumber() == failingPart) {
+					throw new IllegalStateException("S3 is unavailable");
+				}
+				if (release != null) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+			}
+
+			@Override
+			public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+				completed.incrementAndGet();
+				return CompleteMultipartUploadResponse.builder().build();
+			}
+
+			@Override
+			public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+				aborted.add(request.uploadId());
+				return AbortMultipartUploadResponse.builder().build();
+			}
+		};
+	}
+
+	private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+}
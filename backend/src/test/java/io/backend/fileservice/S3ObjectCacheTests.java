@@ -0,0 +1,143 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ObjectCacheTests {
+
+	@TempDir
+	Path cacheDir;
+
+	private final Map<String, Integer> sizes = new ConcurrentHashMap<>();
+	private final AtomicInteger downloads = new AtomicInteger();
+	private volatile CountDownLatch release = new CountDownLatch(0);
+	private final ExecutorService callers = Executors.newFixedThreadPool(4);
+
+	private final S3Client s3 = new S3UploadServiceTests.StubS3Client() {
+		@Override
+		public HeadObjectResponse headObject(HeadObjectRequest request) {
+			int size = sizes.get(request.key());
+			return HeadObjectResponse.builder().eTag("\"etag-" + request.key() + "\"").contentLength((long) size).build();
+		}
+
+		@Override
+		public GetObjectResponse getObject(GetObjectRequest request, Path destination) {
+			downloads.incrementAndGet();
+			try {
+				release.await();
+				Files.write(destination, new byte[sizes.get(request.key())]);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return GetObjectResponse.builder().eTag(request.ifMatch()).build();
+		}
+	};
+
+	@AfterEach
+	void shutdown() {
+		callers.shutdownNow();
+	}
+
+	@Test
+	void concurrentCallersShareOneDownload() throws Exception {
+		S3ObjectCache cache = new S3ObjectCache(cacheDir.toString(), 10_000, 10_000);
+		sizes.put("a.csv", 100);
+		release = new CountDownLatch(1);
+
+		List<Future<S3ObjectCache.CachedObject>> opened = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			opened.add(callers.submit(() -> cache.open(s3, "bucket", "a.csv")));
+		}
+		Thread.sleep(200); // Let every caller reach the cache
+		release.countDown();
+
+		List<Path> paths = new ArrayList<>();
+		for (Future<S3ObjectCache.CachedObject> object : opened) {
+			try (S3ObjectCache.CachedObject cached = object.get(5, TimeUnit.SECONDS)) {
+				paths.add(cached.getPath());
+			}
+		}
+		assertThat(downloads.get()).isEqualTo(1);
+		assertThat(paths).hasSize(4).allMatch(path -> path.equals(paths.get(0)));
+		assertThat(Files.size(paths.get(0))).isEqualTo(100);
+	}
+
+	@Test
+	void evictsTheLeastRecentlyUsedEntryThatIsNotInUse() throws Exception {
+		S3ObjectCache cache = new S3ObjectCache(cacheDir.toString(), 250, 250);
+		sizes.put("a.csv", 100);
+		sizes.put("b.csv", 100);
+		sizes.put("c.csv", 100);
+
+		S3ObjectCache.CachedObject pinned = cache.open(s3, "bucket", "a.csv");
+		Path b;
+		try (S3ObjectCache.CachedObject cached = cache.open(s3, "bucket", "b.csv")) {
+			b = cached.getPath();
+		}
+		Path c;
+		try (S3ObjectCache.CachedObject cached = cache.open(s3, "bucket", "c.csv")) {
+			c = cached.getPath();
+		}
+
+		// a is the oldest but still open, so b goes instead
+		assertThat(pinned.getPath()).exists();
+		assertThat(b).doesNotExist();
+		assertThat(c).exists();
+		pinned.close();
+
+		cache.open(s3, "bucket", "b.csv").close();
+		assertThat(downloads.get()).isEqualTo(4);
+	}
+
+	@Test
+	void invalidatedEntryIsReplacedWhileItsOldReaderFinishes() throws Exception {
+		S3ObjectCache cache = new S3ObjectCache(cacheDir.toString(), 10_000, 10_000);
+		sizes.put("a.csv", 100);
+
+		S3ObjectCache.CachedObject corrupt = cache.open(s3, "bucket", "a.csv");
+		corrupt.invalidate();
+		S3ObjectCache.CachedObject replacement = cache.open(s3, "bucket", "a.csv");
+		assertThat(downloads.get()).isEqualTo(2);
+
+		// Closing the old reader must not drop the replacement filed under the same id
+		corrupt.close();
+		replacement.close();
+		try (S3ObjectCache.CachedObject cached = cache.open(s3, "bucket", "a.csv")) {
+			assertThat(cached.getPath()).exists();
+		}
+		assertThat(downloads.get()).isEqualTo(2);
+	}
+
+	@Test
+	void objectsAboveTheThresholdBypassTheCache() throws Exception {
+		S3ObjectCache cache = new S3ObjectCache(cacheDir.toString(), 10_000, 500);
+		sizes.put("small.csv", 100);
+		sizes.put("large.csv", 1000);
+
+		assertThat(cache.open(s3, "bucket", "large.csv")).isNull();
+		cache.open(s3, "bucket", "small.csv").close();
+
+		assertThat(downloads.get()).isEqualTo(1);
+	}
+
+}
@@ -0,0 +1,86 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.presigner.PresignedRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ServiceTests {
+
+	private final Queue<SdkHttpMethod> methods = new ConcurrentLinkedQueue<>();
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void downloadLinksGetTheRequestedKeysForTheConfiguredLifetime() {
+		S3Request request = request("reports/", List.of("reports/2026/q1.csv"));
+
+		Map<String, Object> result = s3Service(600).presignDownloads(request);
+
+		URI url = URI.create(((Map<String, String>) result.get("urls")).get("reports/2026/q1.csv"));
+		assertThat(url.getHost()).isEqualTo("exports.s3.eu-central-1.amazonaws.com");
+		assertThat(url.getPath()).isEqualTo("/reports/2026/q1.csv");
+		assertThat(url.getQuery()).contains("X-Amz-Expires=600");
+		assertThat(result.get("expiresInSeconds")).isEqualTo(600L);
+		assertThat(methods).containsExactly(SdkHttpMethod.GET);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void uploadLinksPutUnderTheRequestPath() {
+		S3Request request = request("incoming", List.of("orders.csv"));
+
+		Map<String, Object> result = s3Service(300).presignUploads(request);
+
+		Map<String, String> urls = (Map<String, String>) result.get("urls");
+		assertThat(urls).containsOnlyKeys("incoming/orders.csv");
+		URI url = URI.create(urls.get("incoming/orders.csv"));
+		assertThat(url.getPath()).isEqualTo("/incoming/orders.csv");
+		assertThat(url.getQuery()).contains("X-Amz-Expires=300");
+		assertThat(methods).containsExactly(SdkHttpMethod.PUT);
+	}
+
+	private static S3Request request(String path, List<String> files) {
+		S3Request request = new S3Request();
+		request.setAccessKey("AKIDEXAMPLE");
+		request.setSecretKey("wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+		request.setBucket("exports");
+		request.setPath(path);
+		request.setFiles(files);
+		return request;
+	}
+
+	/**
+	 * Signs with the real presigner and records the HTTP method of every presigned request
+	 */
+	private S3Service s3Service(long ttlSeconds) {
+		return new S3Service(null, null, null, null, 8, 4, 1, ttlSeconds, 4, 5, 100, 20000, "", false) {
+			@Override
+			S3Presigner createS3Presigner(S3Request s3Request) {
+				S3Presigner presigner = super.createS3Presigner(s3Request);
+				return (S3Presigner) Proxy.newProxyInstance(S3Presigner.class.getClassLoader(),
+					new Class<?>[]{S3Presigner.class}, (proxy, method, args) -> {
+						try {
+							Object result = method.invoke(presigner, args);
+							if (result instanceof PresignedRequest presigned) {
+								methods.add(presigned.httpRequest().method());
+							}
+							return result;
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					});
+			}
+		};
+	}
+
+}
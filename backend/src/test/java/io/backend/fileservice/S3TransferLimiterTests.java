@@ -0,0 +1,59 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3TransferLimiterTests {
+
+	@Test
+	void backsOffOnThrottlingAndRetriesWithinTheBudget() throws Exception {
+		FileController.ImportProgress progress = new FileController.ImportProgress();
+		S3TransferLimiter limiter = new S3TransferLimiter(8, 1, 16, 1, 5, progress);
+		AtomicInteger attempts = new AtomicInteger();
+
+		String result = limiter.execute(new AtomicInteger(5), 0, () -> {
+			if (attempts.incrementAndGet() < 3) {
+				throw error(503, "SlowDown");
+			}
+			return "ok";
+		});
+
+		assertThat(result).isEqualTo("ok");
+		assertThat(progress.retries).isEqualTo(2);
+		assertThat(limiter.getLimit()).isEqualTo(4); // Halved once; the second throttle fell in the cool-down
+		assertThat(progress.concurrency).isEqualTo(4);
+
+		for (int i = 0; i < 20; i++) {
+			limiter.execute(new AtomicInteger(0), 0, () -> "ok");
+		}
+		assertThat(limiter.getLimit()).isGreaterThan(4);
+
+		AtomicInteger denied = new AtomicInteger();
+		assertThatThrownBy(() -> limiter.execute(new AtomicInteger(5), 0, () -> {
+			denied.incrementAndGet();
+			throw error(403, "AccessDenied");
+		})).isInstanceOf(S3Exception.class);
+		assertThat(denied.get()).isEqualTo(1);
+
+		AtomicInteger failing = new AtomicInteger();
+		assertThatThrownBy(() -> limiter.execute(new AtomicInteger(2), 0, () -> {
+			failing.incrementAndGet();
+			throw error(500, "InternalError");
+		})).isInstanceOf(S3Exception.class);
+		assertThat(failing.get()).isEqualTo(3);
+	}
+
+	private static S3Exception error(int status, String code) {
+		return (S3Exception) S3Exception.builder()
+			.statusCode(status)
+			.awsErrorDetails(AwsErrorDetails.builder().errorCode(code).build())
+			.build();
+	}
+
+}
@@ -0,0 +1,251 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3UploadServiceTests {
+
+	private static final int PART_SIZE = 5 * 1024 * 1024;
+
+	@TempDir
+	Path storage;
+
+	@Test
+	void interruptStopsTheJobAndAbortsItsMultipartUploads() throws Exception {
+		for (String name : List.of("a.bin", "b.bin", "c.bin")) {
+			Files.write(storage.resolve(name), new byte[PART_SIZE + 1024]);
+		}
+		AtomicInteger created = new AtomicInteger();
+		Queue<String> aborted = new ConcurrentLinkedQueue<>();
+		CountDownLatch uploading = new CountDownLatch(1);
+		S3Client s3 = new StubS3Client() {
+			@Override
+			public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+				return CreateMultipartUploadResponse.builder().uploadId("upload-" + created.incrementAndGet()).build();
+			}
+
+			@Override
+			public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+				uploading.countDown();
+				try {
+					Thread.sleep(60_000); // S3 is slow; only the cancel ends this part
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IllegalStateException("Part cancelled");
+			}
+
+			@Override
+			public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+				aborted.add(request.uploadId());
+				return AbortMultipartUploadResponse.builder().build();
+			}
+		};
+		S3Service s3Service = s3Service(s3);
+		// A window of one part, so the job waits for a slot while the first part is uploading
+		S3UploadService uploadService = new S3UploadService(s3Service, new FileService(storage.toString(), new FileSearchIndex(1000)), 1);
+		S3Request request = new S3Request();
+		request.setBucket("bucket");
+		request.setFiles(List.of("a.bin", "b.bin", "c.bin"));
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread job = new Thread(() -> {
+			try {
+				uploadService.uploadFiles(request, new FileController.ImportProgress());
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+
+		try {
+			job.start();
+			assertThat(uploading.await(5, TimeUnit.SECONDS)).isTrue();
+			job.interrupt();
+			job.join(5000);
+
+			assertThat(job.isAlive()).isFalse();
+			assertThat(failure.get()).isInstanceOf(RuntimeException.class).hasMessage("Upload interrupted");
+			assertThat(created.get()).isEqualTo(1);
+			assertThat(aborted).containsExactly("upload-1");
+		} finally {
+			s3Service.shutdown();
+		}
+	}
+
+	@Test
+	void filesAreOnlyHeldOpenWhileTheirPartsUpload() throws Exception {
+		Assumptions.assumeTrue(Files.isDirectory(Path.of("/proc/self/fd")), "Needs /proc to count open files");
+		for (String name : List.of("a.bin", "b.bin", "c.bin")) {
+			Files.write(storage.resolve(name), new byte[PART_SIZE + 1024]);
+		}
+		Queue<Long> openWhileUploading = new ConcurrentLinkedQueue<>();
+		Queue<String> completed = new ConcurrentLinkedQueue<>();
+		S3Client s3 = new StubS3Client() {
+			@Override
+			public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+				return CreateMultipartUploadResponse.builder().uploadId(request.key()).build();
+			}
+
+			@Override
+			public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+				try {
+					Thread.sleep(100); // Time for the job to queue every part
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				openWhileUploading.add(openFiles());
+				return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+			}
+
+			@Override
+			public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+				completed.add(request.key() + ":" + request.multipartUpload().parts().size());
+				return CompleteMultipartUploadResponse.builder().build();
+			}
+		};
+		S3Service s3Service = s3Service(s3);
+		S3UploadService uploadService = new S3UploadService(s3Service, new FileService(storage.toString(), new FileSearchIndex(1000)), 16);
+		S3Request request = new S3Request();
+		request.setBucket("bucket");
+		request.setFiles(List.of("a.bin", "b.bin", "c.bin"));
+		FileController.ImportProgress progress = new FileController.ImportProgress();
+
+		try {
+			uploadService.uploadFiles(request, progress);
+
+			assertThat(progress.status).isEqualTo("done");
+			assertThat(completed).containsExactlyInAnyOrder("a.bin:2", "b.bin:2", "c.bin:2");
+			// All parts are queued at once, but only the files of the two running parts are open
+			assertThat(openWhileUploading).allMatch(open -> open <= 2);
+			assertThat(openFiles()).isZero();
+		} finally {
+			s3Service.shutdown();
+		}
+	}
+
+	@Test
+	void failedFileIsAbortedWhileTheOthersComplete() throws Exception {
+		for (String name : List.of("a.bin", "b.bin")) {
+			Files.write(storage.resolve(name), new byte[PART_SIZE + 1024]);
+		}
+		Queue<String> aborted = new ConcurrentLinkedQueue<>();
+		Queue<String> completed = new ConcurrentLinkedQueue<>();
+		S3Client s3 = new StubS3Client() {
+			@Override
+			public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+				return CreateMultipartUploadResponse.builder().uploadId(request.key()).build();
+			}
+
+			@Override
+			public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+				if (request.key().equals("a.bin")) {
+					throw new IllegalStateException("Disk on fire");
+				}
+				return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+			}
+
+			@Override
+			public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+				completed.add(request.key());
+				return CompleteMultipartUploadResponse.builder().build();
+			}
+
+			@Override
+			public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+				aborted.add(request.uploadId());
+				return AbortMultipartUploadResponse.builder().build();
+			}
+		};
+		S3Service s3Service = s3Service(s3);
+		S3UploadService uploadService = new S3UploadService(s3Service, new FileService(storage.toString(), new FileSearchIndex(1000)), 16);
+		S3Request request = new S3Request();
+		request.setBucket("bucket");
+		request.setFiles(List.of("a.bin", "b.bin"));
+		FileController.ImportProgress progress = new FileController.ImportProgress();
+
+		try {
+			uploadService.uploadFiles(request, progress);
+
+			assertThat(progress.status).isEqualTo("error");
+			assertThat(progress.message).contains("Uploaded: 1, Failed: 1", "a.bin");
+			assertThat(aborted).containsExactly("a.bin");
+			assertThat(completed).containsExactly("b.bin");
+		} finally {
+			s3Service.shutdown();
+		}
+	}
+
+	@Test
+	void partsGrowSoLargeFilesFitInTheS3PartLimit() {
+		S3Service s3Service = s3Service(new StubS3Client());
+		try {
+			assertThat(s3Service.partSizeFor(10L * PART_SIZE)).isEqualTo(PART_SIZE);
+			long hundredGigabytes = 100L * 1024 * 1024 * 1024;
+			long partSize = s3Service.partSizeFor(hundredGigabytes);
+			assertThat(partSize).isGreaterThan(PART_SIZE);
+			assertThat((hundredGigabytes + partSize - 1) / partSize).isLessThanOrEqualTo(S3Service.MAX_PARTS);
+		} finally {
+			s3Service.shutdown();
+		}
+	}
+
+	/**
+	 * Files of the storage directory this process has open
+	 */
+	private long openFiles() {
+		try (Stream<Path> descriptors = Files.list(Path.of("/proc/self/fd"))) {
+			return descriptors.filter(descriptor -> {
+				try {
+					return Files.readSymbolicLink(descriptor).startsWith(storage);
+				} catch (IOException e) {
+					return false; // Closed while listing
+				}
+			}).count();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static S3Service s3Service(S3Client s3) {
+		return new S3Service(null, null, null, null, 5, 4, 2, 900, 4, 0, 100, 20000, "", false) {
+			@Override
+			S3Client createS3Client(S3Request s3Request) {
+				return s3;
+			}
+		};
+	}
+
+	/**
+	 * A client that answers nothing; tests override the requests they expect
+	 */
+	static class StubS3Client implements S3Client {
+
+		@Override
+		public String serviceName() {
+			return "s3";
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
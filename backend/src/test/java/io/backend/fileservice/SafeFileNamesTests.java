@@ -0,0 +1,121 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SafeFileNamesTests {
+
+	// Pieces that random names are built from, weighted towards what the rules look for
+	private static final String[] FRAGMENTS = {
+		"a", "report", "data_2024", "x-y", " ", "é", "文件", "📄", "/", "\\", "sub/", ".", ".", "..",
+		".csv", ".TXT", "%", "%2", "%2e", "%2E", "%25", "%252e", "%2f", "%5c", "%c0%af", "e", "E", "2", "5",
+		"<", ">", ":", "\"", "|", "?", "*", "\u0000", "\t", "\n", "\u001f", "\u007f", "\u0085", "\u009f",
+		"CON", "con", "Prn", "aux", "NUL", "COM", "com", "LPT", "lpt", "0", "1", "9", "İ", "ı", "\u212a"
+	};
+
+	private static final List<String> DANGEROUS = List.of(
+		"..", "....", "%2e%2e", "%252e%252e", "..%2f", "%2e%2e%2f", "..%5c", "%2e%2e%5c", "..\\",
+		"..%c0%af", "..%c1%9c", "..%ef%bc%8f", "..%c0%2f", "..%c0%5c", "..%00", "..%0d", "..%0a",
+		"..%09", "..%20", "..%7f", "..%ff", "%2E%2e", "%252E%252E", "<", ">", ":", "\"", "|", "?", "*",
+		"\u0000", "\r", "\u007f", "\u0080", "\u009f");
+
+	@Test
+	void agreesWithTheLegacyCheckOnRandomNames() {
+		Random random = new Random(20240617);
+		int rejected = 0;
+		for (int i = 0; i < 200_000; i++) {
+			String name = randomName(random, random.nextInt(8));
+			boolean expected = LegacyFileNames.isValid(name);
+			assertThat(SafeFileNames.isValid(name)).as(escape(name)).isEqualTo(expected);
+			if (!expected) {
+				rejected++;
+			}
+		}
+		// Both outcomes must be common for the comparison to mean anything
+		assertThat(rejected).isBetween(40_000, 160_000);
+	}
+
+	@Test
+	void rejectsDangerousPatternsAnywhereInAName() {
+		Random random = new Random(7);
+		for (String pattern : DANGEROUS) {
+			for (int i = 0; i < 500; i++) {
+				String name = safeName(random) + pattern + safeName(random);
+				assertThat(SafeFileNames.isValid(name)).as(escape(name)).isFalse();
+			}
+		}
+		for (String name : List.of("/etc/passwd", "\\windows", "C:\\boot.ini", "CON", "con.txt", "Lpt9.log",
+				"com1", "NUL.gz", "con", "", "../../x", "a/..", "%2E%2E%2Fsecret")) {
+			assertThat(SafeFileNames.isValid(name)).as(escape(name)).isFalse();
+		}
+		assertThat(SafeFileNames.isValid(null)).isFalse();
+		for (String name : List.of("report.csv", "sub/dir/file.txt", ".hidden", ".con", "CON1", "COM0.txt",
+				"console.log", "a.b.c", "%2e.txt", "文件.csv")) {
+			assertThat(SafeFileNames.isValid(name)).as(name).isTrue();
+		}
+	}
+
+	@Test
+	void resolvedNamesStayInsideTheRoot(@TempDir Path root) throws IOException {
+		Random random = new Random(11);
+		for (int i = 0; i < 20_000; i++) {
+			String name = randomName(random, 1 + random.nextInt(6));
+			if (SafeFileNames.isValid(name)) {
+				try {
+					assertThat(SafeFileNames.resolve(root, name).startsWith(root)).as(escape(name)).isTrue();
+				} catch (java.nio.file.InvalidPathException e) {
+					// Not a path on this file system at all, so nothing is resolved
+				}
+			} else {
+				assertThatThrownBy(() -> SafeFileNames.resolve(root, name)).isInstanceOf(IOException.class);
+			}
+		}
+	}
+
+	@Test
+	void checkingDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		String[] names = {"reports/2024/summary.csv", "a%2e%2eb", "COM7.txt", "photo..jpg", "x:y", "data\u0085"};
+		int valid = 0;
+		for (int i = 0; i < 10_000; i++) {
+			valid += SafeFileNames.isValid(names[i % names.length]) ? 1 : 0;
+		}
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < 1_000_000; i++) {
+			valid += SafeFileNames.isValid(names[i % names.length]) ? 1 : 0;
+		}
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+		assertThat(valid).isEqualTo(1_667 + 166_667); // Only the first name is valid
+		// The legacy check allocated hundreds of bytes per call; allow only measurement noise
+		assertThat(allocated).isLessThan(64 * 1024);
+	}
+
+	private static String randomName(Random random, int parts) {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < parts; i++) {
+			name.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+		}
+		return name.toString();
+	}
+
+	private static String safeName(Random random) {
+		String[] parts = {"", "a", "report", "sub/", "x.csv", "é", "2024-01"};
+		return parts[random.nextInt(parts.length)];
+	}
+
+	private static String escape(String name) {
+		StringBuilder escaped = new StringBuilder();
+		name.chars().forEach(c -> escaped.append(c < 0x20 || c > 0x7e ? String.format("\\u%04x", c) : String.valueOf((char) c)));
+		return escaped.toString();
+	}
+}
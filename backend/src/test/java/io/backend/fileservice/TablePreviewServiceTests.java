@@ -0,0 +1,145 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TablePreviewServiceTests {
+
+	private final AtomicInteger schemaCalls = new AtomicInteger();
+	private final AtomicInteger sampleCalls = new AtomicInteger();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private final PostgresService postgresService = new StubPostgresService() {
+		@Override
+		Map<String, Object> schema(String tableName) {
+			return Map.of("table", "public." + tableName, "columns", List.of(Map.of("name", "id",
+				"type", "integer", "default", "nextval('orders_id_seq'::regclass)")));
+		}
+
+		@Override
+		Map<String, Object> sample(String tableName, int limit) {
+			return Map.of("table", "public." + tableName, "limit", limit);
+		}
+	};
+
+	@Test
+	void coldPreviewReadsSchemaAndSampleOverOneConnection() throws Exception {
+		TablePreviewService service = new TablePreviewService(postgresService, 30, 1024 * 1024, 5, 1000);
+
+		service.getPreview(request("secret", null), "orders");
+
+		assertThat(connections.get()).isEqualTo(1);
+		assertThat(schemaCalls.get()).isEqualTo(1);
+		assertThat(sampleCalls.get()).isEqualTo(1);
+	}
+
+	@Test
+	void previewKeepsTheInformationSchemaColumnsAndCachesThemApartFromSamples() throws Exception {
+		TablePreviewService service = new TablePreviewService(postgresService, 30, 1024 * 1024, 5, 1000);
+
+		Map<String, Object> preview = service.getPreview(request("secret", null), "orders");
+		PostgresRequest larger = request("secret", 20);
+		Map<String, Object> largerPreview = service.getPreview(larger, "orders");
+		service.getPreview(larger, "orders");
+
+		assertThat(preview.get("schema").toString()).contains("type=integer", "nextval('orders_id_seq'::regclass)");
+		assertThat(((Map<?, ?>) preview.get("sample")).get("limit")).isEqualTo(5);
+		assertThat(((Map<?, ?>) largerPreview.get("sample")).get("limit")).isEqualTo(20);
+		assertThat(schemaCalls.get()).isEqualTo(1);
+		assertThat(sampleCalls.get()).isEqualTo(2);
+	}
+
+	@Test
+	void entriesAreScopedByAHashOfThePassword() throws Exception {
+		TablePreviewService service = new TablePreviewService(postgresService, 30, 1024 * 1024, 5, 1000);
+
+		service.getPreview(request("secret", null), "orders");
+		service.getPreview(request("other secret", null), "orders");
+
+		assertThat(schemaCalls.get()).isEqualTo(2);
+		assertThat(sampleCalls.get()).isEqualTo(2);
+		assertThat(TablePreviewService.scope(request("secret", null))).doesNotContain("secret")
+			.isNotEqualTo(TablePreviewService.scope(request("other secret", null)));
+	}
+
+	@Test
+	void clampsTheLimitAndDoesNotCacheSamplesLargerThanTheBudget() throws Exception {
+		PostgresService wideRows = new StubPostgresService() {
+			@Override
+			Map<String, Object> schema(String tableName) {
+				return Map.of("table", "public." + tableName);
+			}
+
+			@Override
+			Map<String, Object> sample(String tableName, int limit) {
+				return Map.of("limit", limit, "rows", Collections.nCopies(limit, Map.of("text", "x".repeat(1000))));
+			}
+		};
+		TablePreviewService service = new TablePreviewService(wideRows, 30, 64 * 1024, 5, 100);
+
+		Map<String, Object> preview = service.getPreview(request("secret", 1_000_000), "orders");
+		service.getPreview(request("secret", 1_000_000), "orders");
+
+		assertThat(((Map<?, ?>) preview.get("sample")).get("limit")).isEqualTo(100);
+		assertThat(sampleCalls.get()).isEqualTo(2);
+		assertThat(schemaCalls.get()).isEqualTo(1);
+
+		service.getPreview(request("secret", 10), "orders");
+		service.getPreview(request("secret", 10), "orders");
+		assertThat(sampleCalls.get()).isEqualTo(3);
+	}
+
+	private static PostgresRequest request(String password, Integer limit) {
+		PostgresRequest request = new PostgresRequest();
+		request.setHost("db");
+		request.setPort(5432);
+		request.setDatabase("shop");
+		request.setUsername("reader");
+		request.setPassword(password);
+		request.setLimit(limit);
+		return request;
+	}
+
+	/**
+	 * Answers from schema and sample, counting reads and the connections they would take
+	 */
+	private abstract class StubPostgresService extends PostgresService {
+
+		StubPostgresService() {
+			super(1000, "");
+		}
+
+		abstract Map<String, Object> schema(String tableName);
+
+		abstract Map<String, Object> sample(String tableName, int limit);
+
+		@Override
+		public Map<String, Object> getTableSchema(PostgresRequest request, String tableName) {
+			connections.incrementAndGet();
+			schemaCalls.incrementAndGet();
+			return schema(tableName);
+		}
+
+		@Override
+		public Map<String, Object> getTableSample(PostgresRequest request, String tableName, int limit) {
+			connections.incrementAndGet();
+			sampleCalls.incrementAndGet();
+			return sample(tableName, limit);
+		}
+
+		@Override
+		public Map<String, Object> getTablePreview(PostgresRequest request, String tableName, int limit) {
+			connections.incrementAndGet();
+			schemaCalls.incrementAndGet();
+			sampleCalls.incrementAndGet();
+			return Map.of("schema", schema(tableName), "sample", sample(tableName, limit));
+		}
+	}
+
+}
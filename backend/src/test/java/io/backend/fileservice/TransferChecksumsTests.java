@@ -0,0 +1,58 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferChecksumsTests {
+
+	private static final byte[] DATA = "id,name\n1,alpha\n2,beta\n".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	void verifiesEveryChecksumS3SuppliedWhileStreaming() throws Exception {
+		String md5 = HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(DATA));
+		CRC32C crc = new CRC32C();
+		crc.update(DATA);
+		String crc32c = Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+
+		TransferChecksums checksums = new TransferChecksums("\"" + md5 + "\"", true, crc32c, null);
+		try (InputStream in = checksums.wrap(new ByteArrayInputStream(DATA))) {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+		Map<String, Object> result = checksums.verify();
+
+		assertThat(result.get("verified")).isEqualTo(List.of("crc32c", "etag-md5"));
+		assertThat(result.get("md5")).isEqualTo(md5);
+		assertThat(result.get("sha256")).isEqualTo(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(DATA)));
+		assertThat(result.get("bytes")).isEqualTo((long) DATA.length);
+	}
+
+	@Test
+	void failsRetryablyOnMismatchAndSkipsMultipartValues() throws Exception {
+		TransferChecksums corrupted = new TransferChecksums("\"00000000000000000000000000000000\"", true, null, null);
+		corrupted.update(DATA, 0, DATA.length);
+		assertThatThrownBy(corrupted::verify).isInstanceOf(TransferChecksums.ChecksumMismatchException.class);
+		assertThat(S3TransferLimiter.isRetryable(new TransferChecksums.ChecksumMismatchException("mismatch"))).isTrue();
+
+		// Multipart ETags and composite checksums are not content hashes, and KMS ETags are not MD5s
+		String multipartETag = "\"9b2cf535f27731c974343645a3985328-3\"";
+		assertThat(TransferChecksums.isMd5ETag(multipartETag, null, null)).isFalse();
+		assertThat(TransferChecksums.isMd5ETag("\"9b2cf535f27731c974343645a3985328\"", "aws:kms", null)).isFalse();
+		TransferChecksums multipart = new TransferChecksums(multipartETag, false, "AAAAAA==-3", null);
+		multipart.update(DATA, 0, DATA.length);
+		assertThat(multipart.verify().get("verified")).isEqualTo(List.of());
+	}
+}
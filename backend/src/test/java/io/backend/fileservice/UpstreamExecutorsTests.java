@@ -0,0 +1,141 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.sql.*;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UpstreamExecutorsTests {
+
+	@Test
+	void timesOutSlowCallsAndRejectsWhenThePoolIsFull() throws Exception {
+		MockEnvironment environment = new MockEnvironment().withProperty("upstream.timeout.slow", "200ms");
+		UpstreamExecutors executors = new UpstreamExecutors(environment, 1, 1, 1, 1, Duration.ofSeconds(30));
+		CountDownLatch interrupted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try {
+			CompletableFuture<ResponseEntity<Map<String, Object>>> slow = executors.jdbc("slow", () -> {
+				try {
+					Thread.sleep(10_000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return ResponseEntity.ok(Map.of());
+			});
+			assertThat(slow.get(5, TimeUnit.SECONDS).getStatusCode().value()).isEqualTo(504);
+			assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+
+			// One running and one queued fill the S3 pool; the JDBC pool is unaffected
+			executors.s3("list-s3", () -> await(release));
+			executors.s3("list-s3", () -> await(release));
+			assertThat(executors.s3("list-s3", () -> ResponseEntity.ok(Map.of())).get().getStatusCode().value()).isEqualTo(503);
+			assertThat(executors.jdbc("list-postgres", () -> ResponseEntity.ok(Map.of())).get(5, TimeUnit.SECONDS)
+				.getStatusCode().value()).isEqualTo(200);
+		} finally {
+			release.countDown();
+			executors.shutdown();
+		}
+	}
+
+	@Test
+	void databaseCallsTimeOutTheirConnectionWithTheEndpoint() throws Exception {
+		MockEnvironment environment = new MockEnvironment().withProperty("upstream.timeout.postgres-table-preview", "20s");
+		UpstreamExecutors executors = new UpstreamExecutors(environment, 1, 1, 1, 1, Duration.ofSeconds(30));
+		AtomicReference<Properties> connected = new AtomicReference<>();
+		Driver driver = new RecordingDriver(connected);
+		DriverManager.registerDriver(driver);
+		PostgresService postgresService = new PostgresService(1000, "jdbc:recording://%s:%d/%s");
+		PostgresRequest request = new PostgresRequest();
+		request.setUsername("reader");
+
+		try {
+			executors.jdbc("postgres-table-preview", () -> {
+				try {
+					postgresService.getTableSchema(request, "orders");
+				} catch (SQLException e) {
+					// The recording driver never connects
+				}
+				return ResponseEntity.ok(Map.of());
+			}).get(5, TimeUnit.SECONDS);
+			assertThat(connected.get().getProperty("socketTimeout")).isEqualTo("20");
+			assertThat(connected.get().getProperty("connectTimeout")).isEqualTo("20");
+			assertThat(connected.get().getProperty("user")).isEqualTo("reader");
+
+			// Exports and other work off the upstream pools keep the driver's defaults
+			assertThatThrownBy(() -> postgresService.getTableSchema(request, "orders")).isInstanceOf(SQLException.class);
+			assertThat(connected.get().getProperty("socketTimeout")).isNull();
+			assertThat(UpstreamExecutors.remainingTime()).isNull();
+		} finally {
+			DriverManager.deregisterDriver(driver);
+			executors.shutdown();
+		}
+	}
+
+	private static ResponseEntity<Map<String, Object>> await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return ResponseEntity.ok(Map.of());
+	}
+
+	/**
+	 * Records the properties of each connection attempt, then refuses it
+	 */
+	private record RecordingDriver(AtomicReference<Properties> connected) implements Driver {
+
+		@Override
+		public Connection connect(String url, Properties info) throws SQLException {
+			if (!acceptsURL(url)) {
+				return null;
+			}
+			connected.set(info);
+			throw new SQLException("Not a database");
+		}
+
+		@Override
+		public boolean acceptsURL(String url) {
+			return url.startsWith("jdbc:recording:");
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() {
+			return Logger.getGlobal();
+		}
+	}
+
+}
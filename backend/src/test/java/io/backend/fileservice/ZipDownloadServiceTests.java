@@ -0,0 +1,51 @@
+package io.backend.fileservice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZipDownloadServiceTests {
+
+	@TempDir
+	Path temp;
+
+	@Test
+	void streamsFilesAndDirectoriesIntoOneArchive() throws Exception {
+		FileService fileService = new FileService(temp.toString(), new FileSearchIndex(1000));
+		Files.createDirectories(temp.resolve("export/nested"));
+		Files.writeString(temp.resolve("export/a.csv"), "id\n1\n".repeat(1000));
+		Files.writeString(temp.resolve("export/nested/b.csv"), "id\n2\n");
+		Files.write(temp.resolve("data.gz"), new byte[]{0x1f, (byte) 0x8b, 8, 0});
+
+		ZipDownloadService service = new ZipDownloadService(fileService, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		service.writeZip(service.resolve(List.of("export", "data.gz", "export/a.csv")), out);
+
+		Map<String, String> entries = new HashMap<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.ISO_8859_1));
+			}
+		}
+
+		assertThat(entries).containsOnlyKeys("export/a.csv", "export/nested/b.csv", "data.gz");
+		assertThat(entries.get("export/a.csv")).isEqualTo("id\n1\n".repeat(1000));
+		assertThat(entries.get("export/nested/b.csv")).isEqualTo("id\n2\n");
+		assertThat(ZipDownloadService.isCompressed("data.gz")).isTrue();
+		assertThat(ZipDownloadService.isCompressed("export/a.csv")).isFalse();
+	}
+
+}